@@ -0,0 +1,96 @@
+package org.testpackage.benchmarks;
+
+import com.google.common.io.Files;
+import com.twitter.common.testing.runner.AntJunitXmlReportListener;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.junit.runner.Description;
+import org.junit.runner.Result;
+import org.junit.runner.notification.RunNotifier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.testpackage.ColouredOutputRunListener;
+import org.testpackage.sequencing.TestHistoryRepository;
+import org.testpackage.sequencing.TestHistoryRunListener;
+import org.testpackage.streams.CapturedOutputStreamSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Firing the events of a run of empty tests through a RunNotifier with the three standard listeners registered, as
+ * TestPackage does: console output (in plain mode, to a stream which discards it), the XML report and test history.
+ * This is the overhead the runner adds to every test.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RunNotifierBenchmark {
+
+    @Param({"100", "1000"})
+    public int tests;
+
+    private PrintStream originalOut;
+    private File reportDir;
+    private TestHistoryRepository testHistoryRepository;
+    private Description run;
+    private RunNotifier notifier;
+    private Result result;
+
+    @Setup
+    public void setUp() throws IOException {
+        originalOut = System.out;
+        System.setOut(new PrintStream(new NullOutputStream()));
+
+        reportDir = Files.createTempDir();
+        testHistoryRepository = new TestHistoryRepository(new File(reportDir, "history").getPath());
+
+        // a real class is needed for the XML report, but it need not be the test class
+        run = Description.createSuiteDescription("run");
+        Description testClass = Description.createSuiteDescription(RunNotifierBenchmark.class);
+        for (int i = 0; i < tests; i++) {
+            testClass.addChild(Description.createTestDescription(RunNotifierBenchmark.class, "test" + i));
+        }
+        run.addChild(testClass);
+    }
+
+    @Setup(Level.Invocation)
+    public void createListeners() {
+        CapturedOutputStreamSource capturedOutput = new CapturedOutputStreamSource();
+        notifier = new RunNotifier();
+        result = new Result();
+        notifier.addFirstListener(result.createListener());
+        notifier.addListener(new ColouredOutputRunListener(false, false, capturedOutput, true));
+        notifier.addListener(new AntJunitXmlReportListener(reportDir, capturedOutput));
+        notifier.addListener(new TestHistoryRunListener(testHistoryRepository));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        System.setOut(originalOut);
+        FileUtils.deleteDirectory(reportDir);
+    }
+
+    @Benchmark
+    public Result fireRunEvents() {
+        notifier.fireTestRunStarted(run);
+        for (Description testClass : run.getChildren()) {
+            for (Description test : testClass.getChildren()) {
+                notifier.fireTestStarted(test);
+                notifier.fireTestFinished(test);
+            }
+        }
+        notifier.fireTestRunFinished(result);
+        return result;
+    }
+}
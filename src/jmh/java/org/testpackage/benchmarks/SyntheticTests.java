@@ -0,0 +1,57 @@
+package org.testpackage.benchmarks;
+
+import org.junit.runner.Description;
+
+/**
+ * Synthetic test packages and description trees for the benchmarks to work on.
+ * <p/>
+ * The test classes themselves are generated by the <code>generateSyntheticTests</code> task in build.gradle, and
+ * the constants here must match it.
+ */
+final class SyntheticTests {
+
+    static final String PACKAGE_PREFIX = "org.testpackage.benchmarks.synthetic.p";
+    static final int PACKAGES = 20;
+    static final int CLASSES_PER_PACKAGE = 50;
+    static final int METHODS_PER_CLASS = 10;
+
+    private SyntheticTests() {
+    }
+
+    /**
+     * @param count how many of the generated packages to use
+     * @return the names of the packages
+     */
+    static String[] packageNames(int count) {
+        if (count > PACKAGES) {
+            throw new IllegalArgumentException("Only " + PACKAGES + " synthetic packages are generated");
+        }
+        String[] packageNames = new String[count];
+        for (int i = 0; i < count; i++) {
+            packageNames[i] = PACKAGE_PREFIX + i;
+        }
+        return packageNames;
+    }
+
+    /**
+     * @param classes          how many test classes the tree should have
+     * @param methodsPerClass  how many test methods each class should have
+     * @return a description of a run of that many classes, without any real test classes behind it
+     */
+    static Description descriptionTree(int classes, int methodsPerClass) {
+        Description run = Description.createSuiteDescription("synthetic");
+        for (int c = 0; c < classes; c++) {
+            String className = className(c);
+            Description testClass = Description.createSuiteDescription(className);
+            for (int m = 0; m < methodsPerClass; m++) {
+                testClass.addChild(Description.createTestDescription(className, "test" + m));
+            }
+            run.addChild(testClass);
+        }
+        return run;
+    }
+
+    static String className(int index) {
+        return PACKAGE_PREFIX + (index % PACKAGES) + ".Synthetic" + index + "Test";
+    }
+}
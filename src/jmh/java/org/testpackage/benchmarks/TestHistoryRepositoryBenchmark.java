@@ -0,0 +1,72 @@
+package org.testpackage.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.testpackage.sequencing.TestHistoryRepository;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading a history file with the given number of entries, and recording a duration for every entry and saving it
+ * again, as at the start and end of a run.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TestHistoryRepositoryBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int entries;
+
+    private File historyFile;
+    private String[] names;
+    private TestHistoryRepository repository;
+
+    @Setup
+    public void setUp() throws IOException {
+        historyFile = File.createTempFile("testpackage-history", ".bin");
+        names = new String[entries];
+        for (int i = 0; i < entries; i++) {
+            names[i] = SyntheticTests.className(i / SyntheticTests.METHODS_PER_CLASS) + ".test" + (i % SyntheticTests.METHODS_PER_CLASS);
+        }
+
+        repository = new TestHistoryRepository(historyFile.getPath());
+        for (int i = 0; i < entries; i++) {
+            repository.recordDuration(names[i], i % 1000);
+        }
+        // one in a hundred tests failed in the last run
+        for (int i = 0; i < entries; i += 100) {
+            repository.markFailure(SyntheticTests.className(i / SyntheticTests.METHODS_PER_CLASS), names[i]);
+        }
+        repository.save();
+    }
+
+    @TearDown
+    public void tearDown() {
+        historyFile.delete();
+        new File(historyFile.getPath() + ".lock").delete();
+    }
+
+    @Benchmark
+    public TestHistoryRepository load() throws IOException {
+        return new TestHistoryRepository(historyFile.getPath());
+    }
+
+    @Benchmark
+    public TestHistoryRepository recordAndSave() throws IOException {
+        for (int i = 0; i < entries; i++) {
+            repository.recordDuration(names[i], i % 1000);
+        }
+        repository.save();
+        return repository;
+    }
+}
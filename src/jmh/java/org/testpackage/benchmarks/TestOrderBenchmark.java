@@ -0,0 +1,70 @@
+package org.testpackage.benchmarks;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.runner.Description;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.testpackage.TestSequencer;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sorting large description trees into recent failures first order, as JUnit does for each class and then for the
+ * methods of each class. One in ten classes and methods has failed at some point.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TestOrderBenchmark {
+
+    private static final int METHODS_PER_CLASS = 20;
+
+    @Param({"100", "1000", "10000"})
+    public int classes;
+
+    private Description run;
+    private Comparator<Description> order;
+
+    @Setup
+    public void setUp() {
+        run = SyntheticTests.descriptionTree(classes, METHODS_PER_CLASS);
+
+        Map<String, Integer> runsSinceLastFailures = Maps.newHashMap();
+        int index = 0;
+        for (Description testClass : run.getChildren()) {
+            if (index++ % 10 == 0) {
+                runsSinceLastFailures.put(testClass.getDisplayName(), index % 7);
+            }
+            for (Description method : testClass.getChildren()) {
+                if (index++ % 10 == 0) {
+                    runsSinceLastFailures.put(method.getDisplayName(), index % 7);
+                }
+            }
+        }
+        order = TestSequencer.recentFailuresFirst(runsSinceLastFailures);
+    }
+
+    @Benchmark
+    public void sortRecentFailuresFirst(Blackhole blackhole) {
+        List<Description> testClasses = Lists.newArrayList(run.getChildren());
+        Collections.sort(testClasses, order);
+        for (Description testClass : testClasses) {
+            List<Description> methods = Lists.newArrayList(testClass.getChildren());
+            Collections.sort(methods, order);
+            blackhole.consume(methods);
+        }
+        blackhole.consume(testClasses);
+    }
+}
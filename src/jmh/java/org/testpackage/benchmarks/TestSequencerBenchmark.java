@@ -0,0 +1,54 @@
+package org.testpackage.benchmarks;
+
+import org.junit.runner.Runner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.testpackage.TestSequencer;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finding and ordering the test classes in the synthetic packages, each of which has
+ * {@link SyntheticTests#CLASSES_PER_PACKAGE} classes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TestSequencerBenchmark {
+
+    @Param({"1", "20"})
+    public int packages;
+
+    private String[] packageNames;
+    private TestSequencer scannedSequencer;
+
+    @Setup
+    public void setUp() throws IOException {
+        packageNames = SyntheticTests.packageNames(packages);
+        scannedSequencer = new TestSequencer();
+        scannedSequencer.sequenceTests(packageNames).getRunner();
+    }
+
+    /**
+     * As at the start of a run, including scanning the classpath.
+     */
+    @Benchmark
+    public Runner sequenceTests() throws IOException {
+        return new TestSequencer().sequenceTests(packageNames).getRunner();
+    }
+
+    /**
+     * With the classpath already scanned, i.e. just detecting, loading and sorting the test classes.
+     */
+    @Benchmark
+    public Runner sequenceTestsWithScannedClassPath() throws IOException {
+        return scannedSequencer.sequenceTests(packageNames).getRunner();
+    }
+}
@@ -0,0 +1,118 @@
+package org.testpackage.benchmarks;
+
+import com.google.common.base.Strings;
+import com.google.common.io.Files;
+import com.twitter.common.testing.runner.AntJunitXmlReportListener;
+import com.twitter.common.testing.runner.StreamSource;
+import org.apache.commons.io.FileUtils;
+import org.junit.runner.Description;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing the XML report for one test class, in which one test in ten has failed, and which wrote the given amount
+ * of output to each of stdout and stderr.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class XmlReportBenchmark {
+
+    @Param({"10", "1000"})
+    public int tests;
+
+    @Param({"0", "1048576"})
+    public int outputChars;
+
+    private File reportDir;
+    private Description run;
+    private Failure[] failures;
+    private StreamSource streamSource;
+    private AntJunitXmlReportListener listener;
+
+    @Setup
+    public void setUp() {
+        reportDir = Files.createTempDir();
+
+        run = Description.createSuiteDescription("run");
+        Description testClass = Description.createSuiteDescription(XmlReportBenchmark.class);
+        failures = new Failure[tests];
+        for (int i = 0; i < tests; i++) {
+            Description test = Description.createTestDescription(XmlReportBenchmark.class, "test" + i);
+            testClass.addChild(test);
+            if (i % 10 == 0) {
+                failures[i] = new Failure(test, new AssertionError("expected:<" + i + "> but was:<" + (i + 1) + ">"));
+            }
+        }
+        run.addChild(testClass);
+
+        final String output = Strings.repeat("Some output from a test\n", outputChars / 24 + 1).substring(0, outputChars);
+        streamSource = new StreamSource() {
+            @Override
+            public byte[] readOut(Class<?> testClass) {
+                return output.getBytes();
+            }
+
+            @Override
+            public byte[] readErr(Class<?> testClass) {
+                return output.getBytes();
+            }
+
+            @Override
+            public Reader openOut(Class<?> testClass) {
+                return new StringReader(output);
+            }
+
+            @Override
+            public Reader openErr(Class<?> testClass) {
+                return new StringReader(output);
+            }
+
+            @Override
+            public void release(Class<?> testClass) {
+            }
+        };
+    }
+
+    @Setup(Level.Invocation)
+    public void createListener() {
+        listener = new AntJunitXmlReportListener(reportDir, streamSource);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(reportDir);
+    }
+
+    @Benchmark
+    public AntJunitXmlReportListener writeReport() throws Exception {
+        listener.testRunStarted(run);
+        int i = 0;
+        for (Description test : run.getChildren().get(0).getChildren()) {
+            listener.testStarted(test);
+            if (failures[i] != null) {
+                listener.testFailure(failures[i]);
+            }
+            listener.testFinished(test);
+            i++;
+        }
+        listener.testRunFinished(new Result());
+        return listener;
+    }
+}
@@ -1,21 +1,18 @@
 package com.twitter.common.testing.runner;
 
 import com.google.common.base.Charsets;
-import com.google.common.base.Function;
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import org.junit.runner.Description;
 import org.junit.runner.Result;
 import org.junit.runner.notification.Failure;
 import org.junit.runner.notification.RunListener;
+import org.testpackage.junitcore.EventClock;
 
-import javax.xml.bind.JAXB;
-import javax.xml.bind.annotation.*;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 import java.io.*;
-import java.net.InetAddress;
-import java.net.UnknownHostException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
@@ -25,258 +22,134 @@ import java.util.concurrent.TimeUnit;
 
 /**
  * A run listener that creates ant junit xml report compatible output describing a junit run.
+ *
+ * <p>Each test class's report is streamed to its file as soon as the last of its tests finishes,
+ * after which nothing is kept in memory for that class; so memory use depends on the number of
+ * classes in progress rather than the size of the whole run.
  */
 public class AntJunitXmlReportListener extends RunListener {
 
+  private static final int COPY_BUFFER_SIZE = 8 * 1024;
+
   /**
-   * A JAXB bean describing a test case exception.  These may indicate either an assertion failure
-   * or an uncaught test exception.
+   * The failure or error of a test case.  These may indicate either an assertion failure or an
+   * uncaught test exception.
    */
-  @XmlRootElement
   static class Exception {
     private final String message;
     private final String type;
     private final String stacktrace;
 
-    Exception() {
-      // for JAXB
-      message = null;
-      type = null;
-      stacktrace = null;
-    }
-
     Exception(Failure failure) {
       message = failure.getMessage();
       type = failure.getException().getClass().getName();
       stacktrace = failure.getTrace();
     }
 
-    @XmlAttribute
-    public String getMessage() {
-      return message;
-    }
-
-    @XmlAttribute
-    public String getType() {
-      return type;
-    }
-
-    @XmlValue
-    public String getStacktrace() {
-      return stacktrace;
+    void write(XMLStreamWriter xml, String elementName) throws XMLStreamException {
+      xml.writeStartElement(elementName);
+      if (message != null) {
+        xml.writeAttribute("message", message);
+      }
+      xml.writeAttribute("type", type);
+      xml.writeCharacters(stacktrace);
+      xml.writeEndElement();
     }
   }
 
   /**
-   * A JAXB bean describing an individual test method.
+   * An individual test method.
    */
-  @XmlRootElement(name = "testcase")
   static class TestCase {
     private final String classname;
     private final String name;
     private String time;
     private Exception failure;
     private Exception error;
+    private Map<String, String> attributes;
     private long startNs;
 
-    TestCase() {
-      // for JAXB
-      classname = null;
-      name = null;
-    }
-
     TestCase(Description test) {
       classname = test.getClassName();
       name = test.getMethodName();
     }
 
-    @XmlAttribute
-    public String getClassname() {
-      return classname;
-    }
-
-    @XmlAttribute
-    public String getName() {
-      return name;
-    }
-
-    @XmlAttribute
-    public String getTime() {
-      return time;
-    }
-
-    @XmlElement
-    public Exception getFailure() {
-      return failure;
-    }
-
     public void setFailure(Exception failure) {
       this.failure = failure;
     }
 
-    @XmlElement
-    public Exception getError() {
-      return error;
-    }
-
     public void setError(Exception error) {
       this.error = error;
     }
 
-    public void started() {
-      startNs = System.nanoTime();
+    public void setAttributes(Map<String, String> attributes) {
+      this.attributes = attributes;
     }
 
-    public void finished() {
-      time = convertTimeSpanNs(System.nanoTime() - startNs);
-    }
-  }
-
-  /**
-   * A JAXB bean describing an individual system property.
-   */
-  @XmlRootElement(name = "property")
-  static class Property {
-    private final String name;
-    private final String value;
-
-    Property() {
-      // for JAXB
-      name = null;
-      value = null;
-    }
-
-    Property(String name, String value) {
-      this.name = name;
-      this.value = value;
+    public void started() {
+      startNs = EventClock.nanoTime();
     }
 
-    @XmlAttribute
-    public String getName() {
-      return name;
+    public void finished() {
+      time = convertTimeSpanNs(EventClock.nanoTime() - startNs);
     }
 
-    @XmlAttribute
-    public String getValue() {
-      return value;
+    void write(XMLStreamWriter xml) throws XMLStreamException {
+      xml.writeStartElement("testcase");
+      xml.writeAttribute("classname", classname);
+      xml.writeAttribute("name", name);
+      if (time != null) {
+        xml.writeAttribute("time", time);
+      }
+      if (attributes != null) {
+        for (Entry<String, String> attribute : attributes.entrySet()) {
+          xml.writeAttribute(attribute.getKey(), attribute.getValue());
+        }
+      }
+      if (failure != null) {
+        failure.write(xml, "failure");
+      }
+      if (error != null) {
+        error.write(xml, "error");
+      }
+      xml.writeEndElement();
     }
   }
 
   /**
-   * A JAXB bean describing a test class.
+   * A test class, from when its first test starts until its report has been written.
    */
-  @XmlRootElement(name = "testsuite")
   static class TestSuite {
     private final String name;
+    private final int expectedTests;
 
     private int errors;
     private int failures;
-    private String hostname;
     private int tests;
     private String time;
     private String timestamp;
-    private final List<Property> properties = ImmutableList.copyOf(
-        Iterables.transform(System.getProperties().entrySet(),
-            new Function<Entry<Object, Object>, Property>() {
-              @Override public Property apply(Entry<Object, Object> entry) {
-                return new Property(entry.getKey().toString(), entry.getValue().toString());
-              }
-            }));
     private final List<TestCase> testCases = Lists.newArrayList();
-    private String out;
-    private String err;
 
     private long startNs;
 
-    TestSuite() {
-      // for JAXB
-      name = null;
-    }
-
-    TestSuite(Description test) {
+    TestSuite(Description test, int expectedTests) {
       name = test.getClassName();
-      try {
-        hostname = InetAddress.getLocalHost().getHostName();
-      } catch (UnknownHostException e) {
-        hostname = "localhost";
-      }
-    }
-
-    @XmlAttribute
-    public int getErrors() {
-      return errors;
-    }
-
-    @XmlAttribute
-    public int getFailures() {
-      return failures;
-    }
-
-    @XmlAttribute
-    public String getHostname() {
-      return hostname;
-    }
-
-    @XmlAttribute
-    public String getName() {
-      return name;
-    }
-
-    @XmlAttribute
-    public int getTests() {
-      return tests;
-    }
-
-    @XmlAttribute
-    public String getTime() {
-      return time;
-    }
-
-    @XmlAttribute
-    public String getTimestamp() {
-      return timestamp;
-    }
-
-    @XmlElementRef
-    @XmlElementWrapper(name = "properties")
-    public List<Property> getProperties() {
-      return properties;
-    }
-
-    @XmlElementRef
-    public List<TestCase> getTestCases() {
-      return testCases;
-    }
-
-    @XmlElement(name = "system-out")
-    public String getOut() {
-      return out;
-    }
-
-    public void setOut(String out) {
-      this.out = out;
-    }
-
-    @XmlElement(name = "system-err")
-    public String getErr() {
-      return err;
-    }
-
-    public void setErr(String err) {
-      this.err = err;
+      this.expectedTests = expectedTests;
     }
 
     public void started() {
       if (startNs == 0) {
         timestamp = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").format(new Date());
-        startNs = System.nanoTime();
+        startNs = EventClock.nanoTime();
       }
     }
 
-    public void finished() {
-      if (++tests == testCases.size()) {
-        time = convertTimeSpanNs(System.nanoTime() - startNs);
-      }
+    /**
+     * @return whether all of the suite's tests have now finished
+     */
+    public boolean finished() {
+      time = convertTimeSpanNs(EventClock.nanoTime() - startNs);
+      return ++tests == expectedTests;
     }
 
     public void incrementFailures() {
@@ -290,45 +163,103 @@ public class AntJunitXmlReportListener extends RunListener {
     public boolean wasStarted() {
       return startNs > 0;
     }
+
+    void write(XMLStreamWriter xml, ReportMetadata metadata, Reader out, Reader err)
+        throws XMLStreamException, IOException {
+      xml.writeStartDocument("UTF-8", "1.0");
+      xml.writeStartElement("testsuite");
+      xml.writeAttribute("errors", String.valueOf(errors));
+      xml.writeAttribute("failures", String.valueOf(failures));
+      xml.writeAttribute("hostname", metadata.getHostname());
+      xml.writeAttribute("name", name);
+      xml.writeAttribute("tests", String.valueOf(tests));
+      if (time != null) {
+        xml.writeAttribute("time", time);
+      }
+      xml.writeAttribute("timestamp", timestamp);
+
+      xml.writeStartElement("properties");
+      for (String[] property : metadata.getProperties()) {
+        xml.writeEmptyElement("property");
+        xml.writeAttribute("name", property[0]);
+        xml.writeAttribute("value", property[1]);
+      }
+      xml.writeEndElement();
+
+      for (TestCase testCase : testCases) {
+        testCase.write(xml);
+      }
+
+      writeStream(xml, "system-out", out);
+      writeStream(xml, "system-err", err);
+
+      xml.writeEndElement();
+      xml.writeEndDocument();
+    }
+
+    private static void writeStream(XMLStreamWriter xml, String elementName, Reader reader)
+        throws XMLStreamException, IOException {
+      xml.writeStartElement(elementName);
+      char[] buffer = new char[COPY_BUFFER_SIZE];
+      int read;
+      while ((read = reader.read(buffer)) != -1) {
+        xml.writeCharacters(buffer, 0, read);
+      }
+      xml.writeEndElement();
+    }
   }
 
+  private final Map<Class<?>, Integer> expectedTestCounts = Maps.newHashMap();
   private final Map<Class<?>, TestSuite> suites = Maps.newHashMap();
   private final Map<Description, TestCase> cases = Maps.newHashMap();
 
   private final File outdir;
   private final StreamSource streamSource;
+  private final List<TestCaseAttributeSource> attributeSources = Lists.newArrayList();
+  private final XMLOutputFactory xmlOutputFactory = XMLOutputFactory.newInstance();
+  private final ReportMetadata metadata = new ReportMetadata();
+  private volatile long reportWritingNs;
 
-  public AntJunitXmlReportListener(File outdir, StreamSource streamSource) {
+  /**
+   * @param outdir Directory to write the reports to.
+   * @param streamSource Source of each test class's captured output.
+   * @param attributeSources Sources of extra attributes for each test case; null sources are skipped.
+   */
+  public AntJunitXmlReportListener(File outdir, StreamSource streamSource,
+      TestCaseAttributeSource... attributeSources) {
     this.outdir = outdir;
     this.streamSource = streamSource;
+    for (TestCaseAttributeSource attributeSource : attributeSources) {
+      if (attributeSource != null) {
+        this.attributeSources.add(attributeSource);
+      }
+    }
   }
 
   @Override
   public void testRunStarted(Description description) throws java.lang.Exception {
-    createSuites(description.getChildren());
+    countTests(description.getChildren());
   }
 
-  private void createSuites(Iterable<Description> tests) {
+  private void countTests(Iterable<Description> tests) {
     for (Description test : tests) {
-      createSuites(test.getChildren());
+      countTests(test.getChildren());
       if (Util.isRunnable(test)) {
         Class<?> testClass = test.getTestClass();
-        TestSuite suite = suites.get(testClass);
-        if (suite == null) {
-          suite = new TestSuite(test);
-          suites.put(testClass, suite);
-        }
-        TestCase testCase = new TestCase(test);
-        suite.testCases.add(testCase);
-        cases.put(test, testCase);
+        Integer count = expectedTestCounts.get(testClass);
+        expectedTestCounts.put(testClass, count == null ? 1 : count + 1);
       }
     }
   }
 
   @Override
   public void testStarted(Description description) throws java.lang.Exception {
-    suites.get(description.getTestClass()).started();
-    cases.get(description).started();
+    TestSuite suite = suiteFor(description);
+    suite.started();
+    TestCase testCase = new TestCase(description);
+    suite.testCases.add(testCase);
+    cases.put(description, testCase);
+    testCase.started();
   }
 
   @Override
@@ -336,8 +267,12 @@ public class AntJunitXmlReportListener extends RunListener {
     Exception exception = new Exception(failure);
 
     Description description = failure.getDescription();
-    TestSuite suite = suites.get(description.getTestClass());
     TestCase testCase = cases.get(description);
+    if (testCase == null) {
+      // e.g. a failure in @BeforeClass, which is not reported against any test case
+      return;
+    }
+    TestSuite suite = suites.get(description.getTestClass());
     if (Util.isAssertionFailure(failure)) {
       testCase.setFailure(exception);
       suite.incrementFailures();
@@ -349,70 +284,200 @@ public class AntJunitXmlReportListener extends RunListener {
 
   @Override
   public void testFinished(Description description) throws java.lang.Exception {
-    cases.get(description).finished();
-    suites.get(description.getTestClass()).finished();
+    TestCase testCase = cases.remove(description);
+    if (testCase == null) {
+      return;
+    }
+    testCase.finished();
+    if (attributeSources.size() == 1) {
+      testCase.setAttributes(attributeSources.get(0).attributesFor(description));
+    } else if (!attributeSources.isEmpty()) {
+      Map<String, String> attributes = Maps.newLinkedHashMap();
+      for (TestCaseAttributeSource attributeSource : attributeSources) {
+        attributes.putAll(attributeSource.attributesFor(description));
+      }
+      testCase.setAttributes(attributes);
+    }
+    Class<?> testClass = description.getTestClass();
+    if (suites.get(testClass).finished()) {
+      writeSuite(testClass, suites.remove(testClass));
+    }
   }
 
   @Override
   public void testRunFinished(Result result) throws java.lang.Exception {
+    // suites which did not run all of their tests, e.g. because a test was filtered out
     for (Entry<Class<?>, TestSuite> entry : suites.entrySet()) {
-      Class<?> testClass = entry.getKey();
-      TestSuite suite = entry.getValue();
+      if (entry.getValue().wasStarted()) {
+        writeSuite(entry.getKey(), entry.getValue());
+      }
+    }
+    suites.clear();
+    cases.clear();
+  }
 
-      if (suite.wasStarted()) {
-        suite.setOut(new String(streamSource.readOut(testClass), Charsets.UTF_8));
-        suite.setErr(new String(streamSource.readErr(testClass), Charsets.UTF_8));
+  private TestSuite suiteFor(Description description) {
+    Class<?> testClass = description.getTestClass();
+    TestSuite suite = suites.get(testClass);
+    if (suite == null) {
+      Integer expectedTests = expectedTestCounts.remove(testClass);
+      suite = new TestSuite(description, expectedTests == null ? 0 : expectedTests);
+      suites.put(testClass, suite);
+    }
+    return suite;
+  }
 
-        Writer xmlOut = new FileWriter(new File(outdir, String.format("TEST-%s.xml", suite.name)));
+  /**
+   * @return The total time spent writing report files so far, in nanoseconds.
+   */
+  public long getReportWritingNs() {
+    return reportWritingNs;
+  }
 
-        // Only output valid XML1.0 characters - JAXB does not handle this.
-        JAXB.marshal(suite, new XmlWriter(xmlOut) {
-          @Override protected void handleInvalid(int c) throws IOException {
-            out.write(' ');
-          }
-        });
-      }
+  private void writeSuite(Class<?> testClass, TestSuite suite) throws IOException, XMLStreamException {
+    long startNs = System.nanoTime();
+    try {
+      writeReportFile(testClass, suite);
+    } finally {
+      reportWritingNs += System.nanoTime() - startNs;
     }
   }
 
-  private abstract static class XmlWriter extends FilterWriter {
+  private void writeReportFile(Class<?> testClass, TestSuite suite) throws IOException, XMLStreamException {
+    File reportFile = new File(outdir, String.format("TEST-%s.xml", suite.name));
+    // Only output valid XML1.0 characters - the XML writer does not handle this.
+    Writer writer = new XmlWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(reportFile), Charsets.UTF_8))) {
+      @Override protected void handleInvalid(int c) throws IOException {
+        out.write(' ');
+      }
+    };
+    Reader out = streamSource.openOut(testClass);
+    Reader err = streamSource.openErr(testClass);
+    try {
+      XMLStreamWriter xml = xmlOutputFactory.createXMLStreamWriter(writer);
+      suite.write(xml, metadata, out, err);
+      xml.close();
+    } finally {
+      out.close();
+      err.close();
+      writer.close();
+    }
+    streamSource.release(testClass);
+  }
+
+  /**
+   * Replaces characters which are not valid in XML 1.0 as it writes them.  Public so that its
+   * handling of characters written across several calls can be tested.
+   */
+  public abstract static class XmlWriter extends FilterWriter {
+    // Reused to copy each segment of a string, rather than copying the whole string every time.
+    private char[] segment = new char[256];
+    // The high surrogate which ended the last write, if any, whose low surrogate may start the next.
+    private char pendingHighSurrogate;
+
     protected XmlWriter(Writer out) {
       super(out);
     }
 
     @Override
     public void write(char[] cbuf, int off, int len) throws IOException {
-      for (int i = off; i < len; i++) {
-        write(cbuf[i]);
+      if (len == 0) {
+        return;
+      }
+      int end = off + len;
+      int i = off;
+      if (pendingHighSurrogate != 0) {
+        char highSurrogate = pendingHighSurrogate;
+        pendingHighSurrogate = 0;
+        if (Character.isLowSurrogate(cbuf[off])) {
+          // A supplementary character, which is always valid.
+          out.write(highSurrogate);
+          out.write(cbuf[off]);
+          i++;
+        } else {
+          handleInvalid(highSurrogate);
+        }
+      }
+
+      // Write runs of valid characters in bulk, only stopping at invalid ones.
+      int runStart = i;
+      while (i < end) {
+        int c = cbuf[i];
+        int charCount = 1;
+        if (Character.isHighSurrogate(cbuf[i])) {
+          if (i + 1 == end) {
+            // Wait for the next write to see whether this is half of a supplementary character.
+            out.write(cbuf, runStart, i - runStart);
+            pendingHighSurrogate = cbuf[i];
+            return;
+          }
+          if (Character.isLowSurrogate(cbuf[i + 1])) {
+            c = Character.toCodePoint(cbuf[i], cbuf[i + 1]);
+            charCount = 2;
+          }
+        }
+        if (!isValid(c)) {
+          out.write(cbuf, runStart, i - runStart);
+          handleInvalid(c);
+          runStart = i + charCount;
+        }
+        i += charCount;
       }
+      out.write(cbuf, runStart, end - runStart);
     }
 
     @Override
     public void write(String str, int off, int len) throws IOException {
-      for (int i = off; i < len; i++) {
-        write(str.charAt(i));
+      if (segment.length < len) {
+        segment = new char[Math.max(len, segment.length * 2)];
       }
+      str.getChars(off, off + len, segment, 0);
+      write(segment, 0, len);
     }
 
     @Override
     public void write(int c) throws IOException {
-      // Only output valid XML1.0 characters by default.
-      // See the spec here: http://www.w3.org/TR/2000/REC-xml-20001006#NT-Char
+      segment[0] = (char) c;
+      write(segment, 0, 1);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      writePendingHighSurrogate();
+      super.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      writePendingHighSurrogate();
+      super.close();
+    }
+
+    /**
+     * A high surrogate with no low surrogate following it is not a character, so is invalid.
+     */
+    private void writePendingHighSurrogate() throws IOException {
+      if (pendingHighSurrogate != 0) {
+        char highSurrogate = pendingHighSurrogate;
+        pendingHighSurrogate = 0;
+        handleInvalid(highSurrogate);
+      }
+    }
 
+    /**
+     * Only output valid XML1.0 characters by default.
+     * See the spec here: http://www.w3.org/TR/2000/REC-xml-20001006#NT-Char
+     */
+    private static boolean isValid(int c) {
       // This is a complex boolean expression but it follows the spec referenced above exactly and
       // so it seems to provide clarity.
       // SUPPRESS CHECKSTYLE RegexpSinglelineJava
-      if (c == 0x9
+      return c == 0x9
           || c == 0xA
           || c == 0xD
           || ((0x20 <= c) && (c <= 0xD7FF))
           || ((0xE000 <= c) && (c <= 0xFFFD))
-          || ((0x10000 <= c) && (c <= 0x10FFFF))) {
-
-        out.write(c);
-      } else {
-        handleInvalid(c);
-      }
+          || ((0x10000 <= c) && (c <= 0x10FFFF));
     }
 
     /**
@@ -428,4 +493,4 @@ public class AntJunitXmlReportListener extends RunListener {
   private static String convertTimeSpanNs(long timespanNs) {
     return String.format("%f", timespanNs / (double) TimeUnit.SECONDS.toNanos(1));
   }
-}
\ No newline at end of file
+}
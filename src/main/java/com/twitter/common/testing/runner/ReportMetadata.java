@@ -0,0 +1,85 @@
+package com.twitter.common.testing.runner;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Details about the environment which are included in every test suite's report, looked up once
+ * per run rather than once per suite.
+ */
+class ReportMetadata {
+
+  private static final long HOSTNAME_TIMEOUT_MS = 5000;
+  private static final String UNKNOWN_HOSTNAME = "localhost";
+
+  private final FutureTask<String> hostname;
+  private final long hostnameDeadline;
+
+  private Properties snapshotSource;
+  private int snapshotHashCode;
+  private List<String[]> propertySnapshot;
+
+  ReportMetadata() {
+    // Reverse DNS can be slow, so look the hostname up in the background while tests run
+    hostname = new FutureTask<String>(new Callable<String>() {
+      @Override public String call() throws java.lang.Exception {
+        return InetAddress.getLocalHost().getHostName();
+      }
+    });
+    Thread lookup = new Thread(hostname, "testpackage-hostname-lookup");
+    lookup.setDaemon(true);
+    lookup.start();
+    hostnameDeadline = System.currentTimeMillis() + HOSTNAME_TIMEOUT_MS;
+  }
+
+  /**
+   * Returns the name of this host, waiting until at most a few seconds after the run started for
+   * it to be looked up.
+   *
+   * @return The hostname, or {@code localhost} if it could not be found in time.
+   */
+  String getHostname() {
+    try {
+      return hostname.get(Math.max(0, hostnameDeadline - System.currentTimeMillis()),
+          TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return UNKNOWN_HOSTNAME;
+    } catch (ExecutionException e) {
+      return UNKNOWN_HOSTNAME;
+    } catch (TimeoutException e) {
+      return UNKNOWN_HOSTNAME;
+    }
+  }
+
+  /**
+   * Returns the system properties as name/value pairs, sorted by name.  The same snapshot is
+   * shared between suites until a test changes (or replaces) the system properties.
+   *
+   * @return An immutable snapshot of the system properties.
+   */
+  synchronized List<String[]> getProperties() {
+    Properties properties = System.getProperties();
+    // hashCode() walks the entries without copying them, so is much cheaper than a new snapshot
+    int hashCode = properties.hashCode();
+    if (properties != snapshotSource || hashCode != snapshotHashCode) {
+      ImmutableList.Builder<String[]> snapshot = ImmutableList.builder();
+      for (String name : Ordering.natural().sortedCopy(properties.stringPropertyNames())) {
+        snapshot.add(new String[] {name, properties.getProperty(name)});
+      }
+      propertySnapshot = snapshot.build();
+      snapshotSource = properties;
+      snapshotHashCode = hashCode;
+    }
+    return propertySnapshot;
+  }
+}
@@ -1,6 +1,7 @@
 package com.twitter.common.testing.runner;
 
 import java.io.IOException;
+import java.io.Reader;
 
 /**
  * Provides contents of the output streams captured from a test class run.
@@ -24,4 +25,32 @@ public interface StreamSource {
    * @throws IOException If there is a problem retrieving the output.
    */
   byte[] readErr(Class<?> testClass) throws IOException;
-}
\ No newline at end of file
+
+  /**
+   * Opens the contents of STDOUT from a test class run as text, without first copying it
+   * into a byte array.
+   *
+   * @param testClass The test class to retrieve captured output for.
+   * @return A reader over the captured STDOUT stream, which the caller must close.
+   * @throws IOException If there is a problem retrieving the output.
+   */
+  Reader openOut(Class<?> testClass) throws IOException;
+
+  /**
+   * Opens the contents of STDERR from a test class run as text, without first copying it
+   * into a byte array.
+   *
+   * @param testClass The test class to retrieve captured output for.
+   * @return A reader over the captured STDERR stream, which the caller must close.
+   * @throws IOException If there is a problem retrieving the output.
+   */
+  Reader openErr(Class<?> testClass) throws IOException;
+
+  /**
+   * Called once the output of a test class has been reported, so that any resources holding it
+   * can be released.
+   *
+   * @param testClass The test class whose output is no longer needed.
+   */
+  void release(Class<?> testClass);
+}
@@ -0,0 +1,21 @@
+package com.twitter.common.testing.runner;
+
+import org.junit.runner.Description;
+
+import java.util.Map;
+
+/**
+ * Provides extra attributes to report for each test case, e.g. measurements taken while it ran.
+ */
+public interface TestCaseAttributeSource {
+
+  /**
+   * Returns the extra attributes for a test case which has finished.  Called at most once for
+   * each test case, after any other listeners notified before the report listener have been told
+   * that the test finished.
+   *
+   * @param test The test case.
+   * @return Attribute names and values, in the order they should appear; empty if there are none.
+   */
+  Map<String, String> attributesFor(Description test);
+}
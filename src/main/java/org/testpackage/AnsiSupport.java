@@ -16,8 +16,12 @@
 
 package org.testpackage;
 
+import com.google.common.collect.Maps;
+import org.fusesource.jansi.Ansi;
 import org.fusesource.jansi.AnsiConsole;
 
+import java.util.concurrent.ConcurrentMap;
+
 import static org.fusesource.jansi.Ansi.ansi;
 
 /**
@@ -26,11 +30,64 @@ import static org.fusesource.jansi.Ansi.ansi;
 @SuppressWarnings("UseOfSystemOutOrSystemErr")
 public class AnsiSupport {
 
+    /*
+     * Rendered markup, for when ANSI output is disabled and enabled respectively. Only a handful of distinct strings
+     * of markup are ever rendered, so these are not bounded.
+     */
+    private static final ConcurrentMap<String, String> RENDERED_PLAIN = Maps.newConcurrentMap();
+    private static final ConcurrentMap<String, String> RENDERED_ANSI = Maps.newConcurrentMap();
+
     protected synchronized static void initialize() {
         AnsiConsole.systemInstall();
     }
 
     public static void ansiPrintf(String s, Object... args) {
-        System.out.printf(ansi().render(s).toString(), args);
+        System.out.printf(render(s), args);
+    }
+
+    /**
+     * Render <code>@|code text|@</code> markup into ANSI escape sequences. The markup is only parsed the first time
+     * it is seen.
+     *
+     * @param markup text which may contain markup
+     * @return the rendered text
+     */
+    public static String render(String markup) {
+        ConcurrentMap<String, String> cache = Ansi.isEnabled() ? RENDERED_ANSI : RENDERED_PLAIN;
+        String rendered = cache.get(markup);
+        if (rendered == null) {
+            rendered = ansi().render(markup).toString();
+            cache.put(markup, rendered);
+        }
+        return rendered;
+    }
+
+    /**
+     * Markup rendered once, with <code>%s</code> placeholders which are filled in by appending to a buffer rather
+     * than by parsing a format string each time.
+     */
+    public static class Template {
+
+        private final String[] parts;
+
+        public Template(String markup) {
+            this.parts = render(markup).split("%s", -1);
+        }
+
+        /**
+         * @param buffer the buffer to append to
+         * @param values one value for each placeholder
+         * @return the buffer
+         */
+        public StringBuilder appendTo(StringBuilder buffer, Object... values) {
+            if (values.length != parts.length - 1) {
+                throw new IllegalArgumentException("Expected " + (parts.length - 1) + " values but got " + values.length);
+            }
+            buffer.append(parts[0]);
+            for (int i = 0; i < values.length; i++) {
+                buffer.append(values[i]).append(parts[i + 1]);
+            }
+            return buffer;
+        }
     }
 }
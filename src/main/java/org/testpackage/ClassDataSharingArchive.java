@@ -0,0 +1,173 @@
+package org.testpackage;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.URISyntaxException;
+import java.util.List;
+
+import static org.testpackage.AnsiSupport.ansiPrintf;
+
+/**
+ * Application class data sharing (AppCDS) archive of the classes loaded by a run of the test JAR, so that later runs
+ * map JUnit, Guava, TestPackage and the test classes into memory already parsed and verified, rather than loading them
+ * from the JAR, which is most of the startup time of a short run.
+ * <p/>
+ * The archive is generated by a training run of the tests in a child JVM which records the classes it loads, and a
+ * second child JVM which dumps those classes into the archive. A JVM can only use an archive if it is told to when it
+ * starts, so a launcher script is written which starts TestPackage with the archive. Archives need Java 11 or later,
+ * and are only used by a JVM of the same version, running the same JAR; otherwise the JVM starts without one.
+ */
+public class ClassDataSharingArchive {
+
+    private static final File ARCHIVE_FILE = new File(".testpackage/testpackage.jsa");
+    private static final File CLASS_LIST_FILE = new File(".testpackage/testpackage.classlist");
+    private static final File LAUNCHER_FILE = new File(".testpackage/testpackage-cds.sh");
+
+    private static final int MIN_JAVA_VERSION = 11;
+
+    private final File jar;
+
+    /**
+     * @param jar the test JAR, which must be the whole classpath of the JVMs using the archive
+     */
+    public ClassDataSharingArchive(File jar) {
+        this.jar = jar;
+    }
+
+    /**
+     * @return the JAR TestPackage was loaded from, or null if it was not loaded from a JAR (e.g. in an IDE)
+     */
+    public static File findJar() {
+        try {
+            File location = new File(TestPackage.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            return location.isFile() && location.getName().endsWith(".jar") ? location : null;
+        } catch (URISyntaxException e) {
+            return null;
+        } catch (SecurityException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param javaSpecificationVersion a java.specification.version, e.g. 1.6 or 11
+     * @return whether that version of Java can archive application classes
+     */
+    public static boolean isSupported(String javaSpecificationVersion) {
+        String majorVersion = javaSpecificationVersion.startsWith("1.") ? javaSpecificationVersion.substring(2) : javaSpecificationVersion;
+        try {
+            return Integer.parseInt(majorVersion.split("\\.")[0]) >= MIN_JAVA_VERSION;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Run the tests once to find which classes they load, archive those classes, and write a launcher script which
+     * starts TestPackage using the archive.
+     *
+     * @param trainingArguments the arguments for the training run
+     * @param output            where to copy the output of the training run
+     * @return the exit code of the training run
+     * @throws IOException if a child JVM could not be started, or the launcher script could not be written
+     */
+    public int generate(List<String> trainingArguments, PrintStream output) throws IOException {
+        if (!isSupported(System.getProperty("java.specification.version"))) {
+            throw new TestPackageException("--generate-cds-archive needs Java " + MIN_JAVA_VERSION + " or later, but this is Java " + System.getProperty("java.specification.version"));
+        }
+        new File(".testpackage").mkdir();
+        ARCHIVE_FILE.delete();
+
+        ansiPrintf("@|bold Recording the classes loaded by a training run of the tests|@\n");
+        List<String> training = javaCommand();
+        // classes loaded from the JDK's default archive would not be listed
+        training.add("-Xshare:off");
+        training.add("-XX:DumpLoadedClassList=" + CLASS_LIST_FILE.getAbsolutePath());
+        training.add("-jar");
+        training.add(jar.getAbsolutePath());
+        training.addAll(trainingArguments);
+        // the classes are loaded whether or not the tests pass, so a failing run still makes a useful archive
+        int trainingExitCode = execute(training, output);
+
+        ansiPrintf("@|bold Archiving the loaded classes|@\n");
+        List<String> dump = javaCommand();
+        dump.add("-Xshare:dump");
+        dump.add("-XX:SharedClassListFile=" + CLASS_LIST_FILE.getAbsolutePath());
+        dump.add("-XX:SharedArchiveFile=" + ARCHIVE_FILE.getAbsolutePath());
+        dump.add("-cp");
+        dump.add(jar.getAbsolutePath());
+        int dumpExitCode = execute(dump, output);
+        if (dumpExitCode != 0 || !ARCHIVE_FILE.isFile()) {
+            throw new TestPackageException("Could not create class data sharing archive " + ARCHIVE_FILE.getAbsolutePath() + " (exit code " + dumpExitCode + ")");
+        }
+
+        writeLauncher();
+        ansiPrintf("@|green Wrote %s; run the tests with %s to use it|@\n", ARCHIVE_FILE.getPath(), LAUNCHER_FILE.getPath());
+        return trainingExitCode;
+    }
+
+    /**
+     * Suggest using the archive, if there is one for this JAR and this JVM was not started with it.
+     *
+     * @param output where to print the suggestion
+     */
+    public void suggestIfUnused(PrintStream output) {
+        if (!ARCHIVE_FILE.isFile() || !LAUNCHER_FILE.isFile()) {
+            return;
+        }
+        for (String jvmArgument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (jvmArgument.startsWith("-XX:SharedArchiveFile=")) {
+                return;
+            }
+        }
+        if (ARCHIVE_FILE.lastModified() < jar.lastModified()) {
+            output.println(AnsiSupport.render("@|yellow The class data sharing archive is older than this JAR; run with --generate-cds-archive to update it|@"));
+        } else {
+            output.println(AnsiSupport.render("@|yellow Run the tests with " + LAUNCHER_FILE.getPath() + " to start faster using the class data sharing archive|@"));
+        }
+    }
+
+    private void writeLauncher() throws IOException {
+        String launcher = "#!/bin/sh\n"
+                + "# Written by TestPackage --generate-cds-archive: runs the tests using the class data sharing archive\n"
+                + "exec \"" + javaExecutable() + "\" -XX:SharedArchiveFile=\"" + ARCHIVE_FILE.getAbsolutePath() + "\" -Xshare:auto"
+                + " -jar \"" + jar.getAbsolutePath() + "\" \"$@\"\n";
+        Files.write(launcher, LAUNCHER_FILE, Charsets.UTF_8);
+        LAUNCHER_FILE.setExecutable(true);
+    }
+
+    private static List<String> javaCommand() {
+        List<String> command = Lists.newArrayList(javaExecutable());
+        for (String jvmArgument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            // a debugger can only be listening on one JVM, and any existing archive is being replaced
+            if (!jvmArgument.startsWith("-agentlib:jdwp") && !jvmArgument.startsWith("-Xrunjdwp")
+                    && !jvmArgument.startsWith("-XX:SharedArchiveFile=") && !jvmArgument.startsWith("-Xshare:")) {
+                command.add(jvmArgument);
+            }
+        }
+        return command;
+    }
+
+    private static String javaExecutable() {
+        return System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+    }
+
+    private static int execute(List<String> command, PrintStream output) throws IOException {
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        process.getOutputStream().close();
+        ByteStreams.copy(process.getInputStream(), output);
+        try {
+            return process.waitFor();
+        } catch (InterruptedException e) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+            throw new TestPackageException("Interrupted while waiting for " + command.get(0), e);
+        }
+    }
+}
@@ -16,6 +16,9 @@
 
 package org.testpackage;
 
+import org.testpackage.AnsiSupport.Template;
+import org.testpackage.junitcore.FlakyTestRecorder;
+import org.testpackage.streams.CapturedOutputStreamSource;
 import org.testpackage.streams.StreamCapture;
 import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
@@ -25,12 +28,18 @@ import org.junit.runner.Result;
 import org.junit.runner.notification.Failure;
 import org.junit.runner.notification.RunListener;
 
+import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
-import static org.testpackage.AnsiSupport.ansiPrintf;
+import static org.testpackage.AnsiSupport.render;
 
 /**
  * A JUnit run listener which generates user-facing output on System.out to indicate progress of a test run.
+ * <p/>
+ * Output is buffered by a {@link ConsoleWriter}, and the markup for each line is only rendered once, so that runs of
+ * many short tests are not slowed down by writing to the console.
  *
  * @author rnorth
  */
@@ -41,20 +50,115 @@ public class ColouredOutputRunListener extends RunListener {
     private static final String CROSS_MARK = "\u2718";
 
     private final boolean failFast;
+    private final boolean concurrent;
+    private final boolean plain;
+    private final CapturedOutputStreamSource capturedOutput;
+    private final ConsoleWriter console;
+    private ProgressDashboard dashboard;
+    private FlakyTestRecorder flakyTestRecorder;
     private StreamCapture streamCapture;
     private Description currentDescription;
     private long currentTestStartTime;
     private boolean currentTestDidFail = false;
 
+    private final Template passedTemplate = new Template(" @|green " + TICK_MARK + "  %s.%s|@ @|blue (%s ms)|@\n");
+    private final Template flakyTemplate = new Template(" @|yellow " + TICK_MARK + "  %s.%s|@ @|blue (%s ms)|@ @|yellow (flaky: passed on attempt %s)|@\n");
+    private final Template failedTemplate = new Template(" @|red " + CROSS_MARK + "  %s.%s|@ @|blue (%s ms)|@\n");
+    private final String saveCursor = Ansi.ansi().saveCursorPosition().toString();
+    private final String eraseLineAndRestoreCursor = Ansi.ansi().eraseLine(Ansi.Erase.ALL).restorCursorPosition().toString();
+
+    /*
+     * When tests run concurrently, each worker thread notifies this listener about its own test, so
+     * per-test state is kept per thread instead.
+     */
+    private final ThreadLocal<StreamCapture> concurrentStreamCapture = new ThreadLocal<StreamCapture>();
+    private final ThreadLocal<Long> concurrentTestStartTime = new ThreadLocal<Long>();
+    private final ThreadLocal<Boolean> concurrentTestDidFail = new ThreadLocal<Boolean>();
+
     public ColouredOutputRunListener(boolean failFast) {
+        this(failFast, false);
+    }
+
+    /**
+     * @param failFast   whether the run will be aborted on the first failure
+     * @param concurrent whether tests may be running concurrently on several threads. If so, each result (and the
+     *                   captured output of a failed test) is printed in one piece when the test finishes.
+     */
+    public ColouredOutputRunListener(boolean failFast, boolean concurrent) {
+        this(failFast, concurrent, null);
+    }
+
+    /**
+     * @param failFast       whether the run will be aborted on the first failure
+     * @param concurrent     whether tests may be running concurrently on several threads
+     * @param capturedOutput if not null, receives the captured output of every test, e.g. for the XML report
+     */
+    public ColouredOutputRunListener(boolean failFast, boolean concurrent, CapturedOutputStreamSource capturedOutput) {
+        this(failFast, concurrent, capturedOutput, false);
+    }
+
+    /**
+     * @param failFast       whether the run will be aborted on the first failure
+     * @param concurrent     whether tests may be running concurrently on several threads
+     * @param capturedOutput if not null, receives the captured output of every test, e.g. for the XML report
+     * @param plain          whether to leave out the cursor movements used to show the test in progress, e.g. because
+     *                       the output is not going to a terminal
+     */
+    public ColouredOutputRunListener(boolean failFast, boolean concurrent, CapturedOutputStreamSource capturedOutput, boolean plain) {
         this.failFast = failFast;
+        this.concurrent = concurrent;
+        this.capturedOutput = capturedOutput;
+        this.plain = plain;
+        this.console = new ConsoleWriter(StreamCapture.currentOut());
+    }
+
+    /**
+     * Show a {@link ProgressDashboard} below the results of concurrently running tests, rather than just the results.
+     * The dashboard relies on cursor movements, so should not be used in plain mode.
+     *
+     * @param workers           how many tests may run at once
+     * @param expectedDurations expected duration of each test, in milliseconds, by display name
+     */
+    public void showProgress(int workers, Map<String, Long> expectedDurations) {
+        dashboard = new ProgressDashboard(workers, expectedDurations);
+        console.setFooter(dashboard);
+    }
+
+    /**
+     * Show tests which only passed when retried as flaky, and list them at the end of the run.
+     *
+     * @param flakyTestRecorder the recorder of tests which only passed when retried
+     */
+    public void showFlakyTests(FlakyTestRecorder flakyTestRecorder) {
+        this.flakyTestRecorder = flakyTestRecorder;
+    }
+
+    @Override
+    public void testRunStarted(Description description) throws Exception {
+        if (dashboard != null) {
+            dashboard.runStarted(description);
+        }
     }
 
     @Override
     public void testStarted(Description description) throws Exception {
-        System.out.print(Ansi.ansi().saveCursorPosition());
-        System.out.print(">>  " + description.getTestClass().getSimpleName() + "." + description.getMethodName() + ":");
-        System.out.flush();
+        if (concurrent) {
+            if (dashboard != null) {
+                dashboard.testStarted(description);
+            }
+            concurrentTestStartTime.set(System.currentTimeMillis());
+            concurrentTestDidFail.set(false);
+            concurrentStreamCapture.set(StreamCapture.grabStreams(false));
+            return;
+        }
+
+        if (!plain) {
+            synchronized (console) {
+                console.buffer().append(saveCursor).append(">>  ").append(description.getTestClass().getSimpleName())
+                        .append('.').append(description.getMethodName()).append(':');
+                console.printed();
+            }
+        }
 
         currentTestStartTime = System.currentTimeMillis();
         currentTestDidFail = false;
@@ -66,40 +170,88 @@ public class ColouredOutputRunListener extends RunListener {
     @Override
     public void testFailure(Failure failure) throws Exception {
 
-        currentTestDidFail = true;
-
-        streamCapture.restore();
+        if (concurrent) {
+            concurrentTestDidFail.set(true);
+            StreamCapture streamCapture = concurrentStreamCapture.get();
+            if (streamCapture != null) {
+                streamCapture.restore();
+            }
 
-        replaceTestMethodPlaceholder(false);
+            // print everything at once, so that it is not interleaved with output about other tests
+            synchronized (console) {
+                StringBuilder output = console.buffer();
+                appendTestResult(output, false, failure.getDescription(), elapsedSince(concurrentTestStartTime.get()));
+                if (streamCapture != null) {
+                    appendCapturedOutput(output, streamCapture);
+                }
+                console.printed();
+            }
+        } else {
+            currentTestDidFail = true;
 
-        if (streamCapture.getStdOut().length() > 0) {
-            System.out.println("   STDOUT:");
-            System.out.print(streamCapture.getStdOut());
-        }
+            streamCapture.restore();
 
-        if (streamCapture.getStdErr().length() > 0) {
-            System.out.println("\n   STDERR:");
-            System.out.print(streamCapture.getStdErr());
+            synchronized (console) {
+                StringBuilder output = console.buffer();
+                replaceTestMethodPlaceholder(output, false);
+                appendCapturedOutput(output, streamCapture);
+                console.printed();
+            }
         }
 
 
         if (failFast) {
-            System.out.flush();
-            System.out.println();
-            System.out.println();
-            System.out.println("*** TESTS ABORTED");
-            ansiPrintf("*** @|bg_red Fail-fast triggered by test failure:|@\n");
-
-            reportFailure(failure);
+            synchronized (console) {
+                StringBuilder output = console.buffer();
+                output.append("\n\n*** TESTS ABORTED\n");
+                output.append(render("*** @|bg_red Fail-fast triggered by test failure:|@\n"));
+                reportFailure(output, failure);
+            }
+            // the run is about to stop, possibly without testRunFinished being called
+            console.close();
         }
     }
 
     @Override
     public void testFinished(Description description) throws Exception {
 
+        if (concurrent) {
+            StreamCapture streamCapture = concurrentStreamCapture.get();
+            if (streamCapture != null) {
+                streamCapture.restore();
+            }
+            boolean success = !Boolean.TRUE.equals(concurrentTestDidFail.get());
+            if (dashboard != null) {
+                dashboard.testFinished(description, success);
+            }
+            if (success) {
+                synchronized (console) {
+                    appendTestResult(console.buffer(), true, description, elapsedSince(concurrentTestStartTime.get()));
+                    console.printed();
+                }
+            }
+            if (streamCapture != null) {
+                collectOutput(description, streamCapture);
+            }
+            concurrentStreamCapture.remove();
+            concurrentTestStartTime.remove();
+            concurrentTestDidFail.remove();
+            return;
+        }
+
         streamCapture.restore();
         if (!currentTestDidFail) {
-            replaceTestMethodPlaceholder(true);
+            synchronized (console) {
+                replaceTestMethodPlaceholder(console.buffer(), true);
+                console.printed();
+            }
+        }
+        collectOutput(description, streamCapture);
+    }
+
+    private void collectOutput(Description description, StreamCapture streamCapture) throws IOException {
+        if (capturedOutput != null && description.getTestClass() != null) {
+            capturedOutput.append(description.getTestClass(), streamCapture);
         }
     }
 
@@ -115,11 +267,6 @@ public class ColouredOutputRunListener extends RunListener {
 
         failures.addAll(result.getFailures());
 
-        System.out.flush();
-        System.out.println();
-        System.out.println();
-        System.out.println("*** TESTS COMPLETE");
-
         String passedStatement;
         if (passed > 0 && failureCount == 0) {
             passedStatement = "@|bg_green %d passed|@";
@@ -141,33 +288,57 @@ public class ColouredOutputRunListener extends RunListener {
             ignoredStatement = "0 ignored";
         }
 
-        ansiPrintf("*** " + passedStatement + ", " + failedStatement + ", " + ignoredStatement, passed, failureCount, ignoredCount);
+        synchronized (console) {
+            StringBuilder output = console.buffer();
+            output.append("\n\n*** TESTS COMPLETE\n");
+            output.append(String.format(render("*** " + passedStatement + ", " + failedStatement + ", " + ignoredStatement), passed, failureCount, ignoredCount));
 
-        if (failureCount > 0) {
-            System.out.println();
-            System.out.println();
-            System.out.println("Failures:");
-            for (Failure failure : failures) {
-                reportFailure(failure);
+            Map<Description, List<Throwable>> flakyTests = flakyTestRecorder == null ?
+                    Collections.<Description, List<Throwable>>emptyMap() : flakyTestRecorder.getFlakyTests();
+            if (!flakyTests.isEmpty()) {
+                output.append(String.format(render("\n*** @|bg_yellow %d flaky|@ (passed when retried)"), flakyTests.size()));
+            }
+
+            if (failureCount > 0) {
+                output.append("\n\nFailures:\n");
+                for (Failure failure : failures) {
+                    reportFailure(output, failure);
+                }
+            }
+
+            if (!flakyTests.isEmpty()) {
+                output.append("\n\nFlaky tests:\n");
+                for (Map.Entry<Description, List<Throwable>> flakyTest : flakyTests.entrySet()) {
+                    reportFlakyTest(output, flakyTest.getKey(), flakyTest.getValue());
+                }
             }
         }
-        System.out.flush();
+        console.close();
     }
 
-    private void reportFailure(Failure failure) {
-        ansiPrintf("    @|red %s|@:\n", failure.getDescription());
-        ansiPrintf("      @|yellow %s: %s|@\n", failure.getException().getClass().getSimpleName(), indentNewlines(failure.getMessage()));
+    private static void reportFailure(StringBuilder output, Failure failure) {
+        output.append(String.format(render("    @|red %s|@:\n"), failure.getDescription()));
+        output.append(String.format(render("      @|yellow %s: %s|@\n"), failure.getException().getClass().getSimpleName(), indentNewlines(failure.getMessage())));
         Throwable exception = failure.getException();
         Throwable rootCause = Throwables.getRootCause(exception);
 
         if (exception.equals(rootCause)) {
-            System.out.printf("        At %s\n\n", rootCause.getStackTrace()[0]);
+            output.append(String.format("        At %s\n\n", rootCause.getStackTrace()[0]));
         } else {
-            System.out.printf("        At %s\n", exception.getStackTrace()[0]);
-            ansiPrintf("      Root cause: @|yellow %s: %s|@\n", rootCause.getClass().getSimpleName(), indentNewlines(rootCause.getMessage()));
-            System.out.printf("        At %s\n\n", rootCause.getStackTrace()[0]);
+            output.append(String.format("        At %s\n", exception.getStackTrace()[0]));
+            output.append(String.format(render("      Root cause: @|yellow %s: %s|@\n"), rootCause.getClass().getSimpleName(), indentNewlines(rootCause.getMessage())));
+            output.append(String.format("        At %s\n\n", rootCause.getStackTrace()[0]));
+        }
+    }
+
+    private static void reportFlakyTest(StringBuilder output, Description description, List<Throwable> failedAttempts) {
+        output.append(String.format(render("    @|yellow %s|@:\n"), description));
+        for (int attempt = 0; attempt < failedAttempts.size(); attempt++) {
+            Throwable exception = failedAttempts.get(attempt);
+            output.append(String.format(render("      Attempt %d: @|yellow %s: %s|@\n"), attempt + 1,
+                    exception.getClass().getSimpleName(), indentNewlines(exception.getMessage())));
         }
-        System.out.flush();
+        output.append('\n');
     }
 
     private static String indentNewlines(String textWithPossibleNewlines) {
@@ -179,18 +350,37 @@ public class ColouredOutputRunListener extends RunListener {
         return textWithPossibleNewlines.replaceAll("\\n", "\n      ");
     }
 
-    private void replaceTestMethodPlaceholder(boolean success) {
+    private void replaceTestMethodPlaceholder(StringBuilder output, boolean success) {
         long elapsedTime = System.currentTimeMillis() - currentTestStartTime;
-        System.out.print(Ansi.ansi().eraseLine(Ansi.Erase.ALL).restorCursorPosition());
-        String colour;
-        String symbol;
-        if (success) {
-            colour = "green";
-            symbol = TICK_MARK;
-        } else {
-            colour = "red";
-            symbol = CROSS_MARK;
+        if (!plain) {
+            output.append(eraseLineAndRestoreCursor);
+        }
+        appendTestResult(output, success, currentDescription, elapsedTime);
+    }
+
+    private static void appendCapturedOutput(StringBuilder output, StreamCapture streamCapture) {
+        String stdOut = streamCapture.getStdOut();
+        if (stdOut.length() > 0) {
+            output.append("   STDOUT:\n").append(stdOut);
+        }
+
+        String stdErr = streamCapture.getStdErr();
+        if (stdErr.length() > 0) {
+            output.append("\n   STDERR:\n").append(stdErr);
+        }
+    }
+
+    private static long elapsedSince(Long startTime) {
+        return startTime == null ? 0 : System.currentTimeMillis() - startTime;
+    }
+
+    private void appendTestResult(StringBuilder output, boolean success, Description description, long elapsedTime) {
+        if (success && flakyTestRecorder != null && flakyTestRecorder.isFlaky(description)) {
+            int attempts = flakyTestRecorder.getFailedAttempts(description).size() + 1;
+            flakyTemplate.appendTo(output, description.getTestClass().getSimpleName(), description.getMethodName(), elapsedTime, attempts);
+            return;
         }
-        ansiPrintf(" @|"+colour+" %s  %s.%s|@ @|blue (%d ms)|@\n", symbol, currentDescription.getTestClass().getSimpleName(), currentDescription.getMethodName(), elapsedTime);
+        Template template = success ? passedTemplate : failedTemplate;
+        template.appendTo(output, description.getTestClass().getSimpleName(), description.getMethodName(), elapsedTime);
     }
 }
@@ -0,0 +1,151 @@
+package org.testpackage;
+
+import org.fusesource.jansi.Ansi;
+
+import java.io.PrintStream;
+
+/**
+ * Buffers console output so that it is written in a few large writes rather than many small ones.
+ * <p/>
+ * Output is written once the buffer is large enough, and otherwise within {@link #FLUSH_INTERVAL_MS} of being
+ * printed, so that the console never falls far behind while a slow test is running. Once closed, everything printed
+ * is written straight away.
+ * <p/>
+ * A {@link Footer} may be kept below the output, e.g. to show progress. It is redrawn on every flush, and at least
+ * every {@link #FLUSH_INTERVAL_MS}, however often output is printed.
+ */
+class ConsoleWriter {
+
+    /**
+     * Lines kept at the bottom of the console, below everything printed.
+     */
+    interface Footer {
+        /**
+         * @param output the buffer to append the footer's lines to, each ending with a newline
+         */
+        void appendTo(StringBuilder output);
+    }
+
+    static final long FLUSH_INTERVAL_MS = 100;
+    static final int FLUSH_SIZE = 8 * 1024;
+
+    private final PrintStream out;
+    private final StringBuilder buffer = new StringBuilder(FLUSH_SIZE);
+    private final StringBuilder frame = new StringBuilder(FLUSH_SIZE);
+    private final String eraseDown = Ansi.ansi().eraseScreen(Ansi.Erase.FORWARD).toString();
+    private Footer footer;
+    private int footerLines;
+    private Thread flusher;
+    private boolean closed;
+
+    /**
+     * @param out the stream to write to; all writes happen while holding this writer's lock, not the stream's
+     */
+    ConsoleWriter(PrintStream out) {
+        this.out = out;
+    }
+
+    /**
+     * @return the buffer to append output to; callers must hold this writer's lock, and call {@link #printed()}
+     * afterwards
+     */
+    StringBuilder buffer() {
+        return buffer;
+    }
+
+    /**
+     * Write out the buffer if it is time to.
+     */
+    synchronized void printed() {
+        if (closed || buffer.length() >= FLUSH_SIZE) {
+            flush();
+        } else if (flusher == null && buffer.length() > 0) {
+            startFlusher();
+        }
+    }
+
+    synchronized void print(CharSequence text) {
+        buffer.append(text);
+        printed();
+    }
+
+    /**
+     * @param footer lines to keep below the output until this writer is closed
+     */
+    synchronized void setFooter(Footer footer) {
+        this.footer = footer;
+        if (flusher == null && !closed) {
+            startFlusher();
+        }
+    }
+
+    synchronized void flush() {
+        if (footer == null) {
+            if (buffer.length() > 0) {
+                out.print(buffer);
+                buffer.setLength(0);
+            }
+        } else {
+            redraw();
+        }
+        out.flush();
+    }
+
+    private void redraw() {
+        frame.setLength(0);
+        if (footerLines > 0) {
+            // go back to the start of the footer, and draw over it
+            frame.append(Ansi.ansi().cursorUp(footerLines)).append('\r').append(eraseDown);
+        }
+        frame.append(buffer);
+        if (buffer.length() > 0 && buffer.charAt(buffer.length() - 1) != '\n') {
+            frame.append('\n');
+        }
+        buffer.setLength(0);
+
+        footerLines = 0;
+        if (!closed) {
+            int footerStart = frame.length();
+            footer.appendTo(frame);
+            for (int i = footerStart; i < frame.length(); i++) {
+                if (frame.charAt(i) == '\n') {
+                    footerLines++;
+                }
+            }
+        }
+        out.print(frame);
+    }
+
+    /**
+     * Write out the buffer, remove any footer, and stop buffering.
+     */
+    synchronized void close() {
+        closed = true;
+        flush();
+    }
+
+    private void startFlusher() {
+        flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        Thread.sleep(FLUSH_INTERVAL_MS);
+                        synchronized (ConsoleWriter.this) {
+                            if (closed) {
+                                return;
+                            }
+                            if (buffer.length() > 0 || footer != null) {
+                                flush();
+                            }
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // nothing more to do
+                }
+            }
+        }, "testpackage-console-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+}
@@ -0,0 +1,34 @@
+package org.testpackage;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.runner.Description;
+
+import java.util.Comparator;
+import java.util.Set;
+
+/**
+ * Comparator which orders recently flaky test classes and methods after all the others, so that a stable run is not
+ * held up behind tests which are likely to need retrying, and otherwise leaves the order to another comparator.
+ * <p/>
+ * As with {@link RecentFailurePrioritisationRequestComparator}, both the flaky test methods and their classes should
+ * be in the set, as JUnit uses this at both levels.
+ */
+class FlakyLastRequestComparator implements Comparator<Description> {
+    private final Comparator<Description> order;
+    private final Set<String> recentlyFlaky;
+
+    public FlakyLastRequestComparator(Comparator<Description> order, Set<String> recentlyFlaky) {
+        this.order = order;
+        this.recentlyFlaky = ImmutableSet.copyOf(recentlyFlaky);
+    }
+
+    @Override
+    public int compare(Description o1, Description o2) {
+        boolean o1Flaky = recentlyFlaky.contains(o1.getDisplayName());
+        boolean o2Flaky = recentlyFlaky.contains(o2.getDisplayName());
+        if (o1Flaky != o2Flaky) {
+            return o1Flaky ? 1 : -1;
+        }
+        return order.compare(o1, o2);
+    }
+}
@@ -0,0 +1,61 @@
+package org.testpackage;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.runner.Description;
+
+import java.util.Comparator;
+import java.util.Map;
+
+/**
+ * Comparator which orders test classes so that those expected to take longest run first (longest processing time
+ * first), which lets a parallel or forked run finish close to the minimum possible wall time, since no long class
+ * is left to start when the other workers are running out of work.
+ * <p/>
+ * Tests which failed in the last run are still put first, for fast feedback. Classes with no recorded duration are
+ * treated as long, since nothing is known about them. Ties, and test methods within a class, are ordered by
+ * {@link RecentFailurePrioritisationRequestComparator}.
+ */
+class LongestFirstRequestComparator implements Comparator<Description> {
+    private final Map<String, Integer> runsSinceLastFailures;
+    private final Map<String, Long> expectedDurations;
+    private final RecentFailurePrioritisationRequestComparator recentFailureComparator;
+
+    public LongestFirstRequestComparator(Map<String, Integer> runsSinceLastFailures, Map<String, Long> expectedDurations) {
+        this.runsSinceLastFailures = ImmutableMap.copyOf(runsSinceLastFailures);
+        this.expectedDurations = ImmutableMap.copyOf(expectedDurations);
+        this.recentFailureComparator = new RecentFailurePrioritisationRequestComparator(runsSinceLastFailures);
+    }
+
+    @Override
+    public int compare(Description o1, Description o2) {
+
+        boolean o1JustFailed = justFailed(o1);
+        boolean o2JustFailed = justFailed(o2);
+        if (o1JustFailed != o2JustFailed) {
+            return o1JustFailed ? -1 : 1;
+        }
+
+        if (o1.isSuite() && o2.isSuite()) {
+            long o1ExpectedDuration = expectedDuration(o1);
+            long o2ExpectedDuration = expectedDuration(o2);
+
+            if (o1ExpectedDuration > o2ExpectedDuration) {
+                return -1;
+            } else if (o1ExpectedDuration < o2ExpectedDuration) {
+                return 1;
+            }
+        }
+
+        return recentFailureComparator.compare(o1, o2);
+    }
+
+    private boolean justFailed(Description description) {
+        Integer runsSinceLastFailure = runsSinceLastFailures.get(description.getDisplayName());
+        return runsSinceLastFailure != null && runsSinceLastFailure == 0;
+    }
+
+    private long expectedDuration(Description description) {
+        Long expectedDuration = expectedDurations.get(description.getDisplayName());
+        return expectedDuration == null ? Long.MAX_VALUE : expectedDuration;
+    }
+}
@@ -0,0 +1,173 @@
+package org.testpackage;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.testpackage.reporting.ReportingSupport.gcCount;
+import static org.testpackage.reporting.ReportingSupport.gcMillis;
+
+/**
+ * Times the phases of a test run one after another, recording the wall clock time, the change in heap use and the
+ * garbage collections during each.
+ * <p/>
+ * Only a handful of phases are timed per run, and each costs a few MXBean lookups, so this is always on.
+ */
+public class PhaseTimer {
+
+    /**
+     * A timed phase of the run.
+     */
+    public static class Phase {
+        private final String name;
+        private final boolean nested;
+        private long nanos;
+        private long heapDeltaBytes;
+        private long gcCount;
+        private long gcMillis;
+
+        Phase(String name, boolean nested) {
+            this.name = name;
+            this.nested = nested;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return whether this is time spent during the previous phase, rather than a phase of its own
+         */
+        public boolean isNested() {
+            return nested;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * @return the change in heap use, which may be negative if garbage was collected; zero for nested phases
+         */
+        public long getHeapDeltaBytes() {
+            return heapDeltaBytes;
+        }
+
+        public long getGcCount() {
+            return gcCount;
+        }
+
+        public long getGcMillis() {
+            return gcMillis;
+        }
+    }
+
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final List<Phase> phases = Lists.newArrayList();
+
+    private Phase current;
+    private long startNanos;
+    private long startHeapBytes;
+    private long startGcCount;
+    private long startGcMillis;
+
+    /**
+     * End the current phase, if any, and start timing the next.
+     *
+     * @param name the name of the next phase
+     */
+    public synchronized void phase(String name) {
+        stop();
+        current = new Phase(name, false);
+        phases.add(current);
+        startHeapBytes = memory.getHeapMemoryUsage().getUsed();
+        startGcCount = gcCount();
+        startGcMillis = gcMillis();
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * End the current phase, if any.
+     */
+    public synchronized void stop() {
+        if (current == null) {
+            return;
+        }
+        current.nanos = System.nanoTime() - startNanos;
+        current.heapDeltaBytes = memory.getHeapMemoryUsage().getUsed() - startHeapBytes;
+        current.gcCount = gcCount() - startGcCount;
+        current.gcMillis = gcMillis() - startGcMillis;
+        current = null;
+    }
+
+    /**
+     * Record time which was spent during the last phase, but was timed separately, e.g. by a run listener.
+     *
+     * @param name  what the time was spent on
+     * @param nanos how long it took in total
+     */
+    public synchronized void addNested(String name, long nanos) {
+        Phase phase = new Phase(name, true);
+        phase.nanos = nanos;
+        phases.add(phase);
+    }
+
+    public synchronized List<Phase> getPhases() {
+        return ImmutableList.copyOf(phases);
+    }
+
+    /**
+     * @return a human-readable table of the phases, one per line
+     */
+    public synchronized String summary() {
+        StringBuilder summary = new StringBuilder("*** Phases:\n");
+        for (Phase phase : phases) {
+            if (phase.nested) {
+                summary.append(String.format("      of which %-17s %8d ms%n", phase.name, millis(phase.nanos)));
+            } else {
+                summary.append(String.format("    %-28s %8d ms, heap %+8.1f MB, %d GCs (%d ms)%n", phase.name,
+                        millis(phase.nanos), phase.heapDeltaBytes / (1024.0 * 1024.0), phase.gcCount, phase.gcMillis));
+            }
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Write the phases to a file as JSON, for tools to compare runs.
+     *
+     * @param file the file to write
+     * @throws IOException if the file could not be written
+     */
+    public synchronized void writeJson(File file) throws IOException {
+        StringBuilder json = new StringBuilder("{\"phases\":[");
+        for (int i = 0; i < phases.size(); i++) {
+            Phase phase = phases.get(i);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("\n  {\"name\":\"").append(phase.name).append('"');
+            json.append(",\"nested\":").append(phase.nested);
+            json.append(",\"nanos\":").append(phase.nanos);
+            if (!phase.nested) {
+                json.append(",\"heapDeltaBytes\":").append(phase.heapDeltaBytes);
+                json.append(",\"gcCount\":").append(phase.gcCount);
+                json.append(",\"gcMillis\":").append(phase.gcMillis);
+            }
+            json.append('}');
+        }
+        json.append("\n]}\n");
+        Files.write(json, file, Charsets.UTF_8);
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
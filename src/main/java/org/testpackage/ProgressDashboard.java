@@ -0,0 +1,155 @@
+package org.testpackage;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+import org.junit.runner.Description;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.testpackage.reporting.ReportingSupport.shortName;
+
+/**
+ * Progress of a run whose tests are shared between several workers: one line for each test in progress, and a
+ * summary line with the number of tests completed, passed and failed, the throughput, and an estimate of the time
+ * remaining.
+ * <p/>
+ * Events only update counters, and the lines are drawn when the console is next redrawn, so the cost of showing
+ * progress depends on how often the console is redrawn rather than on how many tests are run.
+ */
+public class ProgressDashboard implements ConsoleWriter.Footer {
+
+    private static final int DEFAULT_WIDTH = 80;
+
+    private final int workers;
+    private final Map<String, Long> expectedDurations;
+    private final int width;
+    private final Map<Description, Long> running = Maps.newLinkedHashMap();
+
+    private long runStartTime;
+    private int total;
+    private int passed;
+    private int failed;
+
+    /*
+     * The expected duration of the tests which have not finished yet, as far as history knows, and how many of them
+     * history knows nothing about
+     */
+    private long expectedRemainingMillis;
+    private int unknownRemaining;
+    private long completedMillis;
+
+    /**
+     * @param workers           how many tests may run at once
+     * @param expectedDurations expected duration of each test, in milliseconds, by display name
+     */
+    public ProgressDashboard(int workers, Map<String, Long> expectedDurations) {
+        this.workers = Math.max(1, workers);
+        this.expectedDurations = expectedDurations;
+        this.width = consoleWidth();
+    }
+
+    public synchronized void runStarted(Description description) {
+        runStartTime = System.currentTimeMillis();
+        addTests(description);
+    }
+
+    private void addTests(Description description) {
+        if (description.isTest()) {
+            total++;
+            Long expected = expectedDurations.get(description.getDisplayName());
+            if (expected == null) {
+                unknownRemaining++;
+            } else {
+                expectedRemainingMillis += expected;
+            }
+        }
+        for (Description child : description.getChildren()) {
+            addTests(child);
+        }
+    }
+
+    public synchronized void testStarted(Description description) {
+        running.put(description, System.currentTimeMillis());
+    }
+
+    public synchronized void testFinished(Description description, boolean success) {
+        Long startTime = running.remove(description);
+        if (startTime != null) {
+            completedMillis += System.currentTimeMillis() - startTime;
+        }
+        if (success) {
+            passed++;
+        } else {
+            failed++;
+        }
+
+        Long expected = expectedDurations.get(description.getDisplayName());
+        if (expected == null) {
+            unknownRemaining = Math.max(0, unknownRemaining - 1);
+        } else {
+            expectedRemainingMillis = Math.max(0, expectedRemainingMillis - expected);
+        }
+    }
+
+    @Override
+    public synchronized void appendTo(StringBuilder output) {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Description, Long> test : running.entrySet()) {
+            Description description = test.getKey();
+            String name = shortName(description);
+            appendLine(output, String.format(" >> %s (%s)", name, formatDuration(now - test.getValue())));
+        }
+
+        int completed = passed + failed;
+        long elapsedMillis = Math.max(1, now - runStartTime);
+        double throughput = completed * 1000.0 / elapsedMillis;
+        appendLine(output, String.format("*** %d/%d complete, %d passed, %d failed, %.1f tests/s, ETA %s",
+                completed, total, passed, failed, throughput, eta(completed, throughput)));
+    }
+
+    private String eta(int completed, double throughput) {
+        long averageMillis;
+        if (completed > 0) {
+            averageMillis = completedMillis / completed;
+        } else if (total > unknownRemaining) {
+            averageMillis = expectedRemainingMillis / (total - unknownRemaining);
+        } else {
+            return "unknown";
+        }
+        long remainingMillis = expectedRemainingMillis + unknownRemaining * averageMillis;
+        if (remainingMillis == 0 && completed < total) {
+            // no durations to go on, so extrapolate from the tests completed so far
+            if (throughput == 0) {
+                return "unknown";
+            }
+            return formatDuration((long) ((total - completed) * 1000 / throughput));
+        }
+        return formatDuration(remainingMillis / workers);
+    }
+
+    private void appendLine(StringBuilder output, String line) {
+        // lines must not wrap, or they could not be drawn over
+        if (line.length() >= width) {
+            line = line.substring(0, width - 4) + "...";
+        }
+        output.append(line).append('\n');
+    }
+
+    private static String formatDuration(long millis) {
+        long seconds = TimeUnit.MILLISECONDS.toSeconds(millis);
+        if (seconds < 60) {
+            return String.format("%.1fs", millis / 1000.0);
+        }
+        return String.format("%dm %02ds", seconds / 60, seconds % 60);
+    }
+
+    private static int consoleWidth() {
+        String columns = Strings.nullToEmpty(System.getenv("COLUMNS")).trim();
+        try {
+            return columns.isEmpty() ? DEFAULT_WIDTH : Math.max(20, Integer.parseInt(columns));
+        } catch (NumberFormatException e) {
+            return DEFAULT_WIDTH;
+        }
+    }
+}
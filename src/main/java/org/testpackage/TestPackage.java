@@ -17,24 +17,39 @@
 package org.testpackage;
 
 import org.testpackage.failfast.FailFastRunListener;
+import org.testpackage.fork.ForkedExecutionRunner;
 import org.testpackage.junitcore.FailFastSupportCore;
+import org.testpackage.junitcore.FlakyTestRecorder;
+import org.testpackage.junitcore.TimeoutWatchdog;
+import org.testpackage.reporting.JsonLinesRunListener;
+import org.testpackage.reporting.SlowTestRunListener;
+import org.testpackage.reporting.TestMetricsRunListener;
 import org.testpackage.sequencing.TestHistoryRepository;
+import org.testpackage.sequencing.TestIndex;
 import org.testpackage.sequencing.TestHistoryRunListener;
+import org.testpackage.streams.CaptureBuffer;
+import org.testpackage.streams.CapturedOutputStreamSource;
 import com.google.common.collect.Lists;
 import com.twitter.common.testing.runner.AntJunitXmlReportListener;
-import com.twitter.common.testing.runner.StreamSource;
+import org.junit.runner.Description;
 import org.junit.runner.Request;
 import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
 import org.junit.runner.notification.RunListener;
 import org.junit.runner.notification.StoppedByUserException;
 import org.kohsuke.args4j.*;
 
 import java.io.*;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 import java.util.jar.Manifest;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
 
 import static org.testpackage.AnsiSupport.ansiPrintf;
@@ -46,7 +61,8 @@ import static org.testpackage.AnsiSupport.initialize;
  * See @Option-annotated fields for command line switches.
  * </p>
  * If any command line arguments are passed, these are used as the Java package names which should be searched
- * for test classes (not recursive). Otherwise, an attribute named 'TestPackage-Package' is used to identify
+ * for test classes (not recursive, unless --recursive is given). Otherwise, the packages recorded in a build-time
+ * test index are used, or an attribute named 'TestPackage-Package' is used to identify
  * the right test package name, or failing that, a system property called 'package' is used.
  *
  * @author rnorth
@@ -54,20 +70,91 @@ import static org.testpackage.AnsiSupport.initialize;
 public class TestPackage {
 
     private static final Logger LOGGER = Logger.getLogger(TestPackage.class.getSimpleName());
+    private static final String HISTORY_FILE_PATH = ".testpackage/history.txt";
+    private static final String PHASE_TIMINGS_FILE_NAME = "testpackage-phases.json";
 
     protected TestSequencer testSequencer = new TestSequencer();
 
     @Option(name = "--failfast", aliases = "-ff", usage = "Fail Fast: Causes test run to be aborted at the first test failure")
     public boolean failFast = false;
 
+    @Option(name = "--threads", aliases = "-t", usage = "Threads: Number of test classes to run concurrently (default 1)")
+    public int threads = 1;
+
+    @Option(name = "--forks", aliases = "-f", usage = "Forks: Number of child JVMs to share test classes between (default 0, run in this JVM)")
+    public int forks = 0;
+
+    @Option(name = "--recursive", aliases = "-r", usage = "Recursive: Also search sub-packages of the given packages for test classes")
+    public boolean recursive = false;
+
+    @Option(name = "--order", aliases = "-o", usage = "Order: RECENT_FAILURES (default) runs recently failed tests first, LONGEST_FIRST also runs the slowest test classes first")
+    public TestSequencer.Order order = TestSequencer.Order.RECENT_FAILURES;
+
+    @Option(name = "--timeout", aliases = "-to", usage = "Timeout: Interrupt and fail any test which runs for longer than this many seconds, writing a thread dump to target/; plain JUnit 4 tests which ignore the interrupt are abandoned, but others hold up the run until they return (default 0, no limit)")
+    public int testTimeout = 0;
+
+    @Option(name = "--class-timeout", aliases = "-cto", usage = "Class Timeout: Interrupt and fail the tests of any test class which runs for longer than this many seconds (default 0, no limit)")
+    public int classTimeout = 0;
+
+    @Option(name = "--timeout-factor", aliases = "-tf", usage = "Timeout Factor: Limit each test and test class with a history to this many times its historical 95th percentile duration (default 0, no limit)")
+    public double timeoutFactor = 0;
+
+    @Option(name = "--retries", aliases = "-rt", usage = "Retries: Retry each failed test method up to this many times, straight after it fails; tests which then pass are reported as flaky (default 0)")
+    public int retries = 0;
+
+    @Option(name = "--flaky", aliases = "-fl", usage = "Flaky: RUN (default) runs recently flaky tests as normal, LAST runs them after all other tests, QUARANTINE also stops their failures from failing the run")
+    public TestSequencer.FlakyTestHandling flaky = TestSequencer.FlakyTestHandling.RUN;
+
+    @Option(name = "--events", aliases = "-e", usage = "Events: Append a line of JSON for each test event to this file or named pipe")
+    public File eventsFile;
+
+    @Option(name = "--metrics", aliases = "-m", usage = "Metrics: Measure the CPU time, allocation and garbage collection of each test, for the XML report and the summary")
+    public boolean metrics = false;
+
+    @Option(name = "--slow-factor", aliases = "-sf", usage = "Slow Factor: Flag tests which take this many times longer than their historical 95th percentile duration (default 5, 0 to disable)")
+    public double slowFactor = 5;
+
+    @Option(name = "--fail-slow", aliases = "-fs", usage = "Fail Slow: Fail the test run if any tests are flagged as slow")
+    public boolean failSlow = false;
+
+    @Option(name = "--async", aliases = "-a", usage = "Async: Notify the XML report, test history and events listeners on background threads, so that they do not hold up tests")
+    public boolean asyncListeners = false;
+
+    @Option(name = "--plain", aliases = "-pl", usage = "Plain: Print each test's result only once it finishes, without moving the cursor (the default when output is not a terminal)")
+    public boolean plain = false;
+
+    @Option(name = "--daemon", aliases = "-d", usage = "Daemon: Keep running, and run the tests each time a TestPackageClient asks, without starting a new JVM")
+    public boolean daemon = false;
+
+    @Option(name = "--port", usage = "Port: The loopback port for --daemon to listen on (default 7463)")
+    public int port = TestPackageClient.DEFAULT_PORT;
+
+    @Option(name = "--generate-cds-archive", aliases = "-cds", usage = "Generate CDS Archive: Run the tests once in a child JVM to record the classes they load, and archive them for a launcher script which starts faster (needs Java 11 or later)")
+    public boolean generateCdsArchive = false;
+
     @Argument
     private List<String> testPackageNames = Lists.newArrayList();
 
+    private File propertiesFile;
+
+    /**
+     * Whether this is running a request for a {@link TestPackageDaemon}, rather than as a process of its own. Nothing
+     * reached from {@link #doMain(String[])} may exit the JVM, as that would take the daemon with it.
+     */
+    boolean daemonRequest = false;
+
     public static void main(String[] args) throws IOException {
 
         initialize();
 
-        int exitCode = new TestPackage().doMain(args);
+        TestPackage testPackage = new TestPackage();
+        // cursor movements only make sense on a terminal
+        testPackage.plain = System.console() == null;
+        File jar = ClassDataSharingArchive.findJar();
+        if (jar != null) {
+            new ClassDataSharingArchive(jar).suggestIfUnused(System.out);
+        }
+        int exitCode = testPackage.doMain(args);
 
         System.exit(exitCode);
     }
@@ -87,6 +174,7 @@ public class TestPackage {
         if (!propertiesFile.canRead()) {
             throw new TestPackageException(String.format("Could not read properties file %s", propertiesFile.getAbsolutePath()));
         }
+        this.propertiesFile = propertiesFile;
 
         // read the properties from the file provided and set them as system properties
         InputStream propertiesStream = null;
@@ -126,7 +214,7 @@ public class TestPackage {
         }
     }
 
-    private int doMain(String[] args) throws IOException {
+    int doMain(String[] args) throws IOException {
 
         CmdLineParser cmdLineParser = new CmdLineParser(this);
         try {
@@ -147,68 +235,229 @@ public class TestPackage {
             return -1;
         }
 
+        if (daemon) {
+            if (daemonRequest) {
+                System.err.println("--daemon cannot be used when running tests with a TestPackageClient");
+                return -1;
+            }
+            return new TestPackageDaemon(testSequencer, port).serve();
+        }
+        if (generateCdsArchive) {
+            return generateCdsArchive(args);
+        }
         return run();
     }
 
+    private int generateCdsArchive(String[] args) throws IOException {
+        File jar = ClassDataSharingArchive.findJar();
+        if (jar == null) {
+            throw new TestPackageException("--generate-cds-archive can only be used when running tests from a JAR");
+        }
+        List<String> trainingArguments = Lists.newArrayList(args);
+        trainingArguments.removeAll(Arrays.asList("--generate-cds-archive", "-cds"));
+        return new ClassDataSharingArchive(jar).generate(trainingArguments, System.out);
+    }
+
     public int run() throws IOException {
 
+        PhaseTimer phaseTimer = new PhaseTimer();
+        phaseTimer.phase("history load");
         TestHistoryRepository testHistoryRepository = null;
         try {
             new File(".testpackage").mkdir();
-            testHistoryRepository = new TestHistoryRepository(".testpackage/history.txt");
+            testHistoryRepository = new TestHistoryRepository(HISTORY_FILE_PATH);
         } catch (IOException e) {
-            throw new TestPackageException("Could not create or open test history repository file at .testpackage/history.txt!", e);
+            throw new TestPackageException("Could not create or open test history repository file at " + HISTORY_FILE_PATH + "!", e);
         }
-        TestHistoryRunListener testHistoryRunListener = new TestHistoryRunListener(testHistoryRepository);
-
-        getTestPackage();
+        FlakyTestRecorder flakyTestRecorder = null;
+        if (retries > 0) {
+            if (forks > 0) {
+                LOGGER.warning("--retries is ignored with --forks, as tests do not run in this JVM");
+            } else {
+                flakyTestRecorder = new FlakyTestRecorder();
+            }
+        }
+        // the sequencer may be shared with earlier runs by a daemon, so is always told whether to retry
+        testSequencer.retryFailedTests(flakyTestRecorder != null ? retries : 0, flakyTestRecorder);
+        TestHistoryRunListener testHistoryRunListener = new TestHistoryRunListener(testHistoryRepository, flakyTestRecorder);
+        Set<String> recentlyFlaky = testHistoryRepository.getRecentlyFlaky();
 
-        Request request = testSequencer.sequenceTests(testHistoryRepository.getRunsSinceLastFailures(), testPackageNames.toArray(new String[testPackageNames.size()]));
+        final FailFastSupportCore core = new FailFastSupportCore(threads);
 
-        FailFastSupportCore core = new FailFastSupportCore();
+        // spill files are deleted as each test class's report is written, so old ones were left by runs which were killed
+        CaptureBuffer.deleteStaleSpillFiles();
 
         File targetDir = new File("target");
         boolean mkdirs = targetDir.mkdirs();
         if (!(targetDir.exists() || mkdirs)) {
             throw new TestPackageException("Could not create target directory: " + targetDir.getAbsolutePath());
         }
-        RunListener antXmlRunListener = new AntJunitXmlReportListener(targetDir, new StreamSource() {
-            @Override
-            public byte[] readOut(Class<?> testClass) throws IOException {
-                return new byte[0];
+
+        TimeoutWatchdog timeoutWatchdog = null;
+        final AtomicBoolean aborted = new AtomicBoolean();
+        if (testTimeout > 0 || classTimeout > 0 || timeoutFactor > 0) {
+            if (forks > 0) {
+                LOGGER.warning("Timeouts are ignored with --forks, as tests do not run in this JVM");
+            } else {
+                timeoutWatchdog = new TimeoutWatchdog(core.getNotifier(), TimeUnit.SECONDS.toMillis(testTimeout),
+                        TimeUnit.SECONDS.toMillis(classTimeout), targetDir);
+                if (timeoutFactor > 0) {
+                    timeoutWatchdog.scaleFromHistory(testHistoryRepository.getDurationPercentiles(SlowTestRunListener.PERCENTILE), timeoutFactor);
+                }
+                if (failFast) {
+                    // stop at the next test rather than wait for the rest of the run behind a test which will not stop
+                    timeoutWatchdog.onStuck(new Runnable() {
+                        @Override
+                        public void run() {
+                            aborted.set(true);
+                            core.getNotifier().pleaseStop();
+                        }
+                    });
+                }
             }
+        }
+        // the sequencer may be shared with earlier runs by a daemon, so is always told which watchdog to use
+        testSequencer.abandonStuckTests(timeoutWatchdog);
+
+        phaseTimer.phase("package discovery");
+        getTestPackage();
 
-            @Override
-            public byte[] readErr(Class<?> testClass) throws IOException {
-                return new byte[0];
+        Comparator<Description> testOrder;
+        if (order == TestSequencer.Order.LONGEST_FIRST) {
+            testOrder = TestSequencer.longestFirst(testHistoryRepository.getRunsSinceLastFailures(), testHistoryRepository.getExpectedDurations());
+        } else {
+            testOrder = TestSequencer.recentFailuresFirst(testHistoryRepository.getRunsSinceLastFailures());
+        }
+        if (flaky != TestSequencer.FlakyTestHandling.RUN) {
+            testOrder = TestSequencer.flakyLast(testOrder, recentlyFlaky);
+        }
+        phaseTimer.phase("class scanning");
+        Request request = testSequencer.sequenceTests(testOrder, recursive, testPackageNames.toArray(new String[testPackageNames.size()]));
+
+        // the runners are only built, and sorted, when first asked for
+        phaseTimer.phase("sorting");
+        request = Request.runner(request.getRunner());
+
+        if (forks > 0) {
+            if (threads > 1) {
+                throw new TestPackageException("--threads and --forks cannot be used together");
+            }
+            List<String> forkArguments = Lists.newArrayList(HISTORY_FILE_PATH);
+            if (propertiesFile != null) {
+                forkArguments.add(propertiesFile.getAbsolutePath());
+            }
+            request = Request.runner(new ForkedExecutionRunner(request.getRunner().getDescription(), forks, failFast, forkArguments));
+        }
+
+        CapturedOutputStreamSource capturedOutput = new CapturedOutputStreamSource();
+        TestMetricsRunListener testMetricsRunListener = null;
+        if (metrics) {
+            if (forks > 0) {
+                LOGGER.warning("--metrics is ignored with --forks, as tests do not run in this JVM");
+            } else {
+                testMetricsRunListener = new TestMetricsRunListener(System.out);
             }
-        });
+        }
+        SlowTestRunListener slowTestRunListener = null;
+        if (slowFactor > 0) {
+            slowTestRunListener = new SlowTestRunListener(
+                    testHistoryRepository.getDurationPercentiles(SlowTestRunListener.PERCENTILE), slowFactor, System.out);
+        }
+        AntJunitXmlReportListener antXmlRunListener = new AntJunitXmlReportListener(targetDir, capturedOutput,
+                testMetricsRunListener, slowTestRunListener, flakyTestRecorder);
 
-        RunListener colouredOutputRunListener = new ColouredOutputRunListener(failFast);
+        ColouredOutputRunListener colouredOutputRunListener = new ColouredOutputRunListener(failFast, threads > 1 || forks > 0, capturedOutput, plain);
+        if (flakyTestRecorder != null) {
+            colouredOutputRunListener.showFlakyTests(flakyTestRecorder);
+        }
+        if ((threads > 1 || forks > 0) && !plain) {
+            colouredOutputRunListener.showProgress(Math.max(threads, forks), testHistoryRepository.getExpectedDurations());
+        }
 
-        core.addListener(antXmlRunListener);
+        // reports timeouts on the test's thread, before the other listeners hear that the test finished
+        if (timeoutWatchdog != null) {
+            core.addListener(timeoutWatchdog);
+        }
+        // the coloured output listener collects each test's output when it finishes, so must be notified before the
+        // XML report listener writes out the report for the test's class
         core.addListener(colouredOutputRunListener);
-        core.addListener(testHistoryRunListener);
+        // measures each test on its own thread, so is never asynchronous, and must be notified before the XML report
+        if (testMetricsRunListener != null) {
+            core.addListener(testMetricsRunListener);
+        }
+        // likewise kept on the test thread, so that tests are flagged before the XML report listener hears of them
+        if (slowTestRunListener != null) {
+            core.addListener(slowTestRunListener);
+        }
+        List<RunListener> reportListeners = Lists.newArrayList(antXmlRunListener, testHistoryRunListener);
+        JsonLinesRunListener jsonLinesRunListener = null;
+        if (eventsFile != null) {
+            jsonLinesRunListener = new JsonLinesRunListener(eventsFile);
+            reportListeners.add(jsonLinesRunListener);
+        }
+        for (RunListener reportListener : reportListeners) {
+            if (asyncListeners) {
+                core.addAsynchronousListener(reportListener);
+            } else {
+                core.addListener(reportListener);
+            }
+        }
 
+        // stays on the test thread even in async mode, so that a failure stops the run straight away
         if (failFast) {
             core.addListener(new FailFastRunListener(core.getNotifier()));
         }
 
         Result result;
+        phaseTimer.phase("test execution");
         try {
             result = core.run(request);
         } catch (StoppedByUserException e) {
             // Thrown in fail-fast mode
-            ansiPrintf("@|red FAILED|@\n");
-            return 1;
+            result = null;
         } finally {
+            if (timeoutWatchdog != null) {
+                timeoutWatchdog.close();
+            }
+            // if the run was stopped, testRunFinished was never fired, so the events file is still open
+            if (jsonLinesRunListener != null) {
+                try {
+                    jsonLinesRunListener.close();
+                } catch (IOException e) {
+                    LOGGER.warning("Could not close events file " + eventsFile + ": " + e);
+                }
+            }
+            phaseTimer.addNested("report writing", antXmlRunListener.getReportWritingNs());
+            phaseTimer.phase("history save");
             testHistoryRepository.save();
+            phaseTimer.stop();
+        }
+
+        System.out.println();
+        System.out.print(phaseTimer.summary());
+        phaseTimer.writeJson(new File(targetDir, PHASE_TIMINGS_FILE_NAME));
+
+        if (result == null || aborted.get()) {
+            ansiPrintf("@|red FAILED|@\n");
+            return 1;
         }
 
         int failureCount = result.getFailureCount();
         int testCount = result.getRunCount();
         int passed = testCount - failureCount;
-        if (failureCount > 0 || passed == 0) {
+        boolean slowTestsFlagged = slowTestRunListener != null && !slowTestRunListener.getSlowTests().isEmpty();
+        int quarantinedFailureCount = 0;
+        if (flaky == TestSequencer.FlakyTestHandling.QUARANTINE) {
+            for (Failure failure : result.getFailures()) {
+                if (recentlyFlaky.contains(failure.getDescription().getDisplayName())) {
+                    quarantinedFailureCount++;
+                }
+            }
+            if (quarantinedFailureCount > 0) {
+                ansiPrintf("@|yellow %d failures of quarantined flaky tests were ignored|@\n", quarantinedFailureCount);
+            }
+        }
+        if (failureCount > quarantinedFailureCount || passed == 0 || (failSlow && slowTestsFlagged)) {
             ansiPrintf("@|red FAILED|@\n");
             return 1;
         } else {
@@ -218,13 +467,21 @@ public class TestPackage {
     }
 
 
-    private void getTestPackage() {
+    private void getTestPackage() throws IOException {
 
         if (testPackageNames.size() != 0) {
             // command-line arguments always preferred
             return;
         }
 
+        // A build-time test index records the packages it was generated for, and avoids reading every manifest
+        TestIndex testIndex = testSequencer.getTestIndex();
+        if (testIndex != null && !testIndex.getPackageNames().isEmpty()) {
+            testPackageNames.addAll(testIndex.getPackageNames());
+            recursive |= testIndex.isRecursive();
+            return;
+        }
+
         // Check the JAR manifest
         try {
             Enumeration<URL> resources = TestPackage.class.getClassLoader().getResources("META-INF/MANIFEST.MF");
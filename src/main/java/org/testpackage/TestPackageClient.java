@@ -0,0 +1,126 @@
+package org.testpackage;
+
+import org.fusesource.jansi.AnsiConsole;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Thin client for a {@link TestPackageDaemon}: sends its command line arguments to the daemon, prints the run's output
+ * as it arrives, and exits with the run's exit code, just as if the tests had been run by {@link TestPackage} itself.
+ * <p/>
+ * Run it from the same directory as the daemon, with the same arguments TestPackage would take, plus optionally
+ * <code>--port N</code> to connect to a daemon on another port, or <code>--stop</code> to stop the daemon:
+ * <pre>
+ *     java -cp JARFILE org.testpackage.TestPackageClient [--port N] [OPTIONS] [ARGUMENTS]
+ * </pre>
+ * To start quickly, this only uses the JDK and Jansi.
+ */
+public class TestPackageClient {
+
+    static final int DEFAULT_PORT = 7463;
+
+    static final int PROTOCOL_VERSION = 1;
+    static final byte REQUEST_RUN = 1;
+    static final byte REQUEST_STOP = 2;
+    static final byte RESPONSE_STDOUT = 1;
+    static final byte RESPONSE_STDERR = 2;
+    static final byte RESPONSE_EXIT = 3;
+
+    /**
+     * Exit code when the daemon could not be reached, or went away during the run.
+     */
+    private static final int NO_DAEMON_EXIT_CODE = 1;
+
+    public static void main(String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+        boolean stop = false;
+        List<String> runArgs = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--port") && i + 1 < args.length) {
+                port = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--stop")) {
+                stop = true;
+            } else {
+                runArgs.add(args[i]);
+            }
+        }
+        if (System.console() == null && !runArgs.contains("--plain") && !runArgs.contains("-pl")) {
+            // as TestPackage would if run directly, as cursor movements only make sense on a terminal
+            runArgs.add("--plain");
+        }
+
+        System.exit(run(port, stop, runArgs));
+    }
+
+    /**
+     * @param port    the port the daemon is listening on
+     * @param stop    whether to stop the daemon rather than run tests
+     * @param runArgs the arguments for the run, as TestPackage would take them
+     * @return the run's exit code
+     * @throws IOException if the output could not be written
+     */
+    public static int run(int port, boolean stop, List<String> runArgs) throws IOException {
+        Socket socket;
+        try {
+            socket = new Socket(InetAddress.getByName(null), port);
+        } catch (IOException e) {
+            System.err.println("Could not connect to a TestPackage daemon on port " + port + ": " + e.getMessage());
+            return NO_DAEMON_EXIT_CODE;
+        }
+
+        try {
+            DataOutputStream request = new DataOutputStream(socket.getOutputStream());
+            request.writeInt(PROTOCOL_VERSION);
+            if (stop) {
+                request.writeByte(REQUEST_STOP);
+                request.flush();
+                return 0;
+            }
+            request.writeByte(REQUEST_RUN);
+            request.writeUTF(new File(".").getCanonicalPath());
+            request.writeInt(runArgs.size());
+            for (String arg : runArgs) {
+                request.writeUTF(arg);
+            }
+            request.flush();
+
+            // strips or converts ANSI escapes if this client's output is not a terminal that understands them
+            OutputStream out = AnsiConsole.wrapOutputStream(System.out);
+            OutputStream err = AnsiConsole.wrapOutputStream(System.err);
+            DataInputStream response = new DataInputStream(socket.getInputStream());
+            byte[] buffer = new byte[8192];
+            try {
+                while (true) {
+                    byte type = response.readByte();
+                    if (type == RESPONSE_EXIT) {
+                        out.flush();
+                        err.flush();
+                        return response.readInt();
+                    }
+                    int length = response.readInt();
+                    if (buffer.length < length) {
+                        buffer = new byte[length];
+                    }
+                    response.readFully(buffer, 0, length);
+                    OutputStream stream = type == RESPONSE_STDERR ? err : out;
+                    stream.write(buffer, 0, length);
+                    stream.flush();
+                }
+            } catch (IOException e) {
+                // e.g. the daemon was killed
+                System.err.println("\nThe TestPackage daemon went away before the run finished: " + e);
+                return NO_DAEMON_EXIT_CODE;
+            }
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package org.testpackage;
+
+import org.testpackage.streams.StreamCapture;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import static org.testpackage.TestPackageClient.*;
+
+/**
+ * Keeps a TestPackage JVM running, so that each test run requested by a {@link TestPackageClient} starts with the
+ * test index read, the classpath scanned, and the test classes (and TestPackage's own) already loaded and compiled.
+ * <p/>
+ * Listens on a loopback port, and runs one request at a time, as if TestPackage had been run with the request's
+ * arguments from the same directory: its output is streamed back to the client, which exits with the run's exit code.
+ * System properties are restored after each run, but static state in the test classes is not, so tests which rely on
+ * a fresh JVM should not be run this way.
+ */
+public class TestPackageDaemon {
+
+    private static final Logger LOGGER = Logger.getLogger(TestPackageDaemon.class.getSimpleName());
+
+    private final TestSequencer testSequencer;
+    private final ServerSocket serverSocket;
+    private final String workingDirectory;
+
+    /**
+     * @param testSequencer the sequencer to share between runs, which holds the test index and classpath scan
+     * @param port          the port to listen on, or 0 for any free port
+     * @throws IOException if the port could not be listened on
+     */
+    public TestPackageDaemon(TestSequencer testSequencer, int port) throws IOException {
+        this.testSequencer = testSequencer;
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getByName(null));
+        this.workingDirectory = new File(".").getCanonicalPath();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Run requests until asked to stop.
+     *
+     * @return the exit code for the daemon
+     * @throws IOException if the daemon could no longer accept requests
+     */
+    public int serve() throws IOException {
+
+        // warm up while waiting for the first request
+        testSequencer.getTestIndex();
+        System.out.println("TestPackage daemon listening on port " + getPort());
+
+        try {
+            while (true) {
+                Socket socket = serverSocket.accept();
+                try {
+                    if (!handle(socket)) {
+                        System.out.println("TestPackage daemon stopped");
+                        return 0;
+                    }
+                } catch (IOException e) {
+                    // the client went away; carry on with the next one
+                    LOGGER.warning("Could not handle request: " + e);
+                } finally {
+                    socket.close();
+                }
+            }
+        } finally {
+            serverSocket.close();
+        }
+    }
+
+    /**
+     * @return false if the daemon was asked to stop
+     */
+    private boolean handle(Socket socket) throws IOException {
+        DataInputStream request = new DataInputStream(socket.getInputStream());
+        DataOutputStream response = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+        int version = request.readInt();
+        if (version != PROTOCOL_VERSION) {
+            LOGGER.warning("Ignoring request from a client using protocol version " + version);
+            return true;
+        }
+        if (request.readByte() == REQUEST_STOP) {
+            return false;
+        }
+        String clientDirectory = request.readUTF();
+        String[] args = new String[request.readInt()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = request.readUTF();
+        }
+
+        Properties systemProperties = (Properties) System.getProperties().clone();
+        StreamCapture redirection = StreamCapture.redirectStreams(
+                new FrameOutputStream(response, RESPONSE_STDOUT), new FrameOutputStream(response, RESPONSE_STDERR));
+        int exitCode;
+        try {
+            exitCode = run(clientDirectory, args);
+        } finally {
+            redirection.restore();
+            System.setProperties(systemProperties);
+        }
+
+        synchronized (response) {
+            response.writeByte(RESPONSE_EXIT);
+            response.writeInt(exitCode);
+            response.flush();
+        }
+        return true;
+    }
+
+    private int run(String clientDirectory, String[] args) {
+        // history, reports and relative paths would otherwise end up in the daemon's directory, not the client's
+        if (!clientDirectory.equals(workingDirectory)) {
+            System.err.println("The TestPackage daemon on port " + getPort() + " was started in " + workingDirectory
+                    + ", so can only run tests from there");
+            return 1;
+        }
+
+        TestPackage testPackage = new TestPackage();
+        testPackage.testSequencer = testSequencer;
+        testPackage.daemonRequest = true;
+        try {
+            return testPackage.doMain(args);
+        } catch (Exception e) {
+            // as the JVM would report it if TestPackage had been run directly
+            e.printStackTrace();
+            return 1;
+        }
+    }
+
+    /**
+     * Writes everything written to it to the client as frames of the given type. Writes from test threads running
+     * concurrently are interleaved frame by frame.
+     */
+    private static class FrameOutputStream extends OutputStream {
+
+        private final DataOutputStream response;
+        private final byte type;
+
+        FrameOutputStream(DataOutputStream response, byte type) {
+            this.response = response;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            synchronized (response) {
+                response.writeByte(type);
+                response.writeInt(len);
+                response.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (response) {
+                response.flush();
+            }
+        }
+    }
+}
@@ -1,11 +1,22 @@
 package org.testpackage;
 
 import com.google.common.collect.Sets;
-import com.google.common.reflect.ClassPath;
+import org.junit.runner.Computer;
+import org.junit.runner.Description;
 import org.junit.runner.Request;
+import org.junit.runner.Runner;
+import org.junit.runners.BlockJUnit4ClassRunner;
+import org.junit.runners.model.RunnerBuilder;
+import org.testpackage.junitcore.FlakyTestRecorder;
+import org.testpackage.junitcore.RetryingClassRunner;
+import org.testpackage.junitcore.TimeoutWatchdog;
+import org.testpackage.sequencing.ClassPathIndex;
+import org.testpackage.sequencing.TestClassDetector;
+import org.testpackage.sequencing.TestIndex;
 
 import java.io.IOException;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Map;
 import java.util.Set;
 
@@ -14,23 +25,194 @@ import java.util.Set;
  */
 public class TestSequencer {
 
+    /**
+     * Orders in which tests can be sequenced.
+     */
+    public enum Order {
+        /**
+         * Most recently failed tests first.
+         */
+        RECENT_FAILURES,
+        /**
+         * Tests which failed last time first, then the longest running test classes first.
+         */
+        LONGEST_FIRST
+    }
+
+    /**
+     * Ways of handling tests which have recently been flaky, i.e. only passed when retried.
+     */
+    public enum FlakyTestHandling {
+        /**
+         * Run them as normal.
+         */
+        RUN,
+        /**
+         * Run them after all other tests.
+         */
+        LAST,
+        /**
+         * Run them after all other tests, and do not let their failures fail the run.
+         */
+        QUARANTINE
+    }
+
+    private final ClassLoader classLoader = TestPackage.class.getClassLoader();
+    private final TestClassDetector testClassDetector = new TestClassDetector(classLoader);
+    private ClassPathIndex classPathIndex;
+    private TestIndex testIndex;
+    private boolean testIndexLoaded;
+    private int retries;
+    private FlakyTestRecorder flakyTestRecorder;
+    private TimeoutWatchdog timeoutWatchdog;
+
+    /**
+     * Retry failed test methods in the requests sequenced from now on. Only plain JUnit 4 test classes (i.e. those
+     * without @RunWith) are retried.
+     *
+     * @param retries           how many times to retry a failed test method
+     * @param flakyTestRecorder where to record test methods which only passed when retried
+     */
+    public void retryFailedTests(int retries, FlakyTestRecorder flakyTestRecorder) {
+        this.retries = retries;
+        this.flakyTestRecorder = flakyTestRecorder;
+    }
+
+    /**
+     * Run each test method in the requests sequenced from now on on a thread of its own, so that the watchdog can
+     * abandon a test which runs out of time and will not stop. Only plain JUnit 4 test classes are run this way.
+     *
+     * @param timeoutWatchdog the watchdog, or null to run tests on the runner's thread
+     */
+    public void abandonStuckTests(TimeoutWatchdog timeoutWatchdog) {
+        this.timeoutWatchdog = timeoutWatchdog;
+    }
+
     public Request sequenceTests(String... testPackageNames) throws IOException {
         return sequenceTests(Collections.<String, Integer>emptyMap(), testPackageNames);
     }
 
     public Request sequenceTests(Map<String, Integer> runsSinceLastFailures, String... testPackageNames) throws IOException {
+        return sequenceTests(runsSinceLastFailures, false, testPackageNames);
+    }
+
+    /**
+     * @param runsSinceLastFailures historic 'runs since last failure' counts, used to prioritise recently failed tests
+     * @param recursive             whether test classes in sub-packages of the given packages should be included
+     * @param testPackageNames      names of the packages to search for test classes
+     * @return a sorted request for all test classes found
+     * @throws IOException if the classpath could not be scanned
+     */
+    public Request sequenceTests(Map<String, Integer> runsSinceLastFailures, boolean recursive, String... testPackageNames) throws IOException {
+        return sequenceTests(recentFailuresFirst(runsSinceLastFailures), recursive, testPackageNames);
+    }
+
+    /**
+     * @param order            the order in which test classes and methods should be run
+     * @param recursive        whether test classes in sub-packages of the given packages should be included
+     * @param testPackageNames names of the packages to search for test classes
+     * @return a sorted request for all test classes found
+     * @throws IOException if the classpath could not be scanned
+     */
+    public Request sequenceTests(Comparator<Description> order, boolean recursive, String... testPackageNames) throws IOException {
         Set<Class<?>> testClasses = Sets.newHashSet();
 
+        TestIndex testIndex = getTestIndex();
         for (String testPackageName : testPackageNames) {
-            ClassPath classpath = ClassPath.from(TestPackage.class.getClassLoader());
-            for (ClassPath.ClassInfo classInfo : classpath.getTopLevelClasses(testPackageName)) {
-                testClasses.add(classInfo.load());
+            if (testIndex != null && testIndex.covers(testPackageName, recursive)) {
+                for (String className : testIndex.getTestClassNames(testPackageName, recursive)) {
+                    testClasses.add(loadClass(className));
+                }
+            } else {
+                for (String className : getClassPathIndex().getTopLevelClassNames(testPackageName, recursive)) {
+                    // Only load classes whose bytecode shows that they are tests
+                    if (testClassDetector.isTestClass(className)) {
+                        testClasses.add(loadClass(className));
+                    }
+                }
             }
         }
-        Request unsortedClassRequest = Request.classes(testClasses.toArray(new Class[testClasses.size()]));
-        Request sortedRequest = unsortedClassRequest.sortWith(new RecentFailurePrioritisationRequestComparator(runsSinceLastFailures));
+        return sequenceClasses(order, testClasses.toArray(new Class[testClasses.size()]));
+    }
+
+    public Request sequenceClasses(Map<String, Integer> runsSinceLastFailures, Class<?>... testClasses) {
+        return sequenceClasses(recentFailuresFirst(runsSinceLastFailures), testClasses);
+    }
+
+    public Request sequenceClasses(Comparator<Description> order, Class<?>... testClasses) {
+        Request unsortedClassRequest = Request.classes(computer(), testClasses);
+        Request sortedRequest = unsortedClassRequest.sortWith(order);
 
         return sortedRequest;
     }
 
+    private Computer computer() {
+        if (retries == 0 && timeoutWatchdog == null) {
+            return new Computer();
+        }
+        return new Computer() {
+            @Override
+            protected Runner getRunner(RunnerBuilder builder, Class<?> testClass) throws Throwable {
+                Runner runner = super.getRunner(builder, testClass);
+                if (runner.getClass() == BlockJUnit4ClassRunner.class) {
+                    return new RetryingClassRunner(testClass, retries, flakyTestRecorder, timeoutWatchdog);
+                }
+                return runner;
+            }
+        };
+    }
+
+    /**
+     * @param runsSinceLastFailures historic 'runs since last failure' counts
+     * @return an order which runs the most recently failed tests first
+     */
+    public static Comparator<Description> recentFailuresFirst(Map<String, Integer> runsSinceLastFailures) {
+        return new RecentFailurePrioritisationRequestComparator(runsSinceLastFailures);
+    }
+
+    /**
+     * @param runsSinceLastFailures historic 'runs since last failure' counts
+     * @param expectedDurations     historic smoothed durations, in milliseconds
+     * @return an order which runs tests which failed last time first, then the longest running test classes first
+     */
+    public static Comparator<Description> longestFirst(Map<String, Integer> runsSinceLastFailures, Map<String, Long> expectedDurations) {
+        return new LongestFirstRequestComparator(runsSinceLastFailures, expectedDurations);
+    }
+
+    /**
+     * @param order         the order to run tests in otherwise
+     * @param recentlyFlaky descriptions of the test classes and methods which have recently been flaky
+     * @return an order which runs recently flaky tests after all the others
+     */
+    public static Comparator<Description> flakyLast(Comparator<Description> order, Set<String> recentlyFlaky) {
+        return new FlakyLastRequestComparator(order, recentlyFlaky);
+    }
+
+    /**
+     * @return the build-time test index packaged with the tests, or null if there isn't one
+     * @throws IOException if the test index could not be read
+     */
+    public synchronized TestIndex getTestIndex() throws IOException {
+        if (!testIndexLoaded) {
+            testIndex = TestIndex.load(classLoader);
+            testIndexLoaded = true;
+        }
+        return testIndex;
+    }
+
+    private synchronized ClassPathIndex getClassPathIndex() throws IOException {
+        // The classpath is only scanned once, however many packages are searched
+        if (classPathIndex == null) {
+            classPathIndex = ClassPathIndex.scan(classLoader);
+        }
+        return classPathIndex;
+    }
+
+    private Class<?> loadClass(String className) {
+        try {
+            return classLoader.loadClass(className);
+        } catch (ClassNotFoundException e) {
+            throw new TestPackageException("Could not load test class " + className, e);
+        }
+    }
 }
@@ -0,0 +1,112 @@
+package org.testpackage.fork;
+
+import org.junit.runner.Description;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * A test event sent from a forked JVM back to the parent TestPackage process.
+ * <p/>
+ * Descriptions are identified by display name, so that the parent can map them back onto the descriptions
+ * it already holds. Exceptions are serialized separately so that a test throwing something which can't be
+ * serialized does not corrupt the event stream.
+ */
+class ForkEvent implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    enum Type {
+        TEST_STARTED, TEST_FINISHED, TEST_FAILURE, TEST_ASSUMPTION_FAILURE, TEST_IGNORED, CLASS_FINISHED
+    }
+
+    private final Type type;
+    private final String className;
+    private final String methodName;
+    private final String displayName;
+    private final byte[] serializedException;
+
+    private ForkEvent(Type type, Description description, byte[] serializedException) {
+        this.type = type;
+        this.className = description == null ? null : description.getClassName();
+        this.methodName = description == null ? null : description.getMethodName();
+        this.displayName = description == null ? null : description.getDisplayName();
+        this.serializedException = serializedException;
+    }
+
+    static ForkEvent of(Type type, Description description) {
+        return new ForkEvent(type, description, null);
+    }
+
+    static ForkEvent of(Type type, Description description, Throwable exception) {
+        return new ForkEvent(type, description, serialize(exception));
+    }
+
+    static ForkEvent classFinished() {
+        return new ForkEvent(Type.CLASS_FINISHED, null, null);
+    }
+
+    Type getType() {
+        return type;
+    }
+
+    String getClassName() {
+        return className;
+    }
+
+    String getMethodName() {
+        return methodName;
+    }
+
+    String getDisplayName() {
+        return displayName;
+    }
+
+    Throwable getException() {
+        try {
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serializedException));
+            return (Throwable) in.readObject();
+        } catch (Exception e) {
+            return new ForkedTestException("Could not read exception from forked JVM: " + e, e.getStackTrace());
+        }
+    }
+
+    private static byte[] serialize(Throwable exception) {
+        try {
+            return toBytes(exception);
+        } catch (IOException e) {
+            // Not serializable - send a stand-in with the same message and stack trace
+            ForkedTestException standIn = new ForkedTestException(exception.getClass().getName() + ": " + exception.getMessage(), exception.getStackTrace());
+            try {
+                return toBytes(standIn);
+            } catch (IOException e1) {
+                throw new IllegalStateException("Could not serialize exception " + exception, e1);
+            }
+        }
+    }
+
+    private static byte[] toBytes(Throwable exception) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(baos);
+        out.writeObject(exception);
+        out.close();
+        return baos.toByteArray();
+    }
+
+    /**
+     * Stand-in for an exception thrown in a forked JVM which could not be transferred to the parent.
+     */
+    static class ForkedTestException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        ForkedTestException(String message, StackTraceElement[] stackTrace) {
+            super(message);
+            setStackTrace(stackTrace);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package org.testpackage.fork;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.junit.runner.Description;
+import org.junit.runner.Runner;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runner.notification.StoppedByUserException;
+import org.testpackage.TestPackageException;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runner which shares the test classes of an already sequenced request between a number of forked JVMs, and
+ * replays the events they send back into the run notifier of this JVM - so all the usual run listeners work
+ * unchanged.
+ * <p/>
+ * Each forked JVM takes the next class, in prioritised order, whenever it finishes the previous one. If a forked
+ * JVM dies, the class it was running is reported as failed and a replacement JVM is started. In fail-fast mode the
+ * first failure stops every forked JVM.
+ */
+public class ForkedExecutionRunner extends Runner {
+
+    private final Description description;
+    private final int forks;
+    private final boolean failFast;
+    private final List<String> forkArguments;
+
+    private final List<ForkedJvm> runningJvms = Collections.synchronizedList(Lists.<ForkedJvm>newArrayList());
+    private volatile boolean stopped;
+
+    /**
+     * @param description   description of the sequenced request; its children are the test classes to run
+     * @param forks         number of JVMs to fork
+     * @param failFast      whether to stop all forked JVMs at the first failure
+     * @param forkArguments arguments for {@link ForkedTestRunner#main(String[])}
+     */
+    public ForkedExecutionRunner(Description description, int forks, boolean failFast, List<String> forkArguments) {
+        this.description = description;
+        this.forks = forks;
+        this.failFast = failFast;
+        this.forkArguments = ImmutableList.copyOf(forkArguments);
+    }
+
+    @Override
+    public Description getDescription() {
+        return description;
+    }
+
+    @Override
+    public void run(final RunNotifier notifier) {
+        final Map<String, Description> descriptionsByName = Maps.newHashMap();
+        indexDescriptions(description, descriptionsByName);
+
+        final Queue<Description> testClasses = new ConcurrentLinkedQueue<Description>(description.getChildren());
+        final PrintStream output = System.err;
+
+        ExecutorService drivers = Executors.newFixedThreadPool(forks, new ThreadFactoryBuilder().setNameFormat("testpackage-fork-driver-%d").setDaemon(true).build());
+        List<Future<Void>> results = Lists.newArrayList();
+        for (int i = 0; i < forks; i++) {
+            results.add(drivers.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    drive(testClasses, notifier, descriptionsByName, output);
+                    return null;
+                }
+            }));
+        }
+        drivers.shutdown();
+
+        try {
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            stopAll();
+            Thread.currentThread().interrupt();
+            throw new StoppedByUserException();
+        } catch (ExecutionException e) {
+            stopAll();
+            Throwable cause = e.getCause();
+            if (cause instanceof StoppedByUserException) {
+                throw (StoppedByUserException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new TestPackageException("Error running tests in forked JVM", (Exception) cause);
+        }
+
+        if (stopped) {
+            throw new StoppedByUserException();
+        }
+    }
+
+    private void drive(Queue<Description> testClasses, RunNotifier notifier, Map<String, Description> descriptionsByName, PrintStream output) throws IOException {
+        ForkedJvm jvm = null;
+        try {
+            Description testClass;
+            while (!stopped && (testClass = testClasses.poll()) != null) {
+                if (jvm == null) {
+                    jvm = ForkedJvm.start(forkArguments, output);
+                    runningJvms.add(jvm);
+                }
+
+                boolean classFinished;
+                try {
+                    jvm.runClass(testClass.getClassName());
+                    classFinished = replayEvents(jvm, notifier, descriptionsByName);
+                } catch (IOException e) {
+                    classFinished = false;
+                }
+
+                if (!classFinished) {
+                    runningJvms.remove(jvm);
+                    jvm.destroy();
+                    jvm = null;
+                    if (!stopped) {
+                        notifier.fireTestFailure(new Failure(testClass,
+                                new TestPackageException("Forked JVM exited unexpectedly while running " + testClass.getClassName())));
+                    }
+                }
+            }
+        } catch (StoppedByUserException e) {
+            stopAll();
+            throw e;
+        } finally {
+            if (jvm != null) {
+                runningJvms.remove(jvm);
+                jvm.close();
+            }
+        }
+    }
+
+    /**
+     * @return true if the forked JVM finished the class, false if it exited part way through
+     */
+    private boolean replayEvents(ForkedJvm jvm, RunNotifier notifier, Map<String, Description> descriptionsByName) throws IOException {
+        ForkEvent event;
+        while ((event = jvm.nextEvent()).getType() != ForkEvent.Type.CLASS_FINISHED) {
+            Description eventDescription = descriptionsByName.get(event.getDisplayName());
+            if (eventDescription == null) {
+                // e.g. a test generated at runtime in the forked JVM
+                eventDescription = Description.createTestDescription(event.getClassName(), event.getMethodName());
+            }
+
+            switch (event.getType()) {
+                case TEST_STARTED:
+                    notifier.fireTestStarted(eventDescription);
+                    break;
+                case TEST_FINISHED:
+                    notifier.fireTestFinished(eventDescription);
+                    break;
+                case TEST_FAILURE:
+                    notifier.fireTestFailure(new Failure(eventDescription, event.getException()));
+                    if (failFast) {
+                        stopAll();
+                        throw new StoppedByUserException();
+                    }
+                    break;
+                case TEST_ASSUMPTION_FAILURE:
+                    notifier.fireTestAssumptionFailed(new Failure(eventDescription, event.getException()));
+                    break;
+                case TEST_IGNORED:
+                    notifier.fireTestIgnored(eventDescription);
+                    break;
+            }
+        }
+        return true;
+    }
+
+    private void stopAll() {
+        stopped = true;
+        synchronized (runningJvms) {
+            for (ForkedJvm jvm : runningJvms) {
+                jvm.destroy();
+            }
+        }
+    }
+
+    private static void indexDescriptions(Description description, Map<String, Description> descriptionsByName) {
+        descriptionsByName.put(description.getDisplayName(), description);
+        for (Description child : description.getChildren()) {
+            indexDescriptions(child, descriptionsByName);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package org.testpackage.fork;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+/**
+ * Handle on a child JVM running {@link ForkedTestRunner}, started from the same classpath as this JVM.
+ * <p/>
+ * A forked JVM is kept running across many test classes to avoid repeated JVM startup and JIT warm-up costs.
+ */
+class ForkedJvm {
+
+    private final Process process;
+    private final Writer commands;
+    private ObjectInputStream events;
+
+    private ForkedJvm(Process process) {
+        this.process = process;
+        this.commands = new OutputStreamWriter(process.getOutputStream(), Charsets.UTF_8);
+    }
+
+    /**
+     * Start a forked JVM.
+     *
+     * @param forkArguments arguments to pass to {@link ForkedTestRunner#main(String[])}
+     * @param output        stream which anything written by tests in the forked JVM should be copied to
+     * @return a handle on the started JVM
+     * @throws IOException if the JVM could not be started
+     */
+    static ForkedJvm start(List<String> forkArguments, PrintStream output) throws IOException {
+        List<String> command = Lists.newArrayList();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        for (String jvmArgument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            // a debugger can only be listening on one JVM
+            if (!jvmArgument.startsWith("-agentlib:jdwp") && !jvmArgument.startsWith("-Xrunjdwp")) {
+                command.add(jvmArgument);
+            }
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ForkedTestRunner.class.getName());
+        command.addAll(forkArguments);
+
+        Process process = new ProcessBuilder(command).start();
+        pump(process.getErrorStream(), output);
+
+        return new ForkedJvm(process);
+    }
+
+    /**
+     * Ask the forked JVM to run a test class. Events for the class should then be read with {@link #nextEvent()}
+     * until a {@link ForkEvent.Type#CLASS_FINISHED} event is received.
+     *
+     * @param className fully qualified test class name
+     * @throws IOException if the forked JVM is no longer accepting commands
+     */
+    void runClass(String className) throws IOException {
+        commands.write(className);
+        commands.write('\n');
+        commands.flush();
+    }
+
+    /**
+     * @return the next event sent by the forked JVM
+     * @throws IOException if the forked JVM has exited or sent something unreadable
+     */
+    ForkEvent nextEvent() throws IOException {
+        if (events == null) {
+            events = new ObjectInputStream(new BufferedInputStream(process.getInputStream()));
+        }
+        try {
+            return (ForkEvent) events.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unexpected object received from forked JVM: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Ask the forked JVM to exit once it has finished its current work, and wait for it to do so.
+     */
+    void close() {
+        try {
+            commands.close();
+            process.waitFor();
+        } catch (IOException e) {
+            destroy();
+        } catch (InterruptedException e) {
+            destroy();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Kill the forked JVM immediately.
+     */
+    void destroy() {
+        process.destroy();
+    }
+
+    private static void pump(final InputStream from, final OutputStream to) {
+        Thread pumpThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ByteStreams.copy(from, to);
+                } catch (IOException e) {
+                    // forked JVM has gone away
+                }
+            }
+        }, "testpackage-fork-output");
+        pumpThread.setDaemon(true);
+        pumpThread.start();
+    }
+}
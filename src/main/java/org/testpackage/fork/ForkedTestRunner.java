@@ -0,0 +1,116 @@
+package org.testpackage.fork;
+
+import com.google.common.base.Charsets;
+import org.junit.internal.runners.ErrorReportingRunner;
+import org.junit.runner.Description;
+import org.junit.runner.Request;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+import org.junit.runner.notification.RunNotifier;
+import org.testpackage.TestPackage;
+import org.testpackage.TestSequencer;
+import org.testpackage.sequencing.TestHistoryRepository;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.ObjectOutputStream;
+import java.util.Map;
+
+/**
+ * Main class of a forked TestPackage JVM.
+ * <p/>
+ * Reads fully qualified test class names from stdin, one per line, and runs each class in turn, writing
+ * {@link ForkEvent}s to stdout for the parent process to replay. Anything the tests themselves write to
+ * System.out is redirected to System.err so that it cannot corrupt the event stream.
+ * <p/>
+ * Arguments: the path of the test history file used to sequence test methods, and optionally the path of
+ * a properties file to load as system properties.
+ */
+public class ForkedTestRunner {
+
+    public static void main(String[] args) throws IOException {
+
+        final ObjectOutputStream events = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        events.flush();
+        System.setOut(System.err);
+
+        if (args.length > 1) {
+            new TestPackage().setPropertiesFile(new File(args[1]));
+        }
+
+        Map<String, Integer> runsSinceLastFailures = new TestHistoryRepository(args[0]).getRunsSinceLastFailures();
+        TestSequencer testSequencer = new TestSequencer();
+
+        RunNotifier notifier = new RunNotifier();
+        notifier.addListener(new EventWritingRunListener(events));
+
+        BufferedReader commands = new BufferedReader(new InputStreamReader(System.in, Charsets.UTF_8));
+        String className;
+        while ((className = commands.readLine()) != null && !className.isEmpty()) {
+
+            Request request;
+            try {
+                Class<?> testClass = Class.forName(className, true, ForkedTestRunner.class.getClassLoader());
+                request = testSequencer.sequenceClasses(runsSinceLastFailures, testClass);
+            } catch (ClassNotFoundException e) {
+                request = Request.runner(new ErrorReportingRunner(ForkedTestRunner.class, e));
+            }
+            request.getRunner().run(notifier);
+
+            events.writeObject(ForkEvent.classFinished());
+            events.flush();
+            // Don't keep references to every event sent so far
+            events.reset();
+        }
+
+        events.close();
+    }
+
+    private static class EventWritingRunListener extends RunListener {
+
+        private final ObjectOutputStream events;
+
+        EventWritingRunListener(ObjectOutputStream events) {
+            this.events = events;
+        }
+
+        @Override
+        public void testStarted(Description description) throws Exception {
+            write(ForkEvent.of(ForkEvent.Type.TEST_STARTED, description));
+        }
+
+        @Override
+        public void testFinished(Description description) throws Exception {
+            write(ForkEvent.of(ForkEvent.Type.TEST_FINISHED, description));
+        }
+
+        @Override
+        public void testFailure(Failure failure) throws Exception {
+            write(ForkEvent.of(ForkEvent.Type.TEST_FAILURE, failure.getDescription(), failure.getException()));
+        }
+
+        @Override
+        public void testAssumptionFailure(Failure failure) {
+            try {
+                write(ForkEvent.of(ForkEvent.Type.TEST_ASSUMPTION_FAILURE, failure.getDescription(), failure.getException()));
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not write to parent process", e);
+            }
+        }
+
+        @Override
+        public void testIgnored(Description description) throws Exception {
+            write(ForkEvent.of(ForkEvent.Type.TEST_IGNORED, description));
+        }
+
+        private void write(ForkEvent event) throws IOException {
+            events.writeObject(event);
+            events.flush();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package org.testpackage.junitcore;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.runner.Description;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Run listener which passes events on to another listener on a dedicated thread, so that the test thread only pays
+ * for adding each event to a bounded queue.
+ * <p/>
+ * Events reach the delegate in the order they were fired. If the delegate falls so far behind that the queue is full,
+ * test threads wait for it to catch up. {@link #testRunFinished(Result)} waits until the delegate has handled every
+ * event, so its reports are complete when the run returns; {@link #close()} does the same for runs which are stopped
+ * before they finish.
+ * <p/>
+ * Delegates should time events with {@link EventClock} rather than the system clock. They must not depend on being
+ * called on the test thread, e.g. to look at its captured output, and must not stop the run, as that would no longer
+ * happen promptly.
+ */
+public class AsynchronousRunListener extends RunListener {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final Logger LOGGER = Logger.getLogger(AsynchronousRunListener.class.getSimpleName());
+
+    private enum Type {
+        RUN_STARTED, TEST_STARTED, TEST_FAILURE, TEST_ASSUMPTION_FAILURE, TEST_IGNORED, TEST_FINISHED, RUN_FINISHED, CLOSE
+    }
+
+    private static class Event {
+        private final Type type;
+        private final Object subject;
+        private final long nanoTime;
+
+        Event(Type type, Object subject) {
+            this.type = type;
+            this.subject = subject;
+            this.nanoTime = System.nanoTime();
+        }
+    }
+
+    private final RunListener delegate;
+    private final BlockingQueue<Event> events;
+    private final Thread dispatcher;
+    private volatile Throwable delegateFailure;
+    private boolean closed;
+
+    public AsynchronousRunListener(RunListener delegate) {
+        this(delegate, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param delegate the listener to notify
+     * @param capacity how many events may be waiting for the delegate before test threads are held up
+     */
+    public AsynchronousRunListener(RunListener delegate, int capacity) {
+        this.delegate = delegate;
+        this.events = new ArrayBlockingQueue<Event>(capacity);
+        this.dispatcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        }, "testpackage-listener-" + delegate.getClass().getSimpleName());
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    @Override
+    public void testRunStarted(Description description) throws Exception {
+        publish(Type.RUN_STARTED, description);
+    }
+
+    @Override
+    public void testStarted(Description description) throws Exception {
+        publish(Type.TEST_STARTED, description);
+    }
+
+    @Override
+    public void testFailure(Failure failure) throws Exception {
+        publish(Type.TEST_FAILURE, failure);
+    }
+
+    @Override
+    public void testAssumptionFailure(Failure failure) {
+        publish(Type.TEST_ASSUMPTION_FAILURE, failure);
+    }
+
+    @Override
+    public void testIgnored(Description description) throws Exception {
+        publish(Type.TEST_IGNORED, description);
+    }
+
+    @Override
+    public void testFinished(Description description) throws Exception {
+        publish(Type.TEST_FINISHED, description);
+    }
+
+    /**
+     * Waits for the delegate to handle every event, including this one, and rethrows anything it threw.
+     */
+    @Override
+    public void testRunFinished(Result result) throws Exception {
+        publish(Type.RUN_FINISHED, result);
+        drain();
+        Throwable failure = delegateFailure;
+        if (failure != null) {
+            delegateFailure = null;
+            Throwables.propagateIfPossible(failure, Exception.class);
+            throw new RuntimeException(failure);
+        }
+    }
+
+    /**
+     * Waits for the delegate to handle every event published so far and stops its thread. Anything the delegate
+     * threw and which has not been rethrown by {@link #testRunFinished(Result)} is logged.
+     */
+    public void close() {
+        drain();
+        if (delegateFailure != null) {
+            LOGGER.log(Level.WARNING, "Run listener " + delegate.getClass().getName() + " failed", delegateFailure);
+            delegateFailure = null;
+        }
+    }
+
+    private synchronized void drain() {
+        if (!closed) {
+            closed = true;
+            Uninterruptibles.putUninterruptibly(events, new Event(Type.CLOSE, null));
+            Uninterruptibles.joinUninterruptibly(dispatcher);
+        }
+    }
+
+    private void publish(Type type, Object subject) {
+        // blocks while the queue is full, so that a slow delegate holds up the tests rather than using more memory
+        Uninterruptibles.putUninterruptibly(events, new Event(type, subject));
+    }
+
+    private void dispatch() {
+        while (true) {
+            Event event = Uninterruptibles.takeUninterruptibly(events);
+            if (event.type == Type.CLOSE) {
+                return;
+            }
+            if (delegateFailure != null) {
+                // as with RunNotifier, a listener which has failed is not notified again
+                continue;
+            }
+            EventClock.dispatching(event.nanoTime);
+            try {
+                notifyDelegate(event);
+            } catch (Throwable t) {
+                delegateFailure = t;
+            }
+        }
+    }
+
+    private void notifyDelegate(Event event) throws Exception {
+        switch (event.type) {
+            case RUN_STARTED:
+                delegate.testRunStarted((Description) event.subject);
+                break;
+            case TEST_STARTED:
+                delegate.testStarted((Description) event.subject);
+                break;
+            case TEST_FAILURE:
+                delegate.testFailure((Failure) event.subject);
+                break;
+            case TEST_ASSUMPTION_FAILURE:
+                delegate.testAssumptionFailure((Failure) event.subject);
+                break;
+            case TEST_IGNORED:
+                delegate.testIgnored((Description) event.subject);
+                break;
+            case TEST_FINISHED:
+                delegate.testFinished((Description) event.subject);
+                break;
+            case RUN_FINISHED:
+                delegate.testRunFinished((Result) event.subject);
+                break;
+            default:
+                throw new IllegalStateException("Unexpected event " + event.type);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package org.testpackage.junitcore;
+
+/**
+ * Clock for run listeners to time test events with.
+ * <p/>
+ * A listener notified through an {@link AsynchronousRunListener} sees each event some time after it happened, so
+ * on a dispatcher thread this gives the time at which the event was fired rather than the current time. Everywhere
+ * else it is the same as {@link System#nanoTime()}.
+ */
+public final class EventClock {
+
+    private static final ThreadLocal<long[]> EVENT_TIME = new ThreadLocal<long[]>();
+
+    private EventClock() {
+    }
+
+    /**
+     * @return the time at which the event currently being handled was fired, in the units of
+     * {@link System#nanoTime()}
+     */
+    public static long nanoTime() {
+        long[] eventTime = EVENT_TIME.get();
+        return eventTime == null ? System.nanoTime() : eventTime[0];
+    }
+
+    static void dispatching(long nanoTime) {
+        long[] eventTime = EVENT_TIME.get();
+        if (eventTime == null) {
+            eventTime = new long[1];
+            EVENT_TIME.set(eventTime);
+        }
+        eventTime[0] = nanoTime;
+    }
+}
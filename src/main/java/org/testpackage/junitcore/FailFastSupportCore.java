@@ -1,10 +1,14 @@
 package org.testpackage.junitcore;
 
+import com.google.common.collect.Lists;
 import org.junit.runner.Request;
 import org.junit.runner.Result;
 import org.junit.runner.Runner;
 import org.junit.runner.notification.RunListener;
 import org.junit.runner.notification.RunNotifier;
+import org.junit.runners.ParentRunner;
+
+import java.util.List;
 
 /**
  * Replacement for JUnitCore which provides access to its RunNotifier.
@@ -14,6 +18,20 @@ import org.junit.runner.notification.RunNotifier;
 public class FailFastSupportCore {
 
     private final RunNotifier notifier = new RunNotifier();
+    private final int threads;
+    private final List<AsynchronousRunListener> asynchronousListeners = Lists.newArrayList();
+
+    public FailFastSupportCore() {
+        this(1);
+    }
+
+    /**
+     * @param threads the number of test classes which may be run concurrently. If greater than one, the top-level
+     *                class runners are run on a pool of worker threads, in the order they appear in the request.
+     */
+    public FailFastSupportCore(int threads) {
+        this.threads = threads;
+    }
 
     /**
      * Run all the tests contained in <code>request</code>.
@@ -26,6 +44,10 @@ public class FailFastSupportCore {
     }
 
     private Result run(Runner runner) {
+        if (threads > 1 && runner instanceof ParentRunner) {
+            ((ParentRunner<?>) runner).setScheduler(new ParallelClassScheduler(threads));
+        }
+
         Result result = new Result();
         RunListener listener = result.createListener();
         notifier.addFirstListener(listener);
@@ -35,6 +57,10 @@ public class FailFastSupportCore {
             notifier.fireTestRunFinished(result);
         } finally {
             removeListener(listener);
+            // if the run was stopped, testRunFinished was never fired, so the listeners have not been drained yet
+            for (AsynchronousRunListener asynchronousListener : asynchronousListeners) {
+                asynchronousListener.close();
+            }
         }
         return result;
     }
@@ -49,6 +75,19 @@ public class FailFastSupportCore {
         notifier.addListener(listener);
     }
 
+    /**
+     * Add a listener to be notified as the tests run, on its own thread rather than the thread running the tests.
+     * Its events are delivered in order, and it will have handled all of them by the time the run returns.
+     *
+     * @param listener the listener to add
+     * @see AsynchronousRunListener
+     */
+    public void addAsynchronousListener(RunListener listener) {
+        AsynchronousRunListener asynchronousListener = new AsynchronousRunListener(listener);
+        asynchronousListeners.add(asynchronousListener);
+        notifier.addListener(asynchronousListener);
+    }
+
     /**
      * Remove a listener.
      *
@@ -0,0 +1,62 @@
+package org.testpackage.junitcore;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.twitter.common.testing.runner.TestCaseAttributeSource;
+import org.junit.runner.Description;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Records the tests which failed and then passed when retried by a {@link RetryingClassRunner}. A test is recorded
+ * before its testFinished event is fired, so listeners may ask about it when they hear that it finished, and tell
+ * flaky tests apart from those which passed first time.
+ * <p/>
+ * Flaky tests are marked in the XML report (as a {@link TestCaseAttributeSource}).
+ */
+public class FlakyTestRecorder implements TestCaseAttributeSource {
+
+    private final ConcurrentMap<Description, List<Throwable>> flakyTests = Maps.newConcurrentMap();
+
+    /**
+     * @param description    the test which passed when retried
+     * @param failedAttempts the failure of each attempt before it passed, in order
+     */
+    void recordFlaky(Description description, List<Throwable> failedAttempts) {
+        flakyTests.put(description, ImmutableList.copyOf(failedAttempts));
+    }
+
+    public boolean isFlaky(Description description) {
+        return flakyTests.containsKey(description);
+    }
+
+    /**
+     * @return the failure of each attempt before the test passed, or an empty list if it is not flaky
+     */
+    public List<Throwable> getFailedAttempts(Description description) {
+        List<Throwable> failedAttempts = flakyTests.get(description);
+        return failedAttempts == null ? Collections.<Throwable>emptyList() : failedAttempts;
+    }
+
+    /**
+     * @return every test which has been flaky so far, with the failure of each attempt before it passed
+     */
+    public Map<Description, List<Throwable>> getFlakyTests() {
+        return ImmutableMap.copyOf(flakyTests);
+    }
+
+    @Override
+    public Map<String, String> attributesFor(Description test) {
+        List<Throwable> failedAttempts = flakyTests.get(test);
+        if (failedAttempts == null) {
+            return Collections.emptyMap();
+        }
+        return ImmutableMap.of(
+                "flaky", "true",
+                "failedAttempts", String.valueOf(failedAttempts.size()));
+    }
+}
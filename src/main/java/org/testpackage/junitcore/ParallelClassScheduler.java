@@ -0,0 +1,76 @@
+package org.testpackage.junitcore;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.junit.runner.notification.StoppedByUserException;
+import org.junit.runners.model.RunnerScheduler;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JUnit runner scheduler which runs the children of a suite (i.e. test classes) on a pool of worker threads.
+ * <p/>
+ * Children are queued in the order that they are scheduled, which for a sorted request is the prioritised order,
+ * and each worker takes the next class from the shared queue as soon as it becomes idle. Class-level tasks do not
+ * spawn subtasks, so this gives the same load balancing as a work-stealing pool.
+ * <p/>
+ * If a test run is stopped (e.g. by fail-fast) on any worker, queued classes are discarded and the
+ * {@link StoppedByUserException} is rethrown on the calling thread once running classes have completed. Anything
+ * else thrown by a class (e.g. an {@link Error} from a runner) is likewise rethrown once all classes have run, rather
+ * than being lost with the worker thread.
+ */
+class ParallelClassScheduler implements RunnerScheduler {
+
+    private final ThreadPoolExecutor executor;
+    private volatile StoppedByUserException stoppedByUserException;
+    private volatile Throwable unexpectedException;
+
+    ParallelClassScheduler(int threads) {
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setNameFormat("testpackage-worker-%d").setDaemon(true).build());
+    }
+
+    @Override
+    public void schedule(final Runnable childStatement) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (stoppedByUserException != null) {
+                    return;
+                }
+                try {
+                    childStatement.run();
+                } catch (StoppedByUserException e) {
+                    stoppedByUserException = e;
+                    // discard queued classes, but let classes already running on other workers wind down
+                    executor.getQueue().clear();
+                } catch (Throwable e) {
+                    unexpectedException = e;
+                }
+            }
+        });
+    }
+
+    @Override
+    public void finished() {
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                // keep waiting for running test classes
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        if (stoppedByUserException != null) {
+            throw stoppedByUserException;
+        }
+        if (unexpectedException != null) {
+            throw Throwables.propagate(unexpectedException);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org.testpackage.junitcore;
+
+import com.google.common.collect.Lists;
+import org.junit.internal.AssumptionViolatedException;
+import org.junit.runner.Description;
+import org.junit.runners.BlockJUnit4ClassRunner;
+import org.junit.runners.model.FrameworkMethod;
+import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.Statement;
+
+import java.util.List;
+
+/**
+ * JUnit 4 class runner which retries a failed test method up to a given number of times, in the same JVM and
+ * straight after the failed attempt. Each attempt gets a new instance of the test class, and runs its @Before and
+ * @After methods and rules.
+ * <p/>
+ * Listeners only hear about the test once: if any attempt passes, the test passes (and is recorded as flaky by the
+ * {@link FlakyTestRecorder}), and otherwise it fails with the first attempt's failure.
+ * <p/>
+ * Given a {@link TimeoutWatchdog}, each attempt runs on a thread of its own, so that a test which runs out of time and
+ * will not stop can be abandoned. A test which has run out of time is not retried.
+ */
+public class RetryingClassRunner extends BlockJUnit4ClassRunner {
+
+    private final int retries;
+    private final FlakyTestRecorder flakyTestRecorder;
+    private final TimeoutWatchdog timeoutWatchdog;
+
+    /**
+     * @param testClass         the test class to run
+     * @param retries           how many times to retry a failed test
+     * @param flakyTestRecorder where to record tests which only passed when retried, or null if not retrying
+     * @param timeoutWatchdog   the watchdog which may abandon tests, or null
+     * @throws InitializationError if the test class is malformed
+     */
+    public RetryingClassRunner(Class<?> testClass, int retries, FlakyTestRecorder flakyTestRecorder,
+                               TimeoutWatchdog timeoutWatchdog) throws InitializationError {
+        super(testClass);
+        this.retries = retries;
+        this.flakyTestRecorder = flakyTestRecorder;
+        this.timeoutWatchdog = timeoutWatchdog;
+    }
+
+    @Override
+    protected Statement methodBlock(final FrameworkMethod method) {
+        final Description description = describeChild(method);
+        return new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                List<Throwable> failedAttempts = Lists.newArrayList();
+                while (true) {
+                    try {
+                        // a new statement for each attempt, so that each gets a new test instance
+                        Statement attempt = RetryingClassRunner.super.methodBlock(method);
+                        if (timeoutWatchdog != null) {
+                            attempt = timeoutWatchdog.abandonable(description, attempt);
+                        }
+                        attempt.evaluate();
+                    } catch (AssumptionViolatedException e) {
+                        throw e;
+                    } catch (Throwable e) {
+                        failedAttempts.add(e);
+                        // a test interrupted by the timeout watchdog would only time out again
+                        if (failedAttempts.size() > retries || Thread.currentThread().isInterrupted()
+                                || (timeoutWatchdog != null && timeoutWatchdog.hasTimedOut(description))) {
+                            throw failedAttempts.get(0);
+                        }
+                        continue;
+                    }
+                    if (!failedAttempts.isEmpty()) {
+                        flakyTestRecorder.recordFlaky(description, failedAttempts);
+                    }
+                    return;
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,15 @@
+package org.testpackage.junitcore;
+
+/**
+ * Reported as the failure of a test which was stopped by the {@link TimeoutWatchdog}. Its stack trace is where the
+ * test was when it timed out.
+ */
+public class TestTimeoutException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public TestTimeoutException(String message, StackTraceElement[] stackTrace) {
+        super(message);
+        setStackTrace(stackTrace);
+    }
+}
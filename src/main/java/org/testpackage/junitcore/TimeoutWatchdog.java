@@ -0,0 +1,473 @@
+package org.testpackage.junitcore;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import org.junit.runner.Description;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runners.model.Statement;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.LockInfo;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MonitorInfo;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Run listener which stops tests that run for too long, so that a hung test cannot hold up the whole run.
+ * <p/>
+ * Each test may be given a time limit, as may each test class (from its first test starting to its last finishing).
+ * Limits may also be scaled from how long each test has taken in the past. A watchdog thread checks the tests in
+ * progress; when one runs out of time, a thread dump is written to the dump directory and the test's thread is
+ * interrupted. Once the test finishes, a {@link TestTimeoutException} is reported as its failure (unless it already
+ * failed, e.g. with an InterruptedException), so that the other listeners see an error and, with fail-fast, the run
+ * stops. Tests in a class which has run out of time are interrupted as soon as they start.
+ * <p/>
+ * A test which ignores being interrupted cannot be stopped. If it is still running {@link #STUCK_GRACE_MILLIS} after
+ * being interrupted, a second thread dump is written. A test run on a thread of its own by
+ * {@link #abandonable(Description, Statement)} is then abandoned, failing with a {@link TestTimeoutException}, so that
+ * the run can carry on. Any other test's failure is reported from the watchdog thread, and the action given to
+ * {@link #onStuck(Runnable)}, if any, is run, e.g. to stop the run; but the run cannot finish until the test returns.
+ * <p/>
+ * This listener must be notified on the test's own thread, so cannot be used with forked JVMs, and should be added
+ * before the other listeners, so that they are told of a timeout before they are told that the test finished.
+ */
+public class TimeoutWatchdog extends RunListener {
+
+    private static final Logger LOGGER = Logger.getLogger(TimeoutWatchdog.class.getSimpleName());
+
+    static final long POLL_INTERVAL_MILLIS = 100;
+    static final long STUCK_GRACE_MILLIS = 10000;
+    /**
+     * Limits scaled from history are never shorter than this, as a test's duration varies with the load on the machine.
+     */
+    static final long MIN_SCALED_TIMEOUT_MILLIS = 5000;
+
+    private static final int MAX_STACK_DEPTH_IN_DUMP = 1024;
+
+    /**
+     * A test in progress.
+     */
+    private static class RunningTest {
+        private final Description description;
+        private Thread thread;
+        private final long startTime;
+        private final long deadline;
+        private String timeoutMessage;
+        private StackTraceElement[] timeoutStackTrace;
+        private long interruptedAt;
+        private boolean failed;
+        private boolean stuck;
+        private boolean abandonable;
+
+        RunningTest(Description description, Thread thread, long startTime, long deadline) {
+            this.description = description;
+            this.thread = thread;
+            this.startTime = startTime;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * A test class in progress.
+     */
+    private static class RunningClass {
+        private int remainingTests;
+        private long deadline;
+        private boolean started;
+        private boolean timedOut;
+    }
+
+    private final RunNotifier notifier;
+    private final long testTimeoutMillis;
+    private final long classTimeoutMillis;
+    private final File dumpDirectory;
+
+    private Map<String, Long> percentiles = ImmutableMap.of();
+    private double historyFactor;
+    private Runnable stuckAction;
+
+    private final Map<Description, RunningTest> running = Maps.newHashMap();
+    private final Map<String, RunningClass> classes = Maps.newHashMap();
+    private Thread watchdogThread;
+    private volatile boolean closed;
+
+    /**
+     * @param notifier           the notifier to report timeouts to
+     * @param testTimeoutMillis  the longest any one test may take, or 0 for no limit
+     * @param classTimeoutMillis the longest any one test class may take, or 0 for no limit
+     * @param dumpDirectory      where to write thread dumps
+     */
+    public TimeoutWatchdog(RunNotifier notifier, long testTimeoutMillis, long classTimeoutMillis, File dumpDirectory) {
+        this.notifier = notifier;
+        this.testTimeoutMillis = testTimeoutMillis;
+        this.classTimeoutMillis = classTimeoutMillis;
+        this.dumpDirectory = dumpDirectory;
+    }
+
+    /**
+     * Give each test class or method which has a history a limit of <code>factor</code> times its historical
+     * duration (but at least {@link #MIN_SCALED_TIMEOUT_MILLIS}), unless its fixed limit is shorter.
+     *
+     * @param percentiles historical durations in milliseconds, by class name or method display name, e.g. as given
+     *                    by TestHistoryRepository#getDurationPercentiles(double)
+     * @param factor      how many times its historical duration each test may take
+     */
+    public synchronized void scaleFromHistory(Map<String, Long> percentiles, double factor) {
+        this.percentiles = percentiles;
+        this.historyFactor = factor;
+    }
+
+    /**
+     * @param stuckAction what to do once a test which has run out of time has failed to stop, and cannot be abandoned
+     */
+    public synchronized void onStuck(Runnable stuckAction) {
+        this.stuckAction = stuckAction;
+    }
+
+    /**
+     * Run a test's statement on a thread of its own, so that if it runs out of time and then does not stop when
+     * interrupted, it can be abandoned rather than holding up the run. The thread running the test waits for it, and
+     * reports its outcome as if it had run the statement itself.
+     *
+     * @param description the test, which must already have started
+     * @param statement   the test's statement
+     * @return a statement which runs the test's statement on a thread of its own
+     */
+    public Statement abandonable(final Description description, final Statement statement) {
+        return new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                final Throwable[] thrown = new Throwable[1];
+                Thread worker = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            statement.evaluate();
+                        } catch (Throwable e) {
+                            thrown[0] = e;
+                        }
+                    }
+                }, "testpackage-test-" + description.getDisplayName());
+                // an abandoned test must not keep the JVM alive
+                worker.setDaemon(true);
+
+                RunningTest test;
+                boolean alreadyTimedOut = false;
+                synchronized (TimeoutWatchdog.this) {
+                    test = running.get(description);
+                    if (test != null) {
+                        test.thread = worker;
+                        test.abandonable = true;
+                        // interrupted as it started, before the worker existed
+                        alreadyTimedOut = test.timeoutMessage != null && Thread.interrupted();
+                    }
+                }
+                worker.start();
+                if (alreadyTimedOut) {
+                    worker.interrupt();
+                }
+
+                while (worker.isAlive()) {
+                    try {
+                        worker.join(POLL_INTERVAL_MILLIS);
+                    } catch (InterruptedException e) {
+                        worker.interrupt();
+                    }
+                    synchronized (TimeoutWatchdog.this) {
+                        if (test != null && test.stuck) {
+                            throw new TestTimeoutException(test.timeoutMessage
+                                    + ", and was abandoned as it did not stop when interrupted", worker.getStackTrace());
+                        }
+                    }
+                }
+                if (thrown[0] != null) {
+                    throw thrown[0];
+                }
+            }
+        };
+    }
+
+    /**
+     * @return whether the test, which must still be in progress, has run out of time
+     */
+    synchronized boolean hasTimedOut(Description description) {
+        RunningTest test = running.get(description);
+        return test != null && test.timeoutMessage != null;
+    }
+
+    @Override
+    public synchronized void testRunStarted(Description description) throws Exception {
+        countTests(description);
+        if (watchdogThread == null) {
+            watchdogThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    watch();
+                }
+            }, "testpackage-watchdog");
+            watchdogThread.setDaemon(true);
+            watchdogThread.start();
+        }
+    }
+
+    private void countTests(Description description) {
+        if (description.isTest()) {
+            runningClass(description.getClassName()).remainingTests++;
+        }
+        for (Description child : description.getChildren()) {
+            countTests(child);
+        }
+    }
+
+    @Override
+    public synchronized void testStarted(Description description) throws Exception {
+        long now = System.currentTimeMillis();
+        RunningClass runningClass = runningClass(description.getClassName());
+        if (!runningClass.started) {
+            runningClass.started = true;
+            long classLimit = limitFor(description.getClassName(), classTimeoutMillis);
+            runningClass.deadline = classLimit > 0 ? now + classLimit : Long.MAX_VALUE;
+        }
+
+        long testLimit = limitFor(description.getDisplayName(), testTimeoutMillis);
+        RunningTest test = new RunningTest(description, Thread.currentThread(), now,
+                testLimit > 0 ? now + testLimit : Long.MAX_VALUE);
+        running.put(description, test);
+        if (now >= runningClass.deadline) {
+            runningClass.timedOut = true;
+        }
+        if (runningClass.timedOut) {
+            timeOut(test, String.format("%s was interrupted as it started, as %s had already run out of time",
+                    description.getDisplayName(), description.getClassName()), false);
+        }
+    }
+
+    @Override
+    public synchronized void testFailure(Failure failure) throws Exception {
+        RunningTest test = running.get(failure.getDescription());
+        if (test != null) {
+            test.failed = true;
+        }
+    }
+
+    @Override
+    public void testFinished(Description description) throws Exception {
+        RunningTest test;
+        synchronized (this) {
+            test = running.remove(description);
+            finishedTest(description);
+            if (test == null || test.timeoutMessage == null) {
+                return;
+            }
+            // the watchdog only interrupts tests it holds the lock for, so this cannot clear an interrupt meant
+            // for the next test
+            Thread.interrupted();
+            if (test.failed || test.stuck) {
+                return;
+            }
+        }
+        // reported from the test's own thread, before the remaining listeners hear that it finished
+        notifier.fireTestFailure(new Failure(description, new TestTimeoutException(test.timeoutMessage, test.timeoutStackTrace)));
+    }
+
+    @Override
+    public synchronized void testIgnored(Description description) throws Exception {
+        finishedTest(description);
+    }
+
+    @Override
+    public void testRunFinished(Result result) throws Exception {
+        close();
+    }
+
+    /**
+     * Stop watching, e.g. because the run was stopped before it finished.
+     */
+    public void close() {
+        closed = true;
+        Thread thread;
+        synchronized (this) {
+            thread = watchdogThread;
+        }
+        if (thread != null && thread != Thread.currentThread()) {
+            thread.interrupt();
+        }
+    }
+
+    private void finishedTest(Description description) {
+        RunningClass runningClass = classes.get(description.getClassName());
+        if (runningClass != null && --runningClass.remainingTests <= 0) {
+            classes.remove(description.getClassName());
+        }
+    }
+
+    private RunningClass runningClass(String className) {
+        RunningClass runningClass = classes.get(className);
+        if (runningClass == null) {
+            runningClass = new RunningClass();
+            classes.put(className, runningClass);
+        }
+        return runningClass;
+    }
+
+    private long limitFor(String description, long fixedLimit) {
+        Long historical = historyFactor > 0 ? percentiles.get(description) : null;
+        if (historical == null) {
+            return fixedLimit;
+        }
+        long scaledLimit = Math.max(MIN_SCALED_TIMEOUT_MILLIS, (long) (historyFactor * historical));
+        return fixedLimit > 0 ? Math.min(fixedLimit, scaledLimit) : scaledLimit;
+    }
+
+    private void watch() {
+        while (!closed) {
+            try {
+                Thread.sleep(POLL_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            check(System.currentTimeMillis());
+        }
+    }
+
+    private void check(long now) {
+        List<RunningTest> stuck = Lists.newArrayList();
+        synchronized (this) {
+            for (RunningTest test : running.values()) {
+                if (test.timeoutMessage == null) {
+                    RunningClass runningClass = classes.get(test.description.getClassName());
+                    if (now >= test.deadline) {
+                        timeOut(test, String.format("%s timed out after %d ms",
+                                test.description.getDisplayName(), now - test.startTime), true);
+                    } else if (runningClass != null && now >= runningClass.deadline) {
+                        runningClass.timedOut = true;
+                        timeOut(test, String.format("%s was stopped, as %s ran out of time",
+                                test.description.getDisplayName(), test.description.getClassName()), true);
+                    }
+                } else if (!test.stuck && now >= test.interruptedAt + STUCK_GRACE_MILLIS) {
+                    test.stuck = true;
+                    stuck.add(test);
+                }
+            }
+        }
+
+        boolean unabandonable = false;
+        for (RunningTest test : stuck) {
+            File dump = writeThreadDump(test.description, "stuck");
+            LOGGER.severe(String.format("%s did not stop within %d ms of being interrupted; thread dump written to %s",
+                    test.description.getDisplayName(), STUCK_GRACE_MILLIS, dump));
+            // an abandonable test fails on its own thread, once it has been abandoned
+            if (!test.abandonable) {
+                unabandonable = true;
+                if (!test.failed) {
+                    notifier.fireTestFailure(new Failure(test.description,
+                            new TestTimeoutException(test.timeoutMessage + ", and did not stop when interrupted", test.thread.getStackTrace())));
+                }
+            }
+        }
+        Runnable action;
+        synchronized (this) {
+            action = stuckAction;
+        }
+        if (unabandonable && action != null) {
+            action.run();
+        }
+    }
+
+    /**
+     * Must be called holding this listener's lock, while the test is still running.
+     */
+    private void timeOut(RunningTest test, String message, boolean dump) {
+        test.timeoutStackTrace = test.thread.getStackTrace();
+        if (dump) {
+            File dumpFile = writeThreadDump(test.description, "timeout");
+            message = dumpFile == null ? message : message + "; thread dump written to " + dumpFile;
+            LOGGER.warning(message);
+        }
+        test.timeoutMessage = message;
+        test.interruptedAt = System.currentTimeMillis();
+        test.thread.interrupt();
+    }
+
+    /**
+     * @return the file written, or null if it could not be written
+     */
+    private File writeThreadDump(Description description, String reason) {
+        String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date());
+        String name = description.getDisplayName().replaceAll("[^A-Za-z0-9._-]+", "_");
+        File file = new File(dumpDirectory, "threaddump-" + reason + "-" + name + "-" + timestamp + ".txt");
+        try {
+            Files.createParentDirs(file);
+            Files.write(threadDump(), file, Charsets.UTF_8);
+            return file;
+        } catch (IOException e) {
+            LOGGER.warning("Could not write thread dump to " + file + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the stack of every thread, with the locks each holds and is waiting for, in a format similar to jstack's
+     */
+    static String threadDump() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        ThreadInfo[] threadInfos = threads.dumpAllThreads(threads.isObjectMonitorUsageSupported(),
+                threads.isSynchronizerUsageSupported());
+        StringBuilder dump = new StringBuilder("Full thread dump at ").append(new Date()).append("\n");
+
+        long[] deadlocked = threads.isSynchronizerUsageSupported() ? threads.findDeadlockedThreads() : threads.findMonitorDeadlockedThreads();
+        if (deadlocked != null) {
+            dump.append("\nDeadlocked threads:");
+            for (long id : deadlocked) {
+                dump.append(' ').append(id);
+            }
+            dump.append('\n');
+        }
+
+        for (ThreadInfo info : threadInfos) {
+            if (info == null) {
+                continue;
+            }
+            dump.append("\n\"").append(info.getThreadName()).append("\" Id=").append(info.getThreadId())
+                    .append(' ').append(info.getThreadState());
+            if (info.getLockName() != null) {
+                dump.append(" on ").append(info.getLockName());
+            }
+            if (info.getLockOwnerName() != null) {
+                dump.append(" owned by \"").append(info.getLockOwnerName()).append("\" Id=").append(info.getLockOwnerId());
+            }
+            dump.append('\n');
+
+            StackTraceElement[] stackTrace = info.getStackTrace();
+            for (int depth = 0; depth < stackTrace.length && depth < MAX_STACK_DEPTH_IN_DUMP; depth++) {
+                dump.append("\tat ").append(stackTrace[depth]).append('\n');
+                for (MonitorInfo monitor : info.getLockedMonitors()) {
+                    if (monitor.getLockedStackDepth() == depth) {
+                        dump.append("\t-  locked ").append(monitor).append('\n');
+                    }
+                }
+            }
+            LockInfo[] synchronizers = info.getLockedSynchronizers();
+            if (synchronizers.length > 0) {
+                dump.append("\n\tLocked synchronizers:\n");
+                for (LockInfo synchronizer : synchronizers) {
+                    dump.append("\t- ").append(synchronizer).append('\n');
+                }
+            }
+        }
+        return dump.toString();
+    }
+}
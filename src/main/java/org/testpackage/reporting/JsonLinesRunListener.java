@@ -0,0 +1,267 @@
+package org.testpackage.reporting;
+
+import com.google.common.collect.Maps;
+import org.junit.runner.Description;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+import org.testpackage.junitcore.EventClock;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * Run listener which writes one line of JSON for each test event to a file (or named pipe), so that other processes
+ * can follow a run as it happens, e.g. with <code>tail -f</code>.
+ * <p/>
+ * Every line has an <code>event</code> (runStarted, testStarted, testFinished, testFailure,
+ * testAssumptionFailure, testIgnored, runFinished or runAborted) and a <code>timeNanos</code> timestamp, in nanoseconds since
+ * the epoch. Test events also have <code>class</code> and <code>method</code>; testFinished and runFinished have
+ * <code>durationNanos</code>; failures have <code>exception</code> and <code>message</code>. A run which is stopped
+ * before it finishes (e.g. by fail-fast) ends with runAborted, written when the listener is closed.
+ * <p/>
+ * Each line is encoded into one reusable buffer and written with a single write, so that it is visible to readers
+ * immediately, and lines from concurrent tests are never interleaved.
+ */
+public class JsonLinesRunListener extends RunListener implements Closeable {
+
+    private static final int INITIAL_BUFFER_SIZE = 512;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final OutputStream out;
+    private final long epochNanosAtStart;
+    private final long nanoTimeAtStart;
+    private final Map<Description, Long> startTimes = Maps.newHashMap();
+
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private int position;
+    private boolean finished;
+    private boolean closed;
+
+    /**
+     * @param eventFile file or named pipe to append events to
+     * @throws IOException if the file could not be opened
+     */
+    public JsonLinesRunListener(File eventFile) throws IOException {
+        this(new FileOutputStream(eventFile, true));
+    }
+
+    public JsonLinesRunListener(OutputStream out) {
+        this.out = out;
+        this.nanoTimeAtStart = System.nanoTime();
+        this.epochNanosAtStart = System.currentTimeMillis() * 1000000L;
+    }
+
+    @Override
+    public synchronized void testRunStarted(Description description) throws Exception {
+        startEvent("runStarted", EventClock.nanoTime());
+        field("testCount").value(description.testCount());
+        endEvent();
+    }
+
+    @Override
+    public synchronized void testStarted(Description description) throws Exception {
+        long now = EventClock.nanoTime();
+        startTimes.put(description, now);
+        startEvent("testStarted", now);
+        testFields(description);
+        endEvent();
+    }
+
+    @Override
+    public synchronized void testFailure(Failure failure) throws Exception {
+        failureEvent("testFailure", failure);
+    }
+
+    @Override
+    public synchronized void testAssumptionFailure(Failure failure) {
+        try {
+            failureEvent("testAssumptionFailure", failure);
+        } catch (IOException e) {
+            // RunListener does not allow this method to throw checked exceptions
+            throw new IllegalStateException("Could not write test event", e);
+        }
+    }
+
+    @Override
+    public synchronized void testIgnored(Description description) throws Exception {
+        startEvent("testIgnored", EventClock.nanoTime());
+        testFields(description);
+        endEvent();
+    }
+
+    @Override
+    public synchronized void testFinished(Description description) throws Exception {
+        long now = EventClock.nanoTime();
+        Long startTime = startTimes.remove(description);
+        startEvent("testFinished", now);
+        testFields(description);
+        if (startTime != null) {
+            field("durationNanos").value(now - startTime);
+        }
+        endEvent();
+    }
+
+    @Override
+    public synchronized void testRunFinished(Result result) throws Exception {
+        startEvent("runFinished", EventClock.nanoTime());
+        field("runCount").value(result.getRunCount());
+        field("failureCount").value(result.getFailureCount());
+        field("ignoreCount").value(result.getIgnoreCount());
+        field("durationNanos").value(result.getRunTime() * 1000000L);
+        endEvent();
+        finished = true;
+        close();
+    }
+
+    /**
+     * Close the file, first writing a runAborted event if the run did not finish.
+     *
+     * @throws IOException if the event could not be written, or the file could not be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (!finished) {
+                startEvent("runAborted", EventClock.nanoTime());
+                endEvent();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private void failureEvent(String event, Failure failure) throws IOException {
+        startEvent(event, EventClock.nanoTime());
+        testFields(failure.getDescription());
+        field("exception").value(failure.getException().getClass().getName());
+        if (failure.getMessage() != null) {
+            field("message").value(failure.getMessage());
+        }
+        endEvent();
+    }
+
+    private void startEvent(String event, long nanoTime) {
+        position = 0;
+        put('{');
+        putString("event");
+        put(':');
+        putString(event);
+        field("timeNanos").value(epochNanosAtStart + (nanoTime - nanoTimeAtStart));
+    }
+
+    private void testFields(Description description) {
+        field("class").value(description.getClassName());
+        if (description.getMethodName() != null) {
+            field("method").value(description.getMethodName());
+        }
+    }
+
+    private void endEvent() throws IOException {
+        put('}');
+        put('\n');
+        out.write(buffer, 0, position);
+        out.flush();
+    }
+
+    private JsonLinesRunListener field(String name) {
+        put(',');
+        putString(name);
+        put(':');
+        return this;
+    }
+
+    private void value(long value) {
+        if (value < 0) {
+            put('-');
+            value = -value;
+        }
+        // write the digits backwards from the end of the number
+        int digits = 1;
+        for (long remaining = value / 10; remaining > 0; remaining /= 10) {
+            digits++;
+        }
+        ensureCapacity(digits);
+        for (int i = position + digits - 1; i >= position; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        position += digits;
+    }
+
+    private void value(String value) {
+        putString(value);
+    }
+
+    /**
+     * Write a quoted, escaped JSON string, encoded as UTF-8.
+     */
+    private void putString(String value) {
+        // worst case is six bytes per character, for \\uXXXX escapes
+        ensureCapacity(value.length() * 6 + 2);
+        buffer[position++] = '"';
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                buffer[position++] = '\\';
+                buffer[position++] = (byte) c;
+            } else if (c == '\n') {
+                buffer[position++] = '\\';
+                buffer[position++] = 'n';
+            } else if (c == '\r') {
+                buffer[position++] = '\\';
+                buffer[position++] = 'r';
+            } else if (c == '\t') {
+                buffer[position++] = '\\';
+                buffer[position++] = 't';
+            } else if (c < 0x20) {
+                buffer[position++] = '\\';
+                buffer[position++] = 'u';
+                buffer[position++] = '0';
+                buffer[position++] = '0';
+                buffer[position++] = (byte) HEX_DIGITS[c >> 4];
+                buffer[position++] = (byte) HEX_DIGITS[c & 0xF];
+            } else if (c < 0x80) {
+                buffer[position++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xC0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                // unpaired, so cannot be encoded
+                buffer[position++] = '?';
+            } else {
+                buffer[position++] = (byte) (0xE0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        buffer[position++] = '"';
+    }
+
+    private void put(char c) {
+        ensureCapacity(1);
+        buffer[position++] = (byte) c;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (position + extra > buffer.length) {
+            byte[] grown = new byte[Math.max(buffer.length * 2, position + extra)];
+            System.arraycopy(buffer, 0, grown, 0, position);
+            buffer = grown;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package org.testpackage.reporting;
+
+import org.junit.runner.Description;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+/**
+ * Helpers shared by the listeners and summaries which report on tests and on the run.
+ */
+public class ReportingSupport {
+
+    private static final List<GarbageCollectorMXBean> GARBAGE_COLLECTORS = ManagementFactory.getGarbageCollectorMXBeans();
+
+    private ReportingSupport() {
+    }
+
+    /**
+     * @return the number of garbage collections so far, by all collectors
+     */
+    public static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean garbageCollector : GARBAGE_COLLECTORS) {
+            // -1 if the collector does not keep count
+            count += Math.max(0, garbageCollector.getCollectionCount());
+        }
+        return count;
+    }
+
+    /**
+     * @return the time spent in garbage collection so far, by all collectors, in milliseconds
+     */
+    public static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean garbageCollector : GARBAGE_COLLECTORS) {
+            millis += Math.max(0, garbageCollector.getCollectionTime());
+        }
+        return millis;
+    }
+
+    /**
+     * @param description a test
+     * @return the test's name as shown in summaries, e.g. <code>SimpleTest.testTrue1</code>, or its display name if
+     * it has no test class
+     */
+    public static String shortName(Description description) {
+        if (description.getTestClass() == null) {
+            return description.getDisplayName();
+        }
+        return description.getTestClass().getSimpleName() + "." + description.getMethodName();
+    }
+}
@@ -0,0 +1,147 @@
+package org.testpackage.reporting;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.twitter.common.testing.runner.TestCaseAttributeSource;
+import org.junit.runner.Description;
+import org.junit.runner.Result;
+import org.junit.runner.notification.RunListener;
+import org.testpackage.junitcore.EventClock;
+
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.testpackage.reporting.ReportingSupport.shortName;
+
+/**
+ * Run listener which flags tests that took much longer than they usually do, i.e. longer than their historical 95th
+ * percentile duration multiplied by a factor. A test which suddenly slows down often points to a performance
+ * regression in the code under test.
+ * <p/>
+ * Flagged tests are marked in the XML report (as a {@link TestCaseAttributeSource}), and listed at the end of the run.
+ * Tests which have not run often enough to have a percentile, and tests which took less than
+ * {@link #MIN_FLAGGED_MILLIS}, where timing noise outweighs any regression, are never flagged.
+ */
+public class SlowTestRunListener extends RunListener implements TestCaseAttributeSource {
+
+    public static final double PERCENTILE = 95;
+    static final long MIN_FLAGGED_MILLIS = 100;
+
+    /**
+     * A test which took longer than expected.
+     */
+    public static class SlowTest {
+        private final Description description;
+        private final long durationMillis;
+        private final long percentileMillis;
+
+        SlowTest(Description description, long durationMillis, long percentileMillis) {
+            this.description = description;
+            this.durationMillis = durationMillis;
+            this.percentileMillis = percentileMillis;
+        }
+
+        public Description getDescription() {
+            return description;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        /**
+         * @return the test's historical 95th percentile duration
+         */
+        public long getPercentileMillis() {
+            return percentileMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d ms, p95 %d ms (%.1fx)", durationMillis, percentileMillis,
+                    durationMillis / (double) Math.max(1, percentileMillis));
+        }
+    }
+
+    private final Map<String, Long> percentiles;
+    private final double factor;
+    private final PrintStream out;
+
+    private final ConcurrentMap<Description, Long> startTimes = Maps.newConcurrentMap();
+    private final ConcurrentMap<Description, SlowTest> unreported = Maps.newConcurrentMap();
+    private final List<SlowTest> slowTests = Collections.synchronizedList(Lists.<SlowTest>newArrayList());
+
+    /**
+     * @param percentiles each test's historical 95th percentile duration in milliseconds, by display name, as given
+     *                    by TestHistoryRepository#getDurationPercentiles(double)
+     * @param factor      how many times longer than its 95th percentile a test must take to be flagged
+     * @param out         where to print the flagged tests at the end of the run
+     */
+    public SlowTestRunListener(Map<String, Long> percentiles, double factor, PrintStream out) {
+        this.percentiles = percentiles;
+        this.factor = factor;
+        this.out = out;
+    }
+
+    @Override
+    public void testStarted(Description description) throws Exception {
+        startTimes.put(description, EventClock.nanoTime());
+    }
+
+    @Override
+    public void testFinished(Description description) throws Exception {
+        Long startTime = startTimes.remove(description);
+        Long percentileMillis = percentiles.get(description.getDisplayName());
+        if (startTime == null || percentileMillis == null) {
+            return;
+        }
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis(EventClock.nanoTime() - startTime);
+        if (durationMillis >= MIN_FLAGGED_MILLIS && durationMillis > factor * percentileMillis) {
+            SlowTest slowTest = new SlowTest(description, durationMillis, percentileMillis);
+            unreported.put(description, slowTest);
+            slowTests.add(slowTest);
+        }
+    }
+
+    @Override
+    public Map<String, String> attributesFor(Description test) {
+        SlowTest slowTest = unreported.remove(test);
+        if (slowTest == null) {
+            return Collections.emptyMap();
+        }
+        return ImmutableMap.of(
+                "slow", "true",
+                "p95Time", String.format("%f", slowTest.percentileMillis / 1000.0));
+    }
+
+    @Override
+    public void testRunFinished(Result result) throws Exception {
+        List<SlowTest> all = getSlowTests();
+        if (all.isEmpty()) {
+            return;
+        }
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format("\n*** Slow tests (more than %.1fx their p95 duration):\n", factor));
+        for (SlowTest slowTest : all) {
+            Description description = slowTest.description;
+            String name = shortName(description);
+            summary.append("    ").append(name).append(": ").append(slowTest).append('\n');
+        }
+        out.print(summary);
+        out.flush();
+    }
+
+    /**
+     * @return the tests flagged so far, in the order they finished
+     */
+    public List<SlowTest> getSlowTests() {
+        synchronized (slowTests) {
+            return Lists.newArrayList(slowTests);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package org.testpackage.reporting;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import com.twitter.common.testing.runner.TestCaseAttributeSource;
+import org.junit.runner.Description;
+import org.junit.runner.Result;
+import org.junit.runner.notification.RunListener;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.testpackage.reporting.ReportingSupport.gcCount;
+import static org.testpackage.reporting.ReportingSupport.gcMillis;
+import static org.testpackage.reporting.ReportingSupport.shortName;
+
+/**
+ * Run listener which measures, for each test, the CPU time used and the bytes allocated by the thread running it, the
+ * garbage collections while it ran, and the peak number of live threads. The measurements are added to the test's
+ * element in the XML report (as a {@link TestCaseAttributeSource}), and the tests which used the most CPU time and
+ * allocated the most are listed at the end of the run.
+ * <p/>
+ * CPU time and allocation are measured for the test's own thread, so are accurate however many tests run at once,
+ * as long as tests do not do their work on other threads. Garbage collections and thread counts are for the whole
+ * JVM, so overlap between tests which run at the same time. Allocation is only measured on JVMs which support it
+ * (i.e. HotSpot), and is otherwise reported as -1.
+ * <p/>
+ * This listener must be notified on the test's own thread, before the XML report listener.
+ */
+public class TestMetricsRunListener extends RunListener implements TestCaseAttributeSource {
+
+    private static final int SUMMARY_SIZE = 5;
+
+    /**
+     * The measurements of one test.
+     */
+    public static class TestMetrics {
+        private final Description description;
+        private final long cpuNanos;
+        private final long allocatedBytes;
+        private final long gcCount;
+        private final long gcMillis;
+        private final int peakThreads;
+
+        TestMetrics(Description description, long cpuNanos, long allocatedBytes, long gcCount, long gcMillis, int peakThreads) {
+            this.description = description;
+            this.cpuNanos = cpuNanos;
+            this.allocatedBytes = allocatedBytes;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+            this.peakThreads = peakThreads;
+        }
+
+        public Description getDescription() {
+            return description;
+        }
+
+        public long getCpuNanos() {
+            return cpuNanos;
+        }
+
+        /**
+         * @return bytes allocated by the test's thread, or -1 if this JVM cannot measure it
+         */
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        public long getGcCount() {
+            return gcCount;
+        }
+
+        public long getGcMillis() {
+            return gcMillis;
+        }
+
+        public int getPeakThreads() {
+            return peakThreads;
+        }
+
+        @Override
+        public String toString() {
+            String allocated = allocatedBytes < 0 ? "unknown" : String.format("%.1f MB", allocatedBytes / (1024.0 * 1024.0));
+            return String.format("cpu %d ms, allocated %s, %d GCs (%d ms), peak %d threads",
+                    TimeUnit.NANOSECONDS.toMillis(cpuNanos), allocated, gcCount, gcMillis, peakThreads);
+        }
+    }
+
+    /**
+     * Measurements taken when a test started.
+     */
+    private static class Start {
+        private final long cpuNanos;
+        private final long allocatedBytes;
+        private final long gcCount;
+        private final long gcMillis;
+
+        Start(long cpuNanos, long allocatedBytes, long gcCount, long gcMillis) {
+            this.cpuNanos = cpuNanos;
+            this.allocatedBytes = allocatedBytes;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+        }
+    }
+
+    private static final Ordering<TestMetrics> BY_CPU = new Ordering<TestMetrics>() {
+        @Override
+        public int compare(TestMetrics left, TestMetrics right) {
+            return left.cpuNanos < right.cpuNanos ? -1 : (left.cpuNanos == right.cpuNanos ? 0 : 1);
+        }
+    };
+
+    private static final Ordering<TestMetrics> BY_ALLOCATION = new Ordering<TestMetrics>() {
+        @Override
+        public int compare(TestMetrics left, TestMetrics right) {
+            return left.allocatedBytes < right.allocatedBytes ? -1 : (left.allocatedBytes == right.allocatedBytes ? 0 : 1);
+        }
+    };
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final Method getThreadAllocatedBytes;
+    private final boolean cpuTimeSupported;
+    private final PrintStream out;
+
+    private final ConcurrentMap<Description, Start> started = Maps.newConcurrentMap();
+    private final ConcurrentMap<Description, TestMetrics> unreported = Maps.newConcurrentMap();
+    private final List<TestMetrics> finished = Collections.synchronizedList(Lists.<TestMetrics>newArrayList());
+
+    /**
+     * @param out where to print the summary at the end of the run
+     */
+    public TestMetricsRunListener(PrintStream out) {
+        this.out = out;
+        this.cpuTimeSupported = threads.isCurrentThreadCpuTimeSupported();
+        if (cpuTimeSupported && !threads.isThreadCpuTimeEnabled()) {
+            threads.setThreadCpuTimeEnabled(true);
+        }
+        this.getThreadAllocatedBytes = allocatedBytesMethod(threads);
+    }
+
+    /**
+     * @return com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long), if this JVM has it and it is enabled
+     */
+    private static Method allocatedBytesMethod(ThreadMXBean threads) {
+        try {
+            Class<?> hotSpotThreadMXBean = Class.forName("com.sun.management.ThreadMXBean");
+            if (!hotSpotThreadMXBean.isInstance(threads)) {
+                return null;
+            }
+            boolean supported = (Boolean) hotSpotThreadMXBean.getMethod("isThreadAllocatedMemorySupported").invoke(threads);
+            boolean enabled = (Boolean) hotSpotThreadMXBean.getMethod("isThreadAllocatedMemoryEnabled").invoke(threads);
+            if (!supported || !enabled) {
+                return null;
+            }
+            return hotSpotThreadMXBean.getMethod("getThreadAllocatedBytes", long.class);
+        } catch (Exception e) {
+            // not a HotSpot JVM
+            return null;
+        }
+    }
+
+    @Override
+    public void testStarted(Description description) throws Exception {
+        threads.resetPeakThreadCount();
+        started.put(description, new Start(cpuNanos(), allocatedBytes(), gcCount(), gcMillis()));
+    }
+
+    @Override
+    public void testFinished(Description description) throws Exception {
+        long cpuNanos = cpuNanos();
+        long allocatedBytes = allocatedBytes();
+        Start start = started.remove(description);
+        if (start == null) {
+            return;
+        }
+        TestMetrics metrics = new TestMetrics(description,
+                cpuNanos - start.cpuNanos,
+                allocatedBytes < 0 ? -1 : allocatedBytes - start.allocatedBytes,
+                gcCount() - start.gcCount,
+                gcMillis() - start.gcMillis,
+                threads.getPeakThreadCount());
+        unreported.put(description, metrics);
+        finished.add(metrics);
+    }
+
+    @Override
+    public Map<String, String> attributesFor(Description test) {
+        TestMetrics metrics = unreported.remove(test);
+        if (metrics == null) {
+            return Collections.emptyMap();
+        }
+        return ImmutableMap.<String, String>builder()
+                .put("cpuTime", seconds(metrics.cpuNanos))
+                .put("allocatedBytes", String.valueOf(metrics.allocatedBytes))
+                .put("gcCount", String.valueOf(metrics.gcCount))
+                .put("gcTime", seconds(TimeUnit.MILLISECONDS.toNanos(metrics.gcMillis)))
+                .put("peakThreads", String.valueOf(metrics.peakThreads))
+                .build();
+    }
+
+    @Override
+    public void testRunFinished(Result result) throws Exception {
+        List<TestMetrics> all;
+        synchronized (finished) {
+            all = Lists.newArrayList(finished);
+        }
+        if (all.isEmpty()) {
+            return;
+        }
+        StringBuilder summary = new StringBuilder();
+        appendTop(summary, "CPU time", BY_CPU.greatestOf(all, SUMMARY_SIZE));
+        if (getThreadAllocatedBytes != null) {
+            appendTop(summary, "allocation", BY_ALLOCATION.greatestOf(all, SUMMARY_SIZE));
+        }
+        out.print(summary);
+        out.flush();
+    }
+
+    /**
+     * @return the measurements of every test which has finished so far
+     */
+    public List<TestMetrics> getMetrics() {
+        synchronized (finished) {
+            return Lists.newArrayList(finished);
+        }
+    }
+
+    private static void appendTop(StringBuilder summary, String measure, List<TestMetrics> top) {
+        summary.append("\n*** Top tests by ").append(measure).append(":\n");
+        for (TestMetrics metrics : top) {
+            Description description = metrics.description;
+            String name = shortName(description);
+            summary.append("    ").append(name).append(": ").append(metrics).append('\n');
+        }
+    }
+
+    private long cpuNanos() {
+        return cpuTimeSupported ? threads.getCurrentThreadCpuTime() : 0;
+    }
+
+    private long allocatedBytes() {
+        if (getThreadAllocatedBytes == null) {
+            return -1;
+        }
+        try {
+            return (Long) getThreadAllocatedBytes.invoke(threads, Thread.currentThread().getId());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private static String seconds(long nanos) {
+        return String.format("%f", nanos / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+}
@@ -0,0 +1,81 @@
+package org.testpackage.sequencing;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.reflect.ClassPath;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of the top level classes on the classpath, grouped by package name.
+ * <p/>
+ * Scanning the classpath means walking every entry of every JAR and directory on it, so this is done once and
+ * the resulting index is used to look up as many packages as needed.
+ */
+public class ClassPathIndex {
+
+    private final ListMultimap<String, String> classNamesByPackage;
+
+    private ClassPathIndex(ListMultimap<String, String> classNamesByPackage) {
+        this.classNamesByPackage = classNamesByPackage;
+    }
+
+    /**
+     * Scan the classpath of a class loader.
+     *
+     * @param classLoader the class loader whose classpath should be scanned
+     * @return an index of all top level classes visible to the class loader
+     * @throws IOException if the classpath could not be read
+     */
+    public static ClassPathIndex scan(ClassLoader classLoader) throws IOException {
+        ImmutableListMultimap.Builder<String, String> builder = ImmutableListMultimap.builder();
+        for (ClassPath.ClassInfo classInfo : ClassPath.from(scannableClassLoader(classLoader)).getTopLevelClasses()) {
+            builder.put(classInfo.getPackageName(), classInfo.getName());
+        }
+        return new ClassPathIndex(builder.build());
+    }
+
+    /**
+     * Guava only finds the classpath of URLClassLoaders, and from Java 9 the application class loader is not one, so
+     * its classpath is scanned through a URLClassLoader of its own.
+     */
+    private static ClassLoader scannableClassLoader(ClassLoader classLoader) throws IOException {
+        if (classLoader instanceof URLClassLoader || classLoader != ClassLoader.getSystemClassLoader()) {
+            return classLoader;
+        }
+        List<URL> urls = Lists.newArrayList();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            urls.add(new File(entry).toURI().toURL());
+        }
+        // the loader is only used to find the classpath, so nothing is loaded from it
+        return new URLClassLoader(urls.toArray(new URL[urls.size()]), null);
+    }
+
+    /**
+     * @param packageName a Java package name
+     * @param recursive   whether classes in sub-packages of the package should be included
+     * @return fully qualified names of the top level classes in the package
+     */
+    public List<String> getTopLevelClassNames(String packageName, boolean recursive) {
+        if (!recursive) {
+            return classNamesByPackage.get(packageName);
+        }
+
+        ImmutableList.Builder<String> classNames = ImmutableList.builder();
+        String subPackagePrefix = packageName + ".";
+        for (Map.Entry<String, Collection<String>> entry : classNamesByPackage.asMap().entrySet()) {
+            if (entry.getKey().equals(packageName) || entry.getKey().startsWith(subPackagePrefix)) {
+                classNames.addAll(entry.getValue());
+            }
+        }
+        return classNames.build();
+    }
+}
@@ -0,0 +1,174 @@
+package org.testpackage.sequencing;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compact, rolling estimate of the distribution of a test's durations, from which percentiles can be read.
+ * <p/>
+ * Durations are counted in logarithmic buckets, each {@link #GAMMA} times wider than the last, so percentiles are
+ * accurate to within 10% whatever the scale of the durations. Every time a duration is added, the existing counts
+ * are scaled down by {@link #DECAY}, so the distribution reflects roughly the last 20 runs, and buckets whose counts
+ * have decayed to nothing are dropped. A test whose duration is stable needs only a few buckets.
+ */
+class DurationSketch {
+
+    private static final double GAMMA = 1.1;
+    private static final double DECAY = 0.95;
+    private static final float NEGLIGIBLE_WEIGHT = 0.01f;
+    private static final int MAX_BUCKET = Short.MAX_VALUE;
+
+    /*
+     * Parallel arrays of bucket indexes, in ascending order, and their decayed counts
+     */
+    private short[] buckets = new short[0];
+    private float[] weights = new float[0];
+    private int samples;
+
+    DurationSketch() {
+    }
+
+    DurationSketch(DurationSketch other) {
+        this.buckets = other.buckets.clone();
+        this.weights = other.weights.clone();
+        this.samples = other.samples;
+    }
+
+    /**
+     * @param durationMillis the latest duration
+     */
+    void add(long durationMillis) {
+        int size = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            float weight = (float) (weights[i] * DECAY);
+            if (weight >= NEGLIGIBLE_WEIGHT) {
+                buckets[size] = buckets[i];
+                weights[size] = weight;
+                size++;
+            }
+        }
+        if (size < buckets.length) {
+            buckets = Arrays.copyOf(buckets, size);
+            weights = Arrays.copyOf(weights, size);
+        }
+        addWeight(bucketFor(durationMillis), 1);
+        samples = samples == Integer.MAX_VALUE ? samples : samples + 1;
+    }
+
+    /**
+     * Add in another sketch's counts, e.g. one from another history file, without decaying either.
+     */
+    void merge(DurationSketch other) {
+        for (int i = 0; i < other.buckets.length; i++) {
+            addWeight(other.buckets[i], other.weights[i]);
+        }
+        samples = (int) Math.min(Integer.MAX_VALUE, (long) samples + other.samples);
+    }
+
+    /**
+     * @return how many durations have been added, including those which have since decayed away
+     */
+    int getSamples() {
+        return samples;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return an upper bound on the given percentile of recent durations, in milliseconds, or -1 if there are none
+     */
+    long percentile(double percentile) {
+        double total = 0;
+        for (float weight : weights) {
+            total += weight;
+        }
+        if (total == 0) {
+            return -1;
+        }
+        double target = total * percentile / 100;
+        double cumulative = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            cumulative += weights[i];
+            if (cumulative >= target) {
+                return upperBound(buckets[i]);
+            }
+        }
+        return upperBound(buckets[buckets.length - 1]);
+    }
+
+    /**
+     * @return the number of bytes {@link #writeTo(ByteBuffer)} will write
+     */
+    int serializedLength() {
+        return 8 + 6 * buckets.length;
+    }
+
+    void writeTo(ByteBuffer buffer) {
+        buffer.putInt(samples).putInt(buckets.length);
+        for (int i = 0; i < buckets.length; i++) {
+            buffer.putShort(buckets[i]).putFloat(weights[i]);
+        }
+    }
+
+    /**
+     * @return the sketch, or null if the buffer does not hold a whole, valid sketch; the buffer's position is only
+     * moved past the sketch if it is valid
+     */
+    static DurationSketch readFrom(ByteBuffer buffer) {
+        if (buffer.remaining() < 8) {
+            return null;
+        }
+        int start = buffer.position();
+        int samples = buffer.getInt();
+        int size = buffer.getInt();
+        if (size < 0 || buffer.remaining() < 6L * size) {
+            buffer.position(start);
+            return null;
+        }
+        DurationSketch sketch = new DurationSketch();
+        sketch.samples = samples;
+        sketch.buckets = new short[size];
+        sketch.weights = new float[size];
+        for (int i = 0; i < size; i++) {
+            sketch.buckets[i] = buffer.getShort();
+            sketch.weights[i] = buffer.getFloat();
+        }
+        return sketch;
+    }
+
+    private void addWeight(short bucket, float weight) {
+        int index = Arrays.binarySearch(buckets, bucket);
+        if (index >= 0) {
+            weights[index] += weight;
+            return;
+        }
+        int insertion = -index - 1;
+        short[] newBuckets = new short[buckets.length + 1];
+        float[] newWeights = new float[weights.length + 1];
+        System.arraycopy(buckets, 0, newBuckets, 0, insertion);
+        System.arraycopy(weights, 0, newWeights, 0, insertion);
+        newBuckets[insertion] = bucket;
+        newWeights[insertion] = weight;
+        System.arraycopy(buckets, insertion, newBuckets, insertion + 1, buckets.length - insertion);
+        System.arraycopy(weights, insertion, newWeights, insertion + 1, weights.length - insertion);
+        buckets = newBuckets;
+        weights = newWeights;
+    }
+
+    /**
+     * Bucket 0 holds durations of 0ms, and bucket n > 0 durations in (GAMMA^(n-2), GAMMA^(n-1)].
+     */
+    private static short bucketFor(long durationMillis) {
+        if (durationMillis <= 0) {
+            return 0;
+        }
+        double bucket = Math.ceil(Math.log(durationMillis) / Math.log(GAMMA)) + 1;
+        return (short) Math.min(MAX_BUCKET, Math.max(1, bucket));
+    }
+
+    private static long upperBound(short bucket) {
+        if (bucket == 0) {
+            return 0;
+        }
+        return (long) Math.ceil(Math.pow(GAMMA, bucket - 1));
+    }
+}
@@ -0,0 +1,697 @@
+package org.testpackage.sequencing;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.LinkedListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import com.google.common.io.LineProcessor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Append-only binary file behind {@link TestHistoryRepository}, which may be shared by several TestPackage processes
+ * at once.
+ * <p/>
+ * The file starts with a magic number and a generation number, followed by a log of records. Descriptions are
+ * dictionary encoded: each is written once in a DEFINE record, and referred to by a numeric id from then on.
+ * Failures are written as they happen, so that a run which is killed part way through still leaves its failures
+ * behind; durations are buffered and written with the next failure, and the end of each run is marked by a RUN_END
+ * record. Each duration is also written unsmoothed in a SAMPLE record, from which a {@link DurationSketch} of the
+ * description's recent durations is built. Tests which only passed when retried are written in FLAKY records, and
+ * counted like failures, in runs since they were last flaky. The log is compacted into one STATE record, one SKETCH
+ * record and one FLAKY_STATE record per description once it has grown large relative to the number of descriptions.
+ * <p/>
+ * Writers hold an exclusive lock on a <code>.lock</code> file next to the history file. Under the lock, a writer
+ * first replays anything other processes have appended since it last looked (or the whole file, if another process
+ * has compacted it, which changes the generation number), and then appends its own records, so no process
+ * overwrites another's results. Readers do not need the lock: appends never change existing records, compaction
+ * replaces the file with a rename, and a torn record at the end of the file is ignored when reading, and
+ * overwritten by the next append.
+ * <p/>
+ * Files in the older text format, where each line holds a description, its runs since last failure (or '-' if it
+ * has never failed) and optionally its smoothed duration in milliseconds, separated by four spaces, are read, and
+ * converted on the first write.
+ */
+class HistoryStore {
+
+    private static final Logger LOGGER = Logger.getLogger(HistoryStore.class.getSimpleName());
+
+    private static final int MAGIC = 0x54504832; // "TPH2"
+    private static final int HEADER_LENGTH = 12;
+
+    private static final byte DEFINE = 1;
+    private static final byte FAILURE = 2;
+    private static final byte DURATION = 3;
+    private static final byte STATE = 4;
+    private static final byte RUN_END = 5;
+    private static final byte SAMPLE = 6;
+    private static final byte SKETCH = 7;
+    private static final byte FLAKY = 8;
+    private static final byte FLAKY_STATE = 9;
+
+    static final int FAILURE_JUST_NOW = -1;
+    private static final int NO_FAILURE = Integer.MIN_VALUE;
+    private static final long NO_DURATION = -1;
+    private static final String LEGACY_NEVER_FAILED = "-";
+
+    /**
+     * Compact once the log holds this many times more records than there are descriptions (plus some slack, so
+     * that small histories are not compacted on every run).
+     */
+    private static final int COMPACTION_RATIO = 4;
+    private static final int COMPACTION_SLACK = 1024;
+
+    /*
+     * File locks are held per JVM, so threads within this JVM also have to take turns.
+     */
+    private static final Object JVM_LOCK = new Object();
+    private static final Random GENERATIONS = new Random();
+
+    private final File file;
+    private final File lockFile;
+
+    private final Map<String, Integer> runsSinceLastFailures = Maps.newHashMap();
+    private final Map<String, Integer> runsSinceLastFlaky = Maps.newHashMap();
+    private final Map<String, Long> durations = Maps.newHashMap();
+    private final Map<String, DurationSketch> sketches = Maps.newHashMap();
+
+    private final Map<String, Integer> ids = Maps.newHashMap();
+    private final List<String> descriptions = Lists.newArrayList();
+    private long generation;
+    private long validLength;
+    private int logRecords;
+
+    private final Set<String> pendingFailures = Sets.newLinkedHashSet();
+    private final Set<String> pendingFlaky = Sets.newLinkedHashSet();
+    private final Map<String, Long> pendingDurations = Maps.newLinkedHashMap();
+    private final ListMultimap<String, Long> pendingSamples = LinkedListMultimap.create();
+
+    HistoryStore(File file) {
+        this.file = file;
+        this.lockFile = new File(file.getPath() + ".lock");
+    }
+
+    /**
+     * Read the file, if it exists, without taking the lock.
+     */
+    void load() throws IOException {
+        reset();
+        if (isBinary()) {
+            replay();
+        } else if (file.exists()) {
+            readLegacy();
+        }
+    }
+
+    /**
+     * @return the live map of descriptions to runs since last failure, including changes not yet written
+     */
+    Map<String, Integer> getRunsSinceLastFailures() {
+        return runsSinceLastFailures;
+    }
+
+    /**
+     * @return the live map of descriptions to runs since they last passed only when retried, including changes not yet
+     * written
+     */
+    Map<String, Integer> getRunsSinceLastFlaky() {
+        return runsSinceLastFlaky;
+    }
+
+    /**
+     * @return the live map of descriptions to smoothed durations, including changes not yet written
+     */
+    Map<String, Long> getDurations() {
+        return durations;
+    }
+
+    /**
+     * @return the live map of descriptions to sketches of their recent durations, as of the last read or write of the
+     * file; samples not yet written are not included
+     */
+    Map<String, DurationSketch> getSketches() {
+        return sketches;
+    }
+
+    void markFailure(String description) {
+        runsSinceLastFailures.put(description, FAILURE_JUST_NOW);
+        pendingFailures.add(description);
+    }
+
+    void markFlaky(String description) {
+        runsSinceLastFlaky.put(description, FAILURE_JUST_NOW);
+        pendingFlaky.add(description);
+    }
+
+    void recordDuration(String description, long duration) {
+        durations.put(description, duration);
+        pendingDurations.put(description, duration);
+    }
+
+    void recordSample(String description, long durationMillis) {
+        pendingSamples.put(description, durationMillis);
+    }
+
+    /**
+     * Write any pending failures and durations to the file, merging in anything written by other processes.
+     *
+     * @param endOfRun whether to also mark the end of a run, incrementing every runs since last failure count
+     */
+    void flush(boolean endOfRun) throws IOException {
+        synchronized (JVM_LOCK) {
+            Files.createParentDirs(file);
+            RandomAccessFile lock = new RandomAccessFile(lockFile, "rw");
+            try {
+                FileLock fileLock = lock.getChannel().lock();
+                try {
+                    if (!isBinary()) {
+                        // new, deleted or legacy text file: start again from whatever it holds, plus our changes
+                        load();
+                        reapplyPending();
+                        writeSnapshot();
+                    } else {
+                        catchUp();
+                    }
+                    appendPending(endOfRun);
+
+                    if (endOfRun && logRecords > COMPACTION_RATIO * descriptions.size() + COMPACTION_SLACK) {
+                        try {
+                            writeSnapshot();
+                        } catch (IOException e) {
+                            // The uncompacted log is still complete, so just try again next time
+                            LOGGER.warning("Could not compact history file " + file + ": " + e);
+                        }
+                    }
+                } finally {
+                    fileLock.release();
+                }
+            } finally {
+                lock.close();
+            }
+        }
+    }
+
+    /**
+     * Replace the whole file with the given state, e.g. the result of merging several history files.
+     */
+    void replace(Map<String, Integer> runsSinceLastFailures, Map<String, Long> durations,
+                 Map<String, DurationSketch> sketches, Map<String, Integer> runsSinceLastFlaky) throws IOException {
+        synchronized (JVM_LOCK) {
+            Files.createParentDirs(file);
+            RandomAccessFile lock = new RandomAccessFile(lockFile, "rw");
+            try {
+                FileLock fileLock = lock.getChannel().lock();
+                try {
+                    reset();
+                    pendingFailures.clear();
+                    pendingFlaky.clear();
+                    pendingDurations.clear();
+                    pendingSamples.clear();
+                    this.runsSinceLastFailures.putAll(runsSinceLastFailures);
+                    this.runsSinceLastFlaky.putAll(runsSinceLastFlaky);
+                    this.durations.putAll(durations);
+                    this.sketches.putAll(sketches);
+                    writeSnapshot();
+                } finally {
+                    fileLock.release();
+                }
+            } finally {
+                lock.close();
+            }
+        }
+    }
+
+    private boolean isBinary() throws IOException {
+        if (file.length() < HEADER_LENGTH) {
+            return false;
+        }
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            return randomAccessFile.readInt() == MAGIC;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private void reset() {
+        runsSinceLastFailures.clear();
+        runsSinceLastFlaky.clear();
+        durations.clear();
+        sketches.clear();
+        ids.clear();
+        descriptions.clear();
+        generation = 0;
+        validLength = 0;
+        logRecords = 0;
+    }
+
+    /**
+     * Bring the in-memory state up to date with the file, which must be in the binary format.
+     */
+    private void catchUp() throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            randomAccessFile.readInt(); // magic
+            if (randomAccessFile.readLong() != generation) {
+                // another process has compacted or replaced the file since we read it
+                load();
+                reapplyPending();
+                return;
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+        replay();
+        reapplyPending();
+    }
+
+    private void reapplyPending() {
+        for (String description : pendingFailures) {
+            runsSinceLastFailures.put(description, FAILURE_JUST_NOW);
+        }
+        for (String description : pendingFlaky) {
+            runsSinceLastFlaky.put(description, FAILURE_JUST_NOW);
+        }
+        durations.putAll(pendingDurations);
+    }
+
+    /**
+     * Replay the log from where we last stopped reading.
+     */
+    private void replay() throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel readChannel = randomAccessFile.getChannel();
+            MappedByteBuffer buffer = readChannel.map(FileChannel.MapMode.READ_ONLY, 0, readChannel.size());
+            if (validLength == 0) {
+                buffer.getInt(); // magic
+                generation = buffer.getLong();
+                validLength = buffer.position();
+            }
+
+            buffer.position((int) validLength);
+            while (buffer.hasRemaining()) {
+                if (!readRecord(buffer)) {
+                    // torn write at the end of the file
+                    break;
+                }
+                validLength = buffer.position();
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private boolean readRecord(ByteBuffer buffer) {
+        byte type = buffer.get();
+        switch (type) {
+            case DEFINE:
+                if (buffer.remaining() < 8) {
+                    return false;
+                }
+                int id = buffer.getInt();
+                int length = buffer.getInt();
+                if (buffer.remaining() < length || id != descriptions.size()) {
+                    return false;
+                }
+                byte[] bytes = new byte[length];
+                buffer.get(bytes);
+                String description = new String(bytes, Charsets.UTF_8);
+                ids.put(description, id);
+                descriptions.add(description);
+                return true;
+            case FAILURE:
+                if (buffer.remaining() < 4 || !isDefined(buffer.getInt(buffer.position()))) {
+                    return false;
+                }
+                runsSinceLastFailures.put(descriptions.get(buffer.getInt()), FAILURE_JUST_NOW);
+                logRecords++;
+                return true;
+            case DURATION:
+                if (buffer.remaining() < 12 || !isDefined(buffer.getInt(buffer.position()))) {
+                    return false;
+                }
+                durations.put(descriptions.get(buffer.getInt()), buffer.getLong());
+                logRecords++;
+                return true;
+            case STATE:
+                if (buffer.remaining() < 16 || !isDefined(buffer.getInt(buffer.position()))) {
+                    return false;
+                }
+                String stateDescription = descriptions.get(buffer.getInt());
+                int runsSinceLastFailure = buffer.getInt();
+                long duration = buffer.getLong();
+                if (runsSinceLastFailure != NO_FAILURE) {
+                    runsSinceLastFailures.put(stateDescription, runsSinceLastFailure);
+                }
+                if (duration != NO_DURATION) {
+                    durations.put(stateDescription, duration);
+                }
+                return true;
+            case SAMPLE:
+                if (buffer.remaining() < 12 || !isDefined(buffer.getInt(buffer.position()))) {
+                    return false;
+                }
+                sketchFor(descriptions.get(buffer.getInt())).add(buffer.getLong());
+                logRecords++;
+                return true;
+            case SKETCH:
+                if (buffer.remaining() < 4 || !isDefined(buffer.getInt(buffer.position()))) {
+                    return false;
+                }
+                String sketchDescription = descriptions.get(buffer.getInt());
+                DurationSketch sketch = DurationSketch.readFrom(buffer);
+                if (sketch == null) {
+                    return false;
+                }
+                sketches.put(sketchDescription, sketch);
+                return true;
+            case FLAKY:
+                if (buffer.remaining() < 4 || !isDefined(buffer.getInt(buffer.position()))) {
+                    return false;
+                }
+                runsSinceLastFlaky.put(descriptions.get(buffer.getInt()), FAILURE_JUST_NOW);
+                logRecords++;
+                return true;
+            case FLAKY_STATE:
+                if (buffer.remaining() < 8 || !isDefined(buffer.getInt(buffer.position()))) {
+                    return false;
+                }
+                runsSinceLastFlaky.put(descriptions.get(buffer.getInt()), buffer.getInt());
+                return true;
+            case RUN_END:
+                incrementRunCounts();
+                logRecords++;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private DurationSketch sketchFor(String description) {
+        DurationSketch sketch = sketches.get(description);
+        if (sketch == null) {
+            sketch = new DurationSketch();
+            sketches.put(description, sketch);
+        }
+        return sketch;
+    }
+
+    private boolean isDefined(int id) {
+        return id >= 0 && id < descriptions.size();
+    }
+
+    private void incrementRunCounts() {
+        for (Map.Entry<String, Integer> entry : runsSinceLastFailures.entrySet()) {
+            entry.setValue(entry.getValue() + 1);
+        }
+        for (Map.Entry<String, Integer> entry : runsSinceLastFlaky.entrySet()) {
+            entry.setValue(entry.getValue() + 1);
+        }
+    }
+
+    private void readLegacy() throws IOException {
+        Files.readLines(file, Charsets.UTF_8, new LineProcessor<Void>() {
+
+            @Override
+            public boolean processLine(String line) throws IOException {
+                String[] splitLine = line.split("\\s{4}");
+                String description = splitLine[0];
+                String runsSinceLastFailure = splitLine[1];
+
+                if (!runsSinceLastFailure.equals(LEGACY_NEVER_FAILED)) {
+                    runsSinceLastFailures.put(description, Integer.valueOf(runsSinceLastFailure));
+                }
+                if (splitLine.length > 2) {
+                    durations.put(description, Long.valueOf(splitLine[2]));
+                }
+                return true;
+            }
+
+            @Override
+            public Void getResult() {
+                return null;
+            }
+        });
+    }
+
+    private void appendPending(boolean endOfRun) throws IOException {
+        RecordWriter writer = new RecordWriter(false);
+        for (String description : pendingFailures) {
+            writer.putFailure(description);
+        }
+        for (String description : pendingFlaky) {
+            writer.putFlaky(description);
+        }
+        for (Map.Entry<String, Long> pendingDuration : pendingDurations.entrySet()) {
+            writer.putDuration(pendingDuration.getKey(), pendingDuration.getValue());
+        }
+        for (Map.Entry<String, Long> pendingSample : pendingSamples.entries()) {
+            writer.putSample(pendingSample.getKey(), pendingSample.getValue());
+        }
+        if (endOfRun) {
+            writer.putRunEnd();
+        }
+
+        if (writer.isEmpty()) {
+            return;
+        }
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            // discard any torn record left by a killed process
+            channel.truncate(validLength);
+            validLength += writer.writeTo(channel, validLength);
+        } finally {
+            randomAccessFile.close();
+        }
+
+        writer.commit();
+        for (Map.Entry<String, Long> pendingSample : pendingSamples.entries()) {
+            sketchFor(pendingSample.getKey()).add(pendingSample.getValue());
+        }
+        pendingFailures.clear();
+        pendingFlaky.clear();
+        pendingDurations.clear();
+        pendingSamples.clear();
+        if (endOfRun) {
+            incrementRunCounts();
+        }
+    }
+
+    /**
+     * Replace the file with a snapshot of the in-memory state, under a new generation number. The snapshot is written
+     * to a temporary file which is then renamed over the original, so that a crash during compaction leaves the
+     * original in place.
+     */
+    private void writeSnapshot() throws IOException {
+        long newGeneration = GENERATIONS.nextLong();
+
+        Map<String, Long> allDescriptions = Maps.newLinkedHashMap(durations);
+        for (String description : runsSinceLastFailures.keySet()) {
+            if (!allDescriptions.containsKey(description)) {
+                allDescriptions.put(description, NO_DURATION);
+            }
+        }
+        RecordWriter writer = new RecordWriter(true);
+        for (Map.Entry<String, Long> entry : allDescriptions.entrySet()) {
+            Integer runsSinceLastFailure = runsSinceLastFailures.get(entry.getKey());
+            writer.putState(entry.getKey(), runsSinceLastFailure == null ? NO_FAILURE : runsSinceLastFailure, entry.getValue());
+        }
+        // pending samples are folded into copies of the sketches, so that nothing changes if the snapshot fails
+        Map<String, DurationSketch> newSketches = Maps.newHashMap(sketches);
+        for (String description : pendingSamples.keySet()) {
+            DurationSketch sketch = sketches.containsKey(description) ?
+                    new DurationSketch(sketches.get(description)) : new DurationSketch();
+            for (Long sample : pendingSamples.get(description)) {
+                sketch.add(sample);
+            }
+            newSketches.put(description, sketch);
+        }
+        for (Map.Entry<String, DurationSketch> entry : newSketches.entrySet()) {
+            writer.putSketch(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, Integer> entry : runsSinceLastFlaky.entrySet()) {
+            writer.putFlakyState(entry.getKey(), entry.getValue());
+        }
+
+        File tempFile = new File(file.getPath() + ".tmp");
+        tempFile.delete();
+        RandomAccessFile randomAccessFile = new RandomAccessFile(tempFile, "rw");
+        long length;
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            header.putInt(MAGIC).putLong(newGeneration);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            length = HEADER_LENGTH + writer.writeTo(channel, HEADER_LENGTH);
+        } finally {
+            randomAccessFile.close();
+        }
+
+        if (!tempFile.renameTo(file)) {
+            // e.g. Windows will not rename over an existing file
+            if (!file.delete() || !tempFile.renameTo(file)) {
+                throw new IOException("Could not replace " + file + " with compacted history " + tempFile);
+            }
+        }
+
+        writer.commit();
+        generation = newGeneration;
+        validLength = length;
+        logRecords = 0;
+        sketches.clear();
+        sketches.putAll(newSketches);
+        pendingFailures.clear();
+        pendingFlaky.clear();
+        pendingDurations.clear();
+        pendingSamples.clear();
+    }
+
+    /**
+     * Encodes records, allocating ids for new descriptions. The ids only become part of the store's dictionary
+     * once the records have been written successfully.
+     */
+    private class RecordWriter {
+        private final boolean newDictionary;
+        private final List<ByteBuffer> records = Lists.newArrayList();
+        private final List<String> newDescriptions = Lists.newArrayList();
+        private final Map<String, Integer> newIds = Maps.newHashMap();
+        private int logRecordCount;
+
+        /**
+         * @param newDictionary true to start a new dictionary (for a snapshot), false to add to the existing one
+         */
+        RecordWriter(boolean newDictionary) {
+            this.newDictionary = newDictionary;
+        }
+
+        void putFailure(String description) {
+            int id = idFor(description);
+            ByteBuffer record = ByteBuffer.allocate(5);
+            record.put(FAILURE).putInt(id);
+            add(record);
+            logRecordCount++;
+        }
+
+        void putFlaky(String description) {
+            int id = idFor(description);
+            ByteBuffer record = ByteBuffer.allocate(5);
+            record.put(FLAKY).putInt(id);
+            add(record);
+            logRecordCount++;
+        }
+
+        void putFlakyState(String description, int runsSinceLastFlaky) {
+            int id = idFor(description);
+            ByteBuffer record = ByteBuffer.allocate(9);
+            record.put(FLAKY_STATE).putInt(id).putInt(runsSinceLastFlaky);
+            add(record);
+        }
+
+        void putDuration(String description, long duration) {
+            int id = idFor(description);
+            ByteBuffer record = ByteBuffer.allocate(13);
+            record.put(DURATION).putInt(id).putLong(duration);
+            add(record);
+            logRecordCount++;
+        }
+
+        void putSample(String description, long durationMillis) {
+            int id = idFor(description);
+            ByteBuffer record = ByteBuffer.allocate(13);
+            record.put(SAMPLE).putInt(id).putLong(durationMillis);
+            add(record);
+            logRecordCount++;
+        }
+
+        void putSketch(String description, DurationSketch sketch) {
+            int id = idFor(description);
+            ByteBuffer record = ByteBuffer.allocate(5 + sketch.serializedLength());
+            record.put(SKETCH).putInt(id);
+            sketch.writeTo(record);
+            add(record);
+        }
+
+        void putState(String description, int runsSinceLastFailure, long duration) {
+            int id = idFor(description);
+            ByteBuffer record = ByteBuffer.allocate(17);
+            record.put(STATE).putInt(id).putInt(runsSinceLastFailure).putLong(duration);
+            add(record);
+        }
+
+        void putRunEnd() {
+            ByteBuffer record = ByteBuffer.allocate(1);
+            record.put(RUN_END);
+            add(record);
+            logRecordCount++;
+        }
+
+        boolean isEmpty() {
+            return records.isEmpty();
+        }
+
+        /**
+         * @return the number of bytes written
+         */
+        long writeTo(FileChannel channel, long position) throws IOException {
+            long written = 0;
+            channel.position(position);
+            for (ByteBuffer buffer : records) {
+                while (buffer.hasRemaining()) {
+                    written += channel.write(buffer);
+                }
+            }
+            return written;
+        }
+
+        void commit() {
+            if (newDictionary) {
+                ids.clear();
+                descriptions.clear();
+            }
+            ids.putAll(newIds);
+            descriptions.addAll(newDescriptions);
+            logRecords += logRecordCount;
+        }
+
+        private int idFor(String description) {
+            Integer id = newDictionary ? null : ids.get(description);
+            if (id == null) {
+                id = newIds.get(description);
+            }
+            if (id == null) {
+                id = (newDictionary ? 0 : descriptions.size()) + newDescriptions.size();
+                byte[] bytes = description.getBytes(Charsets.UTF_8);
+                ByteBuffer record = ByteBuffer.allocate(9 + bytes.length);
+                record.put(DEFINE).putInt(id).putInt(bytes.length).put(bytes);
+                add(record);
+                newIds.put(description, id);
+                newDescriptions.add(description);
+            }
+            return id;
+        }
+
+        private void add(ByteBuffer record) {
+            record.flip();
+            records.add(record);
+        }
+    }
+}
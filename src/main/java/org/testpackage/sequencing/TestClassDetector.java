@@ -0,0 +1,259 @@
+package org.testpackage.sequencing;
+
+import com.google.common.collect.Maps;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * Decides whether classes are JUnit tests by reading their class files, without loading the classes. This avoids
+ * running static initialisers of (and loading everything referenced by) helper, fixture and utility classes which
+ * happen to share a package with the tests.
+ * <p/>
+ * A class is a test if it is concrete and it, or any of its superclasses, has a method annotated with
+ * {@literal @}Test, is annotated with {@literal @}RunWith, extends <code>junit.framework.TestCase</code> or
+ * implements <code>junit.framework.Test</code>.
+ */
+public class TestClassDetector {
+
+    private static final int ACC_INTERFACE = 0x0200;
+    private static final int ACC_ABSTRACT = 0x0400;
+
+    private static final String TEST_ANNOTATION = "Lorg/junit/Test;";
+    private static final String RUN_WITH_ANNOTATION = "Lorg/junit/runner/RunWith;";
+    private static final String JUNIT3_TEST_CASE = "junit/framework/TestCase";
+    private static final String JUNIT3_TEST = "junit/framework/Test";
+    private static final String RUNTIME_VISIBLE_ANNOTATIONS = "RuntimeVisibleAnnotations";
+
+    private final ClassLoader classLoader;
+    private final Map<String, Boolean> hasTestsByClassName = Maps.newHashMap();
+
+    public TestClassDetector(ClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    /**
+     * @param className fully qualified class name
+     * @return false if the class file shows that the class cannot be a test; true if it is a test, or if its class
+     * file could not be read (so that loading it will report any problem)
+     */
+    public synchronized boolean isTestClass(String className) {
+        ClassFile classFile;
+        try {
+            classFile = read(className.replace('.', '/'));
+        } catch (IOException e) {
+            return true;
+        }
+        if (classFile == null) {
+            return true;
+        }
+
+        return (classFile.accessFlags & (ACC_INTERFACE | ACC_ABSTRACT)) == 0 && hasTests(classFile);
+    }
+
+    private boolean hasTests(String internalName) {
+        Boolean hasTests = hasTestsByClassName.get(internalName);
+        if (hasTests == null) {
+            hasTests = false;
+            try {
+                ClassFile classFile = read(internalName);
+                if (classFile != null) {
+                    hasTests = hasTests(classFile);
+                }
+            } catch (IOException e) {
+                // treat an unreadable superclass as having no tests
+            }
+            hasTestsByClassName.put(internalName, hasTests);
+        }
+        return hasTests;
+    }
+
+    private boolean hasTests(ClassFile classFile) {
+        if (classFile.declaresTests) {
+            return true;
+        }
+        for (String interfaceName : classFile.interfaceNames) {
+            if (interfaceName.equals(JUNIT3_TEST)) {
+                return true;
+            }
+        }
+        String superName = classFile.superName;
+        if (superName == null || superName.startsWith("java/")) {
+            return false;
+        }
+        return superName.equals(JUNIT3_TEST_CASE) || hasTests(superName);
+    }
+
+    private ClassFile read(String internalName) throws IOException {
+        InputStream inputStream = classLoader.getResourceAsStream(internalName + ".class");
+        if (inputStream == null) {
+            return null;
+        }
+        try {
+            return ClassFile.parse(new DataInputStream(new BufferedInputStream(inputStream)));
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * The parts of a class file (see chapter 4 of the JVM specification) needed to identify a test.
+     */
+    private static class ClassFile {
+        private int accessFlags;
+        private String superName;
+        private String[] interfaceNames;
+        private boolean declaresTests;
+
+        private String[] utf8Constants;
+        private int[] classNameIndexes;
+
+        static ClassFile parse(DataInputStream in) throws IOException {
+            ClassFile classFile = new ClassFile();
+            if (in.readInt() != 0xCAFEBABE) {
+                throw new IOException("Not a class file");
+            }
+            in.readUnsignedShort(); // minor version
+            in.readUnsignedShort(); // major version
+
+            classFile.readConstantPool(in);
+
+            classFile.accessFlags = in.readUnsignedShort();
+            in.readUnsignedShort(); // this class
+            classFile.superName = classFile.className(in.readUnsignedShort());
+
+            int interfaceCount = in.readUnsignedShort();
+            classFile.interfaceNames = new String[interfaceCount];
+            for (int i = 0; i < interfaceCount; i++) {
+                classFile.interfaceNames[i] = classFile.className(in.readUnsignedShort());
+            }
+
+            // fields
+            int fieldCount = in.readUnsignedShort();
+            for (int i = 0; i < fieldCount; i++) {
+                in.skipBytes(6);
+                classFile.readAttributes(in, null);
+            }
+
+            // methods
+            int methodCount = in.readUnsignedShort();
+            for (int i = 0; i < methodCount; i++) {
+                in.skipBytes(6);
+                classFile.readAttributes(in, TEST_ANNOTATION);
+            }
+
+            // class attributes
+            classFile.readAttributes(in, RUN_WITH_ANNOTATION);
+
+            return classFile;
+        }
+
+        private void readConstantPool(DataInputStream in) throws IOException {
+            int count = in.readUnsignedShort();
+            utf8Constants = new String[count];
+            classNameIndexes = new int[count];
+            for (int i = 1; i < count; i++) {
+                int tag = in.readUnsignedByte();
+                switch (tag) {
+                    case 1: // Utf8
+                        utf8Constants[i] = in.readUTF();
+                        break;
+                    case 7: // Class
+                        classNameIndexes[i] = in.readUnsignedShort();
+                        break;
+                    case 8: // String
+                    case 16: // MethodType
+                    case 19: // Module
+                    case 20: // Package
+                        in.skipBytes(2);
+                        break;
+                    case 15: // MethodHandle
+                        in.skipBytes(3);
+                        break;
+                    case 3: // Integer
+                    case 4: // Float
+                    case 9: // Fieldref
+                    case 10: // Methodref
+                    case 11: // InterfaceMethodref
+                    case 12: // NameAndType
+                    case 17: // Dynamic
+                    case 18: // InvokeDynamic
+                        in.skipBytes(4);
+                        break;
+                    case 5: // Long
+                    case 6: // Double
+                        in.skipBytes(8);
+                        i++; // takes two constant pool entries
+                        break;
+                    default:
+                        throw new IOException("Unknown constant pool tag " + tag);
+                }
+            }
+        }
+
+        /**
+         * Read an attribute table, noting if any RuntimeVisibleAnnotations attribute contains the given annotation.
+         */
+        private void readAttributes(DataInputStream in, String annotationOfInterest) throws IOException {
+            int attributeCount = in.readUnsignedShort();
+            for (int i = 0; i < attributeCount; i++) {
+                String name = utf8Constants[in.readUnsignedShort()];
+                int length = in.readInt();
+                if (annotationOfInterest != null && RUNTIME_VISIBLE_ANNOTATIONS.equals(name)) {
+                    int annotationCount = in.readUnsignedShort();
+                    for (int j = 0; j < annotationCount; j++) {
+                        if (annotationOfInterest.equals(readAnnotation(in))) {
+                            declaresTests = true;
+                        }
+                    }
+                } else {
+                    in.skipBytes(length);
+                }
+            }
+        }
+
+        /**
+         * @return the type descriptor of the annotation
+         */
+        private String readAnnotation(DataInputStream in) throws IOException {
+            String type = utf8Constants[in.readUnsignedShort()];
+            int elementValuePairCount = in.readUnsignedShort();
+            for (int i = 0; i < elementValuePairCount; i++) {
+                in.readUnsignedShort(); // element name
+                skipElementValue(in);
+            }
+            return type;
+        }
+
+        private void skipElementValue(DataInputStream in) throws IOException {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 'e':
+                    in.skipBytes(4);
+                    break;
+                case '@':
+                    readAnnotation(in);
+                    break;
+                case '[':
+                    int valueCount = in.readUnsignedShort();
+                    for (int i = 0; i < valueCount; i++) {
+                        skipElementValue(in);
+                    }
+                    break;
+                default:
+                    // constant values and classes
+                    in.skipBytes(2);
+            }
+        }
+
+        private String className(int classIndex) {
+            if (classIndex == 0) {
+                return null;
+            }
+            return utf8Constants[classNameIndexes[classIndex]];
+        }
+    }
+}
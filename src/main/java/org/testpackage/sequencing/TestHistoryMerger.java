@@ -0,0 +1,41 @@
+package org.testpackage.sequencing;
+
+import com.google.common.collect.Lists;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Command which merges the test history files written by several test runs, e.g. shards of a test suite run on
+ * different machines, so that the next run is prioritised using all of their results.
+ * <p/>
+ * Usage: <code>java org.testpackage.sequencing.TestHistoryMerger --output OUTPUT_FILE historyfiles...</code>
+ */
+public class TestHistoryMerger {
+
+    @Option(name = "--output", aliases = "-o", required = true, usage = "Output: History file to write (its current contents are kept only if it is also given as an input)")
+    private String outputPath;
+
+    @Argument(required = true)
+    private List<String> inputPaths = Lists.newArrayList();
+
+    public static void main(String[] args) throws IOException {
+        TestHistoryMerger merger = new TestHistoryMerger();
+        CmdLineParser cmdLineParser = new CmdLineParser(merger);
+        try {
+            cmdLineParser.parseArgument(args);
+        } catch (CmdLineException e) {
+            System.err.println(e.getMessage());
+            System.err.println("java " + TestHistoryMerger.class.getName() + " [options...] historyfiles...");
+            cmdLineParser.printUsage(System.err);
+            System.exit(-1);
+        }
+
+        TestHistoryRepository.merge(merger.outputPath, merger.inputPaths.toArray(new String[merger.inputPaths.size()]));
+        System.out.println("Merged " + merger.inputPaths.size() + " history files into " + merger.outputPath);
+    }
+}
@@ -1,27 +1,47 @@
 package org.testpackage.sequencing;
 
-import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
-import com.google.common.io.Files;
-import com.google.common.io.LineProcessor;
 
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
 import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
 
 /**
- * Stores historic 'runs since last failure' counts on the filesystem for
- * persistence between test runs.
+ * Stores historic 'runs since last failure' and 'runs since last flaky' counts, smoothed test durations and the
+ * distribution of recent test durations on the filesystem for persistence between test runs.
+ * <p/>
+ * The backing file is an append-only binary log (see {@link HistoryStore}), to which failures are written as soon
+ * as they are marked, so that history survives the JVM being killed. Several processes may share the same backing
+ * file: each merges in the others' results under a file lock before writing its own.
  *
  * Created by richardnorth on 01/01/2014.
  */
 public class TestHistoryRepository {
 
-    private static final int FAILURE_JUST_NOW = -1;
+    private static final Logger LOGGER = Logger.getLogger(TestHistoryRepository.class.getSimpleName());
+
+    /**
+     * Weight given to the latest duration when smoothing, so that one unusually slow or fast run does not
+     * outweigh the history.
+     */
+    private static final double DURATION_SMOOTHING_FACTOR = 0.3;
+
+    /**
+     * Fewer durations than this say too little about how long a test usually takes to give percentiles for.
+     */
+    private static final int MIN_SAMPLES_FOR_PERCENTILES = 5;
+
+    /**
+     * Tests which have been flaky within this many runs are considered recently flaky.
+     */
+    public static final int FLAKY_WINDOW = 10;
+
     private final File backingFile;
-    private final Map<String, Integer> runsSinceLastFailures;
+    private final HistoryStore store;
 
     /**
      * @param path relative or absolute path of the backing file where the historic data should be stored
@@ -29,72 +49,170 @@ public class TestHistoryRepository {
      */
     public TestHistoryRepository(String path) throws IOException {
         backingFile = new File(path);
+        store = new HistoryStore(backingFile);
+        store.load();
+    }
 
-        if (backingFile.exists()) {
-            runsSinceLastFailures = Files.readLines(backingFile, Charsets.UTF_8, new LineProcessor<Map<String, Integer>>() {
-
-                private Map<String, Integer> map = Maps.newHashMap();
-
-                @Override
-                public boolean processLine(String line) throws IOException {
-                    String[] splitLine = line.split("\\s{4}");
-                    String description = splitLine[0];
-                    String runsSinceLastFailure = splitLine[1];
+    /**
+     *
+     * @return an immutable copy of a map from test class/method description to the count of how many runs since last failure.
+     */
+    public Map<String, Integer> getRunsSinceLastFailures() {
+        return ImmutableMap.copyOf(store.getRunsSinceLastFailures());
+    }
 
-                    map.put(description, Integer.valueOf(runsSinceLastFailure));
-                    return true;
-                }
+    /**
+     *
+     * @return an immutable copy of a map from test class/method description to the count of how many runs since it
+     * last failed and then passed when retried.
+     */
+    public Map<String, Integer> getRunsSinceLastFlaky() {
+        return ImmutableMap.copyOf(store.getRunsSinceLastFlaky());
+    }
 
-                @Override
-                public Map<String, Integer> getResult() {
-                    return map;
-                }
-            });
-        } else {
-            runsSinceLastFailures = Maps.newHashMap();
+    /**
+     * @return the test class/method descriptions which have been flaky within the last {@link #FLAKY_WINDOW} runs
+     */
+    public Set<String> getRecentlyFlaky() {
+        ImmutableSet.Builder<String> recentlyFlaky = ImmutableSet.builder();
+        for (Map.Entry<String, Integer> entry : store.getRunsSinceLastFlaky().entrySet()) {
+            if (entry.getValue() < FLAKY_WINDOW) {
+                recentlyFlaky.add(entry.getKey());
+            }
         }
+        return recentlyFlaky.build();
     }
 
     /**
      *
-     * @return an immutable copy of a map from test class/method description to the count of how many runs since last failure.
+     * @return an immutable copy of a map from test class/method description to its smoothed duration in milliseconds.
      */
-    public Map<String, Integer> getRunsSinceLastFailures() {
-        return ImmutableMap.copyOf(runsSinceLastFailures);
+    public Map<String, Long> getExpectedDurations() {
+        return ImmutableMap.copyOf(store.getDurations());
     }
 
     /**
-     * Save the current state of historic data to the repository's backing file.
+     * A percentile of each test class or method's recent durations, where there have been enough of them to tell.
+     * Durations recorded since the history was loaded or last saved are not included.
+     *
+     * @param percentile    which percentile, between 0 and 100
+     * @return a map from test class/method description to the percentile of its recent durations in milliseconds,
+     *         which may overestimate it by up to 10%
+     */
+    public Map<String, Long> getDurationPercentiles(double percentile) {
+        ImmutableMap.Builder<String, Long> percentiles = ImmutableMap.builder();
+        for (Map.Entry<String, DurationSketch> entry : store.getSketches().entrySet()) {
+            DurationSketch sketch = entry.getValue();
+            if (sketch.getSamples() >= MIN_SAMPLES_FOR_PERCENTILES) {
+                percentiles.put(entry.getKey(), sketch.percentile(percentile));
+            }
+        }
+        return percentiles.build();
+    }
+
+    /**
+     * Save the current state of historic data to the repository's backing file, counting the current run as
+     * complete. Results saved by other processes since this repository was loaded are kept.
      * @throws IOException
      */
     public void save() throws IOException {
+        store.flush(true);
+    }
 
-        backingFile.delete();
+    /**
+     * Mark a test class and method description as having just failed. The failure is written to the backing file
+     * straight away.
+     * @param classDescription      a class description (i.e. the fully qualified class name)
+     * @param methodDescription     a method description (i.e. as returned by Description#getDisplayName())
+     */
+    public void markFailure(String classDescription, String methodDescription) {
+        store.markFailure(classDescription);
+        store.markFailure(methodDescription);
 
-        BufferedWriter writer = null;
         try {
-            writer = Files.newWriter(backingFile, Charsets.UTF_8);
-
-            for (Map.Entry<String, Integer> entry : runsSinceLastFailures.entrySet()) {
-                // Increment the run count since all failures
-                int runsSinceFailure = entry.getValue() + 1;
-
-                writer.write(String.format("%s    %d\n", entry.getKey(), runsSinceFailure));
-            }
-        } finally {
-            if (writer != null) {
-                writer.close();
-            }
+            store.flush(false);
+        } catch (IOException e) {
+            // the failure is still pending, so will be written by the next flush
+            LOGGER.warning("Could not write test failure to history file " + backingFile + ": " + e);
         }
     }
 
     /**
-     * Mark a test class and method description as having just failed.
+     * Mark a test class and method description as having just failed and then passed when retried. This is written to
+     * the backing file with the next failure, or when the repository is saved.
      * @param classDescription      a class description (i.e. the fully qualified class name)
      * @param methodDescription     a method description (i.e. as returned by Description#getDisplayName())
      */
-    public void markFailure(String classDescription, String methodDescription) {
-        runsSinceLastFailures.put(classDescription, FAILURE_JUST_NOW);
-        runsSinceLastFailures.put(methodDescription, FAILURE_JUST_NOW);
+    public void markFlaky(String classDescription, String methodDescription) {
+        store.markFlaky(classDescription);
+        store.markFlaky(methodDescription);
+    }
+
+    /**
+     * Record how long a test class or method took to run, updating its smoothed duration and the distribution of
+     * its recent durations.
+     * @param description           a class or method description
+     * @param durationMillis        how long the class or method took this time, in milliseconds
+     */
+    public void recordDuration(String description, long durationMillis) {
+        Long previous = store.getDurations().get(description);
+        long smoothed;
+        if (previous == null) {
+            smoothed = durationMillis;
+        } else {
+            smoothed = Math.round(DURATION_SMOOTHING_FACTOR * durationMillis + (1 - DURATION_SMOOTHING_FACTOR) * previous);
+        }
+        store.recordDuration(description, smoothed);
+        store.recordSample(description, durationMillis);
+    }
+
+    /**
+     * Merge several history files, e.g. those produced by test shards running on different machines, into one.
+     * Where the files disagree about a test, the most recent failure and flaky run (i.e. the lowest runs since counts)
+     * and the longest duration are kept, and the distributions of recent durations are combined.
+     *
+     * @param outputPath    path of the history file to write; its existing contents are replaced, so it should
+     *                      also be given as an input to keep them
+     * @param inputPaths    paths of the history files to merge
+     * @throws IOException
+     */
+    public static void merge(String outputPath, String... inputPaths) throws IOException {
+        Map<String, Integer> runsSinceLastFailures = Maps.newHashMap();
+        Map<String, Long> durations = Maps.newHashMap();
+        Map<String, DurationSketch> sketches = Maps.newHashMap();
+        Map<String, Integer> runsSinceLastFlaky = Maps.newHashMap();
+
+        for (String inputPath : inputPaths) {
+            HistoryStore input = new HistoryStore(new File(inputPath));
+            input.load();
+            for (Map.Entry<String, Integer> entry : input.getRunsSinceLastFailures().entrySet()) {
+                Integer existing = runsSinceLastFailures.get(entry.getKey());
+                if (existing == null || entry.getValue() < existing) {
+                    runsSinceLastFailures.put(entry.getKey(), entry.getValue());
+                }
+            }
+            for (Map.Entry<String, Integer> entry : input.getRunsSinceLastFlaky().entrySet()) {
+                Integer existing = runsSinceLastFlaky.get(entry.getKey());
+                if (existing == null || entry.getValue() < existing) {
+                    runsSinceLastFlaky.put(entry.getKey(), entry.getValue());
+                }
+            }
+            for (Map.Entry<String, Long> entry : input.getDurations().entrySet()) {
+                Long existing = durations.get(entry.getKey());
+                if (existing == null || entry.getValue() > existing) {
+                    durations.put(entry.getKey(), entry.getValue());
+                }
+            }
+            for (Map.Entry<String, DurationSketch> entry : input.getSketches().entrySet()) {
+                DurationSketch existing = sketches.get(entry.getKey());
+                if (existing == null) {
+                    sketches.put(entry.getKey(), new DurationSketch(entry.getValue()));
+                } else {
+                    existing.merge(entry.getValue());
+                }
+            }
+        }
+
+        new HistoryStore(new File(outputPath)).replace(runsSinceLastFailures, durations, sketches, runsSinceLastFlaky);
     }
 }
@@ -1,23 +1,73 @@
 package org.testpackage.sequencing;
 
+import com.google.common.collect.Maps;
+import org.junit.runner.Description;
+import org.junit.runner.Result;
 import org.junit.runner.notification.Failure;
 import org.junit.runner.notification.RunListener;
+import org.testpackage.junitcore.EventClock;
+import org.testpackage.junitcore.FlakyTestRecorder;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Run listener which notifies a TestHistoryRepository of any failures when they occur.
+ * Run listener which notifies a TestHistoryRepository of any failures when they occur, of any tests which only passed
+ * when retried, and of how long each test method and class took to run.
  *
  * Created by richardnorth on 01/01/2014.
  */
 public class TestHistoryRunListener extends RunListener {
 
     private final TestHistoryRepository testHistoryRepository;
+    private final FlakyTestRecorder flakyTestRecorder;
+    private final Map<Description, Long> startTimes = Maps.newHashMap();
+    private final Map<String, Long> classDurations = Maps.newHashMap();
 
     public TestHistoryRunListener(TestHistoryRepository testHistoryRepository) {
+        this(testHistoryRepository, null);
+    }
+
+    /**
+     * @param testHistoryRepository the repository to notify
+     * @param flakyTestRecorder     the recorder of tests which only passed when retried, or null if tests are not retried
+     */
+    public TestHistoryRunListener(TestHistoryRepository testHistoryRepository, FlakyTestRecorder flakyTestRecorder) {
         this.testHistoryRepository = testHistoryRepository;
+        this.flakyTestRecorder = flakyTestRecorder;
+    }
+
+    @Override
+    public void testStarted(Description description) throws Exception {
+        startTimes.put(description, EventClock.nanoTime());
     }
 
     @Override
     public void testFailure(Failure failure) throws Exception {
         testHistoryRepository.markFailure(failure.getDescription().getClassName(), failure.getDescription().getDisplayName());
     }
+
+    @Override
+    public void testFinished(Description description) throws Exception {
+        Long startTime = startTimes.remove(description);
+        if (startTime == null) {
+            return;
+        }
+        if (flakyTestRecorder != null && flakyTestRecorder.isFlaky(description)) {
+            testHistoryRepository.markFlaky(description.getClassName(), description.getDisplayName());
+        }
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis(EventClock.nanoTime() - startTime);
+        testHistoryRepository.recordDuration(description.getDisplayName(), durationMillis);
+
+        Long classDuration = classDurations.get(description.getClassName());
+        classDurations.put(description.getClassName(), classDuration == null ? durationMillis : classDuration + durationMillis);
+    }
+
+    @Override
+    public void testRunFinished(Result result) throws Exception {
+        for (Map.Entry<String, Long> classDuration : classDurations.entrySet()) {
+            testHistoryRepository.recordDuration(classDuration.getKey(), classDuration.getValue());
+        }
+        classDurations.clear();
+    }
 }
@@ -0,0 +1,173 @@
+package org.testpackage.sequencing;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.LinkedListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Precomputed index of test classes and their test methods, generated at build time by {@link TestIndexGenerator}
+ * and embedded in the test JAR so that the classpath does not need to be scanned at startup.
+ * <p/>
+ * The index is a UTF-8 text resource at {@link #RESOURCE_NAME}. Lines take the form:
+ * <pre>
+ * recursive true|false
+ * package PACKAGE_NAME
+ * class FULLY_QUALIFIED_CLASS_NAME
+ * method METHOD_NAME
+ * </pre>
+ * where 'package' lines list the packages which were indexed, and each 'class' line is followed by the names of
+ * its test methods.
+ */
+public class TestIndex {
+
+    public static final String RESOURCE_NAME = "META-INF/testpackage/test-index.txt";
+
+    private final boolean recursive;
+    private final Set<String> packageNames;
+    private final Set<String> testClassNames;
+    private final ListMultimap<String, String> testMethodNamesByClass;
+
+    TestIndex(boolean recursive, Set<String> packageNames, Set<String> testClassNames, ListMultimap<String, String> testMethodNamesByClass) {
+        this.recursive = recursive;
+        this.packageNames = ImmutableSet.copyOf(packageNames);
+        this.testClassNames = ImmutableSet.copyOf(testClassNames);
+        this.testMethodNamesByClass = testMethodNamesByClass;
+    }
+
+    /**
+     * Load all test index resources visible to a class loader.
+     *
+     * @param classLoader the class loader to search
+     * @return the combined test index, or null if there is no test index on the classpath
+     * @throws IOException if a test index resource could not be read
+     */
+    public static TestIndex load(ClassLoader classLoader) throws IOException {
+        Enumeration<URL> resources = classLoader.getResources(RESOURCE_NAME);
+        if (!resources.hasMoreElements()) {
+            return null;
+        }
+
+        boolean recursive = false;
+        Set<String> packageNames = Sets.newLinkedHashSet();
+        Set<String> testClassNames = Sets.newLinkedHashSet();
+        ListMultimap<String, String> testMethodNamesByClass = LinkedListMultimap.create();
+
+        while (resources.hasMoreElements()) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(resources.nextElement().openStream(), Charsets.UTF_8));
+            try {
+                String currentClass = null;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int separator = line.indexOf(' ');
+                    if (separator < 0) {
+                        continue;
+                    }
+                    String key = line.substring(0, separator);
+                    String value = line.substring(separator + 1).trim();
+
+                    if (key.equals("recursive")) {
+                        recursive |= Boolean.parseBoolean(value);
+                    } else if (key.equals("package")) {
+                        packageNames.add(value);
+                    } else if (key.equals("class")) {
+                        currentClass = value;
+                        testClassNames.add(currentClass);
+                    } else if (key.equals("method") && currentClass != null) {
+                        testMethodNamesByClass.put(currentClass, value);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+
+        return new TestIndex(recursive, packageNames, testClassNames, testMethodNamesByClass);
+    }
+
+    /**
+     * Write this index in the format read by {@link #load(ClassLoader)}.
+     *
+     * @param writer where to write the index
+     * @throws IOException if the index could not be written
+     */
+    public void write(Writer writer) throws IOException {
+        writer.write("recursive " + recursive + "\n");
+        for (String packageName : packageNames) {
+            writer.write("package " + packageName + "\n");
+        }
+        for (String className : testClassNames) {
+            writer.write("class " + className + "\n");
+            for (String methodName : testMethodNamesByClass.get(className)) {
+                writer.write("method " + methodName + "\n");
+            }
+        }
+    }
+
+    /**
+     * @return whether sub-packages of the indexed packages were included in the index
+     */
+    public boolean isRecursive() {
+        return recursive;
+    }
+
+    /**
+     * @return names of the packages which were indexed
+     */
+    public Set<String> getPackageNames() {
+        return packageNames;
+    }
+
+    /**
+     * @param packageName a Java package name
+     * @param recursive   whether sub-packages of the package would be searched
+     * @return true if this index holds every test class that a search of the package would find
+     */
+    public boolean covers(String packageName, boolean recursive) {
+        for (String indexedPackageName : packageNames) {
+            if (indexedPackageName.equals(packageName) && (this.recursive || !recursive)) {
+                return true;
+            }
+            if (this.recursive && packageName.startsWith(indexedPackageName + ".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param packageName a Java package name which this index {@link #covers(String, boolean)}
+     * @param recursive   whether test classes in sub-packages should be included
+     * @return fully qualified names of indexed test classes in the package
+     */
+    public List<String> getTestClassNames(String packageName, boolean recursive) {
+        List<String> classNames = Lists.newArrayList();
+        for (String className : testClassNames) {
+            String classPackageName = className.substring(0, Math.max(className.lastIndexOf('.'), 0));
+            if (classPackageName.equals(packageName) || (recursive && classPackageName.startsWith(packageName + "."))) {
+                classNames.add(className);
+            }
+        }
+        return classNames;
+    }
+
+    /**
+     * @param className fully qualified name of an indexed test class
+     * @return names of the test methods of the class, as found at build time
+     */
+    public List<String> getTestMethodNames(String className) {
+        return ImmutableList.copyOf(testMethodNamesByClass.get(className));
+    }
+}
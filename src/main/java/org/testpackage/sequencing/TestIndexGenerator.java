@@ -0,0 +1,126 @@
+package org.testpackage.sequencing;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.LinkedListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import org.junit.Test;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.testpackage.TestPackageException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Build-time tool which writes a {@link TestIndex} for the test classes in the given packages, so that it can be
+ * packaged into the test JAR.
+ * <p/>
+ * Usage: <code>java org.testpackage.sequencing.TestIndexGenerator --output CLASSES_DIR [--recursive] packagenames...</code>
+ * with the compiled test classes and their dependencies on the classpath. The index is written to
+ * <code>CLASSES_DIR/META-INF/testpackage/test-index.txt</code>.
+ */
+public class TestIndexGenerator {
+
+    @Option(name = "--output", aliases = "-o", required = true, usage = "Output: Classes directory to write the index into")
+    private File outputDirectory;
+
+    @Option(name = "--recursive", aliases = "-r", usage = "Recursive: Also index sub-packages of the given packages")
+    private boolean recursive = false;
+
+    @Argument(required = true)
+    private List<String> testPackageNames = Lists.newArrayList();
+
+    public static void main(String[] args) throws IOException {
+        TestIndexGenerator generator = new TestIndexGenerator();
+        CmdLineParser cmdLineParser = new CmdLineParser(generator);
+        try {
+            cmdLineParser.parseArgument(args);
+        } catch (CmdLineException e) {
+            System.err.println(e.getMessage());
+            System.err.println("java " + TestIndexGenerator.class.getName() + " [options...] packagenames...");
+            cmdLineParser.printUsage(System.err);
+            System.exit(-1);
+        }
+
+        File indexFile = generator.generate();
+        System.out.println("Wrote test index to " + indexFile.getAbsolutePath());
+    }
+
+    /**
+     * Write the test index for the configured packages.
+     *
+     * @return the index file which was written
+     * @throws IOException if the classpath could not be scanned or the index could not be written
+     */
+    public File generate() throws IOException {
+        ClassLoader classLoader = TestIndexGenerator.class.getClassLoader();
+        ClassPathIndex classPathIndex = ClassPathIndex.scan(classLoader);
+        TestClassDetector testClassDetector = new TestClassDetector(classLoader);
+
+        Set<String> testClassNames = Sets.newLinkedHashSet();
+        ListMultimap<String, String> testMethodNamesByClass = LinkedListMultimap.create();
+        for (String testPackageName : testPackageNames) {
+            for (String className : classPathIndex.getTopLevelClassNames(testPackageName, recursive)) {
+                // Select tests as the runner does, from their bytecode, only loading them to list their methods
+                if (testClassDetector.isTestClass(className)) {
+                    testClassNames.add(className);
+                    testMethodNamesByClass.putAll(className, getTestMethodNames(loadWithoutInitializing(className, classLoader)));
+                }
+            }
+        }
+
+        TestIndex testIndex = new TestIndex(recursive, Sets.newLinkedHashSet(testPackageNames), testClassNames, testMethodNamesByClass);
+
+        File indexFile = new File(outputDirectory, TestIndex.RESOURCE_NAME);
+        Files.createParentDirs(indexFile);
+        Writer writer = Files.newWriter(indexFile, Charsets.UTF_8);
+        try {
+            testIndex.write(writer);
+        } finally {
+            writer.close();
+        }
+        return indexFile;
+    }
+
+    public void setOutputDirectory(File outputDirectory) {
+        this.outputDirectory = outputDirectory;
+    }
+
+    public void setRecursive(boolean recursive) {
+        this.recursive = recursive;
+    }
+
+    public void setTestPackageNames(List<String> testPackageNames) {
+        this.testPackageNames = Lists.newArrayList(testPackageNames);
+    }
+
+    private static List<String> getTestMethodNames(Class<?> candidate) {
+        List<String> testMethodNames = Lists.newArrayList();
+        boolean junit3 = junit.framework.TestCase.class.isAssignableFrom(candidate);
+        for (Method method : candidate.getMethods()) {
+            if (method.isAnnotationPresent(Test.class) || (junit3 && method.getName().startsWith("test") && method.getParameterTypes().length == 0)) {
+                testMethodNames.add(method.getName());
+            }
+        }
+        Collections.sort(testMethodNames);
+        return testMethodNames;
+    }
+
+    private static Class<?> loadWithoutInitializing(String className, ClassLoader classLoader) {
+        try {
+            return Class.forName(className, false, classLoader);
+        } catch (ClassNotFoundException e) {
+            throw new TestPackageException("Could not load class " + className, e);
+        }
+    }
+}
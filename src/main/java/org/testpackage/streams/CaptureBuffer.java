@@ -0,0 +1,244 @@
+package org.testpackage.streams;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds captured output with bounded memory use, however much is written.
+ * <p/>
+ * Output is kept in memory up to a limit. Beyond that, everything written is spilled to a temporary file, and only
+ * the head and tail of the output are kept in memory, so that {@link #toString()} gives an excerpt suitable for
+ * showing alongside a test failure, while {@link #openFullContents()} still gives everything for reports. The spill
+ * file is deleted when the buffer is {@link #discard() discarded}.
+ */
+public class CaptureBuffer extends OutputStream {
+
+    public static final int DEFAULT_MEMORY_LIMIT = 1024 * 1024;
+    public static final int DEFAULT_EXCERPT_SIZE = 32 * 1024;
+
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int SPILL_BUFFER_SIZE = 8 * 1024;
+    private static final String SPILL_FILE_PREFIX = "testpackage-output";
+    private static final String SPILL_FILE_SUFFIX = ".log";
+    private static final long STALE_SPILL_FILE_AGE = TimeUnit.DAYS.toMillis(1);
+
+    private final int memoryLimit;
+    private final int excerptSize;
+
+    private byte[] memory = new byte[INITIAL_CAPACITY];
+    private int memoryCount;
+    private long size;
+
+    private boolean spilled;
+    private File spillFile;
+    private OutputStream spillStream;
+    private byte[] head;
+    private byte[] tail;
+    private int tailPosition;
+    private boolean tailFull;
+
+    public CaptureBuffer() {
+        this(DEFAULT_MEMORY_LIMIT, DEFAULT_EXCERPT_SIZE);
+    }
+
+    /**
+     * @param memoryLimit   how many bytes to hold in memory before spilling to a file
+     * @param excerptSize   how many bytes of each of the head and tail of the output to keep in memory once spilled
+     */
+    public CaptureBuffer(int memoryLimit, int excerptSize) {
+        if (excerptSize > memoryLimit) {
+            throw new IllegalArgumentException("Excerpt size " + excerptSize + " is larger than memory limit " + memoryLimit);
+        }
+        this.memoryLimit = memoryLimit;
+        this.excerptSize = excerptSize;
+    }
+
+    @Override
+    public synchronized void write(int b) {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+        size += len;
+        if (!spilled) {
+            if (memoryCount + len <= memoryLimit) {
+                ensureCapacity(memoryCount + len);
+                System.arraycopy(b, off, memory, memoryCount, len);
+                memoryCount += len;
+                return;
+            }
+            spill();
+        }
+
+        if (spillStream != null) {
+            try {
+                spillStream.write(b, off, len);
+            } catch (IOException e) {
+                abandonSpillFile();
+            }
+        }
+        appendToTail(b, off, len);
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        if (spillStream != null) {
+            spillStream.flush();
+        }
+    }
+
+    /**
+     * @return the total number of bytes written
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * @return whether output has gone over the memory limit, so that {@link #toString()} only gives an excerpt
+     */
+    public synchronized boolean isSpilled() {
+        return spilled;
+    }
+
+    /**
+     * @return the file holding all of the output if it has been spilled, otherwise null
+     */
+    public synchronized File getSpillFile() {
+        return spillFile;
+    }
+
+    /**
+     * @return everything written so far; if the output could not be spilled to a file, only the excerpt
+     */
+    public synchronized InputStream openFullContents() throws IOException {
+        if (!spilled) {
+            return new ByteArrayInputStream(memory, 0, memoryCount);
+        }
+        if (spillStream != null) {
+            spillStream.flush();
+            return new FileInputStream(spillFile);
+        }
+        return new ByteArrayInputStream(toString().getBytes());
+    }
+
+    /**
+     * Delete any spill file. Output written afterwards is only kept as an excerpt.
+     */
+    public synchronized void discard() {
+        abandonSpillFile();
+    }
+
+    /**
+     * Delete spill files left in the temporary directory by runs which did not finish, e.g. because their JVM was
+     * killed. Only files which have not been written to for a day are deleted, so that concurrent runs are unaffected.
+     */
+    public static void deleteStaleSpillFiles() {
+        File[] files = new File(System.getProperty("java.io.tmpdir")).listFiles();
+        if (files == null) {
+            return;
+        }
+        long staleBefore = System.currentTimeMillis() - STALE_SPILL_FILE_AGE;
+        for (File file : files) {
+            if (file.getName().startsWith(SPILL_FILE_PREFIX) && file.getName().endsWith(SPILL_FILE_SUFFIX)
+                    && file.isFile() && file.lastModified() < staleBefore) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * @return all of the output if it fitted within the memory limit, otherwise its head and tail
+     */
+    @Override
+    public synchronized String toString() {
+        if (!spilled) {
+            return new String(memory, 0, memoryCount);
+        }
+
+        StringBuilder excerpt = new StringBuilder(new String(head));
+        long omitted = size - head.length - tailLength();
+        excerpt.append("\n   ... ").append(omitted).append(" bytes omitted");
+        if (spillFile != null) {
+            excerpt.append(" (full output in ").append(spillFile.getAbsolutePath()).append(")");
+        }
+        excerpt.append(" ...\n");
+        if (tailFull) {
+            excerpt.append(new String(tail, tailPosition, tail.length - tailPosition));
+        }
+        excerpt.append(new String(tail, 0, tailPosition));
+        return excerpt.toString();
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > memory.length) {
+            byte[] grown = new byte[Math.min(Math.max(memory.length * 2, capacity), memoryLimit)];
+            System.arraycopy(memory, 0, grown, 0, memoryCount);
+            memory = grown;
+        }
+    }
+
+    private void spill() {
+        spilled = true;
+        head = new byte[Math.min(excerptSize, memoryCount)];
+        System.arraycopy(memory, 0, head, 0, head.length);
+        tail = new byte[excerptSize];
+
+        try {
+            spillFile = File.createTempFile(SPILL_FILE_PREFIX, SPILL_FILE_SUFFIX);
+            spillStream = new BufferedOutputStream(new FileOutputStream(spillFile), SPILL_BUFFER_SIZE);
+            spillStream.write(memory, 0, memoryCount);
+        } catch (IOException e) {
+            // keep going with just the head and tail
+            abandonSpillFile();
+        }
+
+        int tailStart = Math.max(head.length, memoryCount - excerptSize);
+        appendToTail(memory, tailStart, memoryCount - tailStart);
+        memory = null;
+        memoryCount = 0;
+    }
+
+    private void appendToTail(byte[] b, int off, int len) {
+        if (len >= tail.length) {
+            System.arraycopy(b, off + len - tail.length, tail, 0, tail.length);
+            tailPosition = 0;
+            tailFull = true;
+            return;
+        }
+        int firstPart = Math.min(len, tail.length - tailPosition);
+        System.arraycopy(b, off, tail, tailPosition, firstPart);
+        System.arraycopy(b, off + firstPart, tail, 0, len - firstPart);
+        if (tailPosition + len >= tail.length) {
+            tailFull = true;
+        }
+        tailPosition = (tailPosition + len) % tail.length;
+    }
+
+    private int tailLength() {
+        return tailFull ? tail.length : tailPosition;
+    }
+
+    private void abandonSpillFile() {
+        if (spillStream != null) {
+            try {
+                spillStream.close();
+            } catch (IOException ignored) {
+                // nothing more can be done
+            }
+            spillStream = null;
+        }
+        if (spillFile != null) {
+            spillFile.delete();
+            spillFile = null;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.testpackage.streams;
+
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import com.twitter.common.testing.runner.StreamSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Map;
+
+/**
+ * Collects the output captured from each test into one buffer per test class, for the XML report.
+ * <p/>
+ * Each class's output is held in a {@link CaptureBuffer}, so memory use stays bounded however much the tests write;
+ * the report reads it back through {@link #openOut(Class)} and {@link #openErr(Class)} directly from the buffer (or
+ * its spill file).
+ */
+public class CapturedOutputStreamSource implements StreamSource {
+
+    private final Map<Class<?>, CaptureBuffer> outBuffers = Maps.newHashMap();
+    private final Map<Class<?>, CaptureBuffer> errBuffers = Maps.newHashMap();
+
+    /**
+     * Add the output of a finished test to its class's output. The test's own buffers are discarded afterwards.
+     *
+     * @param testClass     the test class
+     * @param streamCapture the restored capture of the test's output
+     */
+    public void append(Class<?> testClass, StreamCapture streamCapture) throws IOException {
+        append(bufferFor(outBuffers, testClass), streamCapture.getStdOutBuffer());
+        append(bufferFor(errBuffers, testClass), streamCapture.getStdErrBuffer());
+    }
+
+    private static void append(CaptureBuffer classBuffer, CaptureBuffer testBuffer) throws IOException {
+        if (testBuffer.size() > 0) {
+            InputStream contents = testBuffer.openFullContents();
+            try {
+                // keep the output of tests of the same class running on different threads apart
+                synchronized (classBuffer) {
+                    ByteStreams.copy(contents, classBuffer);
+                }
+            } finally {
+                contents.close();
+            }
+        }
+        testBuffer.discard();
+    }
+
+    private synchronized CaptureBuffer bufferFor(Map<Class<?>, CaptureBuffer> buffers, Class<?> testClass) {
+        CaptureBuffer buffer = buffers.get(testClass);
+        if (buffer == null) {
+            buffer = new CaptureBuffer();
+            buffers.put(testClass, buffer);
+        }
+        return buffer;
+    }
+
+    @Override
+    public byte[] readOut(Class<?> testClass) throws IOException {
+        return readFully(outBuffers, testClass);
+    }
+
+    @Override
+    public byte[] readErr(Class<?> testClass) throws IOException {
+        return readFully(errBuffers, testClass);
+    }
+
+    @Override
+    public Reader openOut(Class<?> testClass) throws IOException {
+        return new InputStreamReader(bufferFor(outBuffers, testClass).openFullContents());
+    }
+
+    @Override
+    public Reader openErr(Class<?> testClass) throws IOException {
+        return new InputStreamReader(bufferFor(errBuffers, testClass).openFullContents());
+    }
+
+    private byte[] readFully(Map<Class<?>, CaptureBuffer> buffers, Class<?> testClass) throws IOException {
+        InputStream contents = bufferFor(buffers, testClass).openFullContents();
+        try {
+            return ByteStreams.toByteArray(contents);
+        } finally {
+            contents.close();
+        }
+    }
+
+    @Override
+    public synchronized void release(Class<?> testClass) {
+        CaptureBuffer outBuffer = outBuffers.remove(testClass);
+        if (outBuffer != null) {
+            outBuffer.discard();
+        }
+        CaptureBuffer errBuffer = errBuffers.remove(testClass);
+        if (errBuffer != null) {
+            errBuffer.discard();
+        }
+    }
+}
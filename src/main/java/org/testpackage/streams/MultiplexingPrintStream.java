@@ -0,0 +1,221 @@
+package org.testpackage.streams;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Locale;
+
+/**
+ * A PrintStream installed as System.out or System.err, which passes every call on to the capture belonging to the
+ * calling thread (see {@link StreamCapture}), or to the original stream if the thread's output is not being captured.
+ * <p/>
+ * Every method is overridden, rather than just the <code>write</code> methods, so that threads writing to different
+ * captures do not contend for the lock which PrintStream would otherwise take on itself.
+ */
+class MultiplexingPrintStream extends PrintStream {
+
+    private final PrintStream original;
+    private final boolean err;
+
+    MultiplexingPrintStream(PrintStream original, boolean err) {
+        super(original);
+        this.original = original;
+        this.err = err;
+    }
+
+    private PrintStream target() {
+        return targetStream(StreamCapture.current());
+    }
+
+    private PrintStream targetStream(StreamCapture streamCapture) {
+        if (streamCapture == null) {
+            return original;
+        }
+        return err ? streamCapture.getErrInterceptor() : streamCapture.getOutInterceptor();
+    }
+
+    /**
+     * @return a stream which writes wherever output captured by the given capture would go if it were not captured,
+     * i.e. to its nearest active parent capture or to the original stream
+     */
+    OutputStream targetFor(final StreamCapture streamCapture) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                targetStream(StreamCapture.active(streamCapture)).write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                targetStream(StreamCapture.active(streamCapture)).write(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                targetStream(StreamCapture.active(streamCapture)).flush();
+            }
+        };
+    }
+
+    @Override
+    public void flush() {
+        target().flush();
+    }
+
+    @Override
+    public void close() {
+        target().close();
+    }
+
+    @Override
+    public boolean checkError() {
+        return target().checkError();
+    }
+
+    @Override
+    public void write(int b) {
+        target().write(b);
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len) {
+        target().write(buf, off, len);
+    }
+
+    @Override
+    public void print(boolean b) {
+        target().print(b);
+    }
+
+    @Override
+    public void print(char c) {
+        target().print(c);
+    }
+
+    @Override
+    public void print(int i) {
+        target().print(i);
+    }
+
+    @Override
+    public void print(long l) {
+        target().print(l);
+    }
+
+    @Override
+    public void print(float f) {
+        target().print(f);
+    }
+
+    @Override
+    public void print(double d) {
+        target().print(d);
+    }
+
+    @Override
+    public void print(char[] s) {
+        target().print(s);
+    }
+
+    @Override
+    public void print(String s) {
+        target().print(s);
+    }
+
+    @Override
+    public void print(Object obj) {
+        target().print(obj);
+    }
+
+    @Override
+    public void println() {
+        target().println();
+    }
+
+    @Override
+    public void println(boolean x) {
+        target().println(x);
+    }
+
+    @Override
+    public void println(char x) {
+        target().println(x);
+    }
+
+    @Override
+    public void println(int x) {
+        target().println(x);
+    }
+
+    @Override
+    public void println(long x) {
+        target().println(x);
+    }
+
+    @Override
+    public void println(float x) {
+        target().println(x);
+    }
+
+    @Override
+    public void println(double x) {
+        target().println(x);
+    }
+
+    @Override
+    public void println(char[] x) {
+        target().println(x);
+    }
+
+    @Override
+    public void println(String x) {
+        target().println(x);
+    }
+
+    @Override
+    public void println(Object x) {
+        target().println(x);
+    }
+
+    @Override
+    public PrintStream printf(String format, Object... args) {
+        target().printf(format, args);
+        return this;
+    }
+
+    @Override
+    public PrintStream printf(Locale l, String format, Object... args) {
+        target().printf(l, format, args);
+        return this;
+    }
+
+    @Override
+    public PrintStream format(String format, Object... args) {
+        target().format(format, args);
+        return this;
+    }
+
+    @Override
+    public PrintStream format(Locale l, String format, Object... args) {
+        target().format(l, format, args);
+        return this;
+    }
+
+    @Override
+    public PrintStream append(CharSequence csq) {
+        target().append(csq);
+        return this;
+    }
+
+    @Override
+    public PrintStream append(CharSequence csq, int start, int end) {
+        target().append(csq, start, end);
+        return this;
+    }
+
+    @Override
+    public PrintStream append(char c) {
+        target().append(c);
+        return this;
+    }
+}
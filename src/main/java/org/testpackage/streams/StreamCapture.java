@@ -2,65 +2,174 @@ package org.testpackage.streams;
 
 import org.apache.commons.io.output.TeeOutputStream;
 
-import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
 
 /**
+ * Captures what is written to System.out and System.err by the current thread, and by any threads it starts while
+ * the capture is in place.
+ * <p/>
+ * Rather than swapping System.out and System.err for each capture, one {@link MultiplexingPrintStream} is installed
+ * for each, which routes every write to the capture belonging to the writing thread. This means tests running
+ * concurrently on different threads each get their own output, and restoring one capture does not affect any other.
+ * Captures nest: restoring a capture returns its thread to whichever capture (if any) was in place before it.
+ * <p/>
+ * Captured output is held in {@link CaptureBuffer}s, so a test which writes a lot of output spills it to disk
+ * rather than exhausting the heap.
+ *
  * Created by richardnorth on 05/01/2014.
  */
 public class StreamCapture {
 
-    private static boolean initialized;
-    private static PrintStream originalOut;
-    private static PrintStream originalErr;
+    private static final InheritableThreadLocal<StreamCapture> CURRENT = new InheritableThreadLocal<StreamCapture>();
 
-    private PrintStream outInterceptor;
-    private PrintStream errInterceptor;
-    private ByteArrayOutputStream outBaos;
-    private ByteArrayOutputStream errBaos;
+    private static MultiplexingPrintStream multiplexedOut;
+    private static MultiplexingPrintStream multiplexedErr;
 
-    private StreamCapture(boolean teeOutput) {
+    private final StreamCapture parent;
+    private final PrintStream outInterceptor;
+    private final PrintStream errInterceptor;
+    private final CaptureBuffer outBuffer;
+    private final CaptureBuffer errBuffer;
+    private volatile boolean restored;
 
-        initialize();
+    private StreamCapture(StreamCapture parent, boolean teeOutput) {
+        this.parent = parent;
 
-        outBaos = new ByteArrayOutputStream();
-        errBaos = new ByteArrayOutputStream();
+        outBuffer = new CaptureBuffer();
+        errBuffer = new CaptureBuffer();
         if (teeOutput) {
-            outInterceptor = new PrintStream(new TeeOutputStream(outBaos, originalOut));
-            errInterceptor = new PrintStream(new TeeOutputStream(errBaos, originalErr));
+            outInterceptor = new PrintStream(new TeeOutputStream(outBuffer, multiplexedOut.targetFor(parent)));
+            errInterceptor = new PrintStream(new TeeOutputStream(errBuffer, multiplexedErr.targetFor(parent)));
         } else {
-            outInterceptor = new PrintStream(outBaos);
-            errInterceptor = new PrintStream(errBaos);
+            outInterceptor = new PrintStream(outBuffer);
+            errInterceptor = new PrintStream(errBuffer);
         }
-        System.setOut(outInterceptor);
-        System.setErr(errInterceptor);
     }
 
+    private StreamCapture(StreamCapture parent, OutputStream out, OutputStream err) {
+        this.parent = parent;
+
+        // nothing is captured, but the buffers are kept so that this behaves like any other capture
+        outBuffer = new CaptureBuffer();
+        errBuffer = new CaptureBuffer();
+        outInterceptor = new PrintStream(out, true);
+        errInterceptor = new PrintStream(err, true);
+    }
+
+    /**
+     * Send output written by the current thread (and threads it starts) to other streams until {@link #restore()} is
+     * called, e.g. to send the output of a test run to a remote client. Captures made by the thread while this is in
+     * place nest inside it, as usual.
+     *
+     * @param out where to send stdout
+     * @param err where to send stderr
+     * @return the new capture, which captures nothing itself
+     */
+    public synchronized static StreamCapture redirectStreams(OutputStream out, OutputStream err) {
+
+        if (System.out != multiplexedOut || System.err != multiplexedErr) {
+            install();
+        }
+        StreamCapture streamCapture = new StreamCapture(CURRENT.get(), out, err);
+        CURRENT.set(streamCapture);
+        return streamCapture;
+    }
+
+    /**
+     * Start capturing output written by the current thread (and threads it starts) until {@link #restore()} is
+     * called.
+     *
+     * @param teeOutput whether captured output should also be passed on to wherever it would have gone otherwise
+     * @return the new capture
+     */
     public synchronized static StreamCapture grabStreams(boolean teeOutput) {
 
-        if (!initialized) {
-            initialize();
+        if (System.out != multiplexedOut || System.err != multiplexedErr) {
+            install();
+        }
+        StreamCapture streamCapture = new StreamCapture(CURRENT.get(), teeOutput);
+        CURRENT.set(streamCapture);
+        return streamCapture;
+    }
+
+    private static void install() {
+        multiplexedOut = new MultiplexingPrintStream(System.out, false);
+        multiplexedErr = new MultiplexingPrintStream(System.err, true);
+        System.setOut(multiplexedOut);
+        System.setErr(multiplexedErr);
+    }
+
+    /**
+     * @return a stream which writes wherever System.out currently goes for this thread, even if it is later written
+     * to from another thread, or while this thread's output is being captured
+     */
+    public synchronized static PrintStream currentOut() {
+        if (System.out != multiplexedOut) {
+            return System.out;
         }
-        return new StreamCapture(teeOutput);
+        return new PrintStream(multiplexedOut.targetFor(current()));
     }
 
-    private static void initialize() {
-        originalOut = System.out;
-        originalErr = System.err;
-        initialized = true;
+    /**
+     * @return the capture in place for the current thread, or null if there is none
+     */
+    static StreamCapture current() {
+        return active(CURRENT.get());
     }
 
+    /**
+     * @return the given capture, or its nearest parent which has not been restored, or null if there is none
+     */
+    static StreamCapture active(StreamCapture streamCapture) {
+        while (streamCapture != null && streamCapture.restored) {
+            streamCapture = streamCapture.parent;
+        }
+        return streamCapture;
+    }
+
+    PrintStream getOutInterceptor() {
+        return outInterceptor;
+    }
+
+    PrintStream getErrInterceptor() {
+        return errInterceptor;
+    }
+
+    /**
+     * @return the captured stdout, or its head and tail if it was too large to hold in memory
+     * @see CaptureBuffer
+     */
     public String getStdOut() {
-        return outBaos.toString();
+        return outBuffer.toString();
     }
 
+    /**
+     * @return the captured stderr, or its head and tail if it was too large to hold in memory
+     * @see CaptureBuffer
+     */
     public String getStdErr() {
-        return errBaos.toString();
+        return errBuffer.toString();
+    }
+
+    public CaptureBuffer getStdOutBuffer() {
+        return outBuffer;
     }
 
+    public CaptureBuffer getStdErrBuffer() {
+        return errBuffer;
+    }
+
+    /**
+     * Stop capturing. Output from the current thread goes back to the previous capture, or to the original streams;
+     * so does output from any threads started during the capture which are still running.
+     */
     public void restore() {
-        System.setOut(originalOut);
-        System.setErr(originalErr);
-        initialized = false;
+        restored = true;
+        outInterceptor.flush();
+        errInterceptor.flush();
+        if (CURRENT.get() == this) {
+            CURRENT.set(parent);
+        }
     }
 }
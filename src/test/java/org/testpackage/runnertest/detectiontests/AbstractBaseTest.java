@@ -0,0 +1,15 @@
+package org.testpackage.runnertest.detectiontests;
+
+import org.junit.Test;
+
+/**
+ * Not a test itself, but provides a test method to {@link InheritedTest}. Used by
+ * {@link org.testpackage.test.TestClassDetectorTest}.
+ */
+public abstract class AbstractBaseTest {
+
+    @Test
+    public void inheritedTest() {
+        assert true;
+    }
+}
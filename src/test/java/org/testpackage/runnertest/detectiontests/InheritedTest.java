@@ -0,0 +1,7 @@
+package org.testpackage.runnertest.detectiontests;
+
+/**
+ * Used by {@link org.testpackage.test.TestClassDetectorTest}.
+ */
+public class InheritedTest extends AbstractBaseTest {
+}
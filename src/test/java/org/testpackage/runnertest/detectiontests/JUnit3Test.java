@@ -0,0 +1,13 @@
+package org.testpackage.runnertest.detectiontests;
+
+import junit.framework.TestCase;
+
+/**
+ * Used by {@link org.testpackage.test.TestClassDetectorTest}.
+ */
+public class JUnit3Test extends TestCase {
+
+    public void testTrue() {
+        assertTrue(true);
+    }
+}
@@ -0,0 +1,12 @@
+package org.testpackage.runnertest.detectiontests;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+
+/**
+ * Used by {@link org.testpackage.test.TestClassDetectorTest}.
+ */
+@RunWith(Suite.class)
+@Suite.SuiteClasses(InheritedTest.class)
+public class RunWithTest {
+}
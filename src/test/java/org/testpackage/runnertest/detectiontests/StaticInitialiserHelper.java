@@ -0,0 +1,21 @@
+package org.testpackage.runnertest.detectiontests;
+
+/**
+ * A helper which is not a test, and must not be loaded when searching for tests. Used by
+ * {@link org.testpackage.test.TestClassDetectorTest}.
+ */
+public class StaticInitialiserHelper {
+
+    /**
+     * Set when this class is initialised, so that the test can tell without loading the class itself.
+     */
+    public static final String INITIALISED_PROPERTY = "testpackage.staticInitialiserHelper.initialised";
+
+    static {
+        System.setProperty(INITIALISED_PROPERTY, "true");
+    }
+
+    @Deprecated
+    public static void helperMethod() {
+    }
+}
@@ -0,0 +1,18 @@
+package org.testpackage.runnertest.flakytests;
+
+import org.junit.Test;
+
+import static org.junit.Assert.fail;
+
+public class FlakyTest {
+
+    public static int attempts = 0;
+
+    @Test
+    public void failsFirstTime() {
+        attempts++;
+        if (attempts == 1) {
+            fail("first attempt fails");
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package org.testpackage.runnertest.outputtests;
+
+import org.junit.Test;
+
+/**
+ * Used by {@link org.testpackage.test.XmlReportTest}.
+ */
+public class OutputTest {
+
+    @Test
+    public void testWritesToStdOut() {
+        System.out.println("Written to stdout");
+    }
+
+    @Test
+    public void testWritesToStdErr() {
+        System.err.println("Written to stderr");
+    }
+}
@@ -0,0 +1,21 @@
+package org.testpackage.runnertest.paralleltests;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Used by {@link org.testpackage.test.ParallelExecutionTest}. The latch can only be released if both test classes
+ * in this package are running at the same time.
+ */
+public class aaa_ConcurrentTest {
+
+    static final CountDownLatch BOTH_CLASSES_RUNNING = new CountDownLatch(2);
+
+    @Test
+    public void runsAlongsideOtherClass() throws InterruptedException {
+        BOTH_CLASSES_RUNNING.countDown();
+        assert BOTH_CLASSES_RUNNING.await(5, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,19 @@
+package org.testpackage.runnertest.paralleltests;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.testpackage.runnertest.paralleltests.aaa_ConcurrentTest.BOTH_CLASSES_RUNNING;
+
+/**
+ * Used by {@link org.testpackage.test.ParallelExecutionTest}.
+ */
+public class zzz_ConcurrentTest {
+
+    @Test
+    public void runsAlongsideOtherClass() throws InterruptedException {
+        BOTH_CLASSES_RUNNING.countDown();
+        assert BOTH_CLASSES_RUNNING.await(5, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,14 @@
+package org.testpackage.runnertest.recursivetests.subpackage;
+
+import org.junit.Test;
+
+/**
+ * Used by {@link org.testpackage.test.TestSequencerTest}.
+ */
+public class SubPackageTest {
+
+    @Test
+    public void testTrue() {
+        assert true;
+    }
+}
@@ -0,0 +1,20 @@
+package org.testpackage.runnertest.stucktests;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+public class aaa_StuckTest {
+
+    public static volatile boolean released;
+
+    @Test
+    public void stuckTest() {
+        // ignores being interrupted, and only returns once released
+        while (!released) {
+            Thread.interrupted();
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package org.testpackage.runnertest.stucktests;
+
+import org.junit.Test;
+
+public class zzz_PassingTest {
+
+    @Test
+    public void passingTest() {
+        assert true;
+    }
+}
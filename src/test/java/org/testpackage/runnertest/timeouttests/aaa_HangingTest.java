@@ -0,0 +1,17 @@
+package org.testpackage.runnertest.timeouttests;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+public class aaa_HangingTest {
+
+    @Test
+    public void hangingTest() {
+        // waits until interrupted, then returns as if nothing had happened
+        while (!Thread.interrupted()) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.testpackage.test;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runner.Request;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+import org.junit.runner.notification.StoppedByUserException;
+import org.testpackage.failfast.FailFastRunListener;
+import org.testpackage.junitcore.FailFastSupportCore;
+import org.testpackage.runnertest.failfasttests.aaa_FailingTest;
+import org.testpackage.runnertest.failfasttests.zzz_PassingTest;
+import org.testpackage.runnertest.simpletests.SimpleTest;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.testpackage.VisibleAssertions.assertEquals;
+import static org.testpackage.VisibleAssertions.assertTrue;
+
+public class AsynchronousRunListenerTest {
+
+    @Test
+    public void testSlowListenerHasAllEventsInOrderWhenRunFinishes() {
+        RecordingListener listener = new RecordingListener(50);
+        FailFastSupportCore core = new FailFastSupportCore();
+        core.addAsynchronousListener(listener);
+        Result result = core.run(Request.aClass(SimpleTest.class));
+
+        assertEquals("both tests ran", 2, result.getRunCount());
+        assertEquals("the listener was told about every event, in order, before the run returned",
+                Lists.newArrayList("runStarted", "testStarted", "testFinished", "testStarted", "testFinished", "runFinished"),
+                listener.events);
+        assertTrue("the listener was not called on the test thread", !listener.threads.contains(Thread.currentThread()));
+    }
+
+    @Test
+    public void testFailFastIsNotHeldUpBySlowListener() {
+        RecordingListener listener = new RecordingListener(200);
+        FailFastSupportCore core = new FailFastSupportCore();
+        core.addAsynchronousListener(listener);
+        core.addListener(new FailFastRunListener(core.getNotifier()));
+
+        boolean stopped = false;
+        try {
+            core.run(Request.classes(aaa_FailingTest.class, zzz_PassingTest.class));
+        } catch (StoppedByUserException e) {
+            stopped = true;
+        }
+
+        assertTrue("the run was stopped by the first failure", stopped);
+        assertEquals("the listener was told about the events before the run stopped",
+                Lists.newArrayList("runStarted", "testStarted", "testFailure", "testFinished"),
+                listener.events);
+    }
+
+    private static class RecordingListener extends RunListener {
+        private final long delayMillis;
+        private final List<String> events = Collections.synchronizedList(Lists.<String>newArrayList());
+        private final List<Thread> threads = Collections.synchronizedList(Lists.<Thread>newArrayList());
+
+        RecordingListener(long delayMillis) {
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public void testRunStarted(Description description) throws Exception {
+            record("runStarted");
+        }
+
+        @Override
+        public void testStarted(Description description) throws Exception {
+            record("testStarted");
+        }
+
+        @Override
+        public void testFailure(Failure failure) throws Exception {
+            record("testFailure");
+        }
+
+        @Override
+        public void testFinished(Description description) throws Exception {
+            record("testFinished");
+        }
+
+        @Override
+        public void testRunFinished(Result result) throws Exception {
+            record("runFinished");
+        }
+
+        private void record(String event) throws InterruptedException {
+            Thread.sleep(delayMillis);
+            events.add(event);
+            threads.add(Thread.currentThread());
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.testpackage.test;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+import org.testpackage.streams.CaptureBuffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import static org.testpackage.VisibleAssertions.assertEquals;
+import static org.testpackage.VisibleAssertions.assertTrue;
+
+public class CaptureBufferTest {
+
+    @Test
+    public void testSmallOutputIsKeptInMemory() throws IOException {
+        CaptureBuffer buffer = new CaptureBuffer(100, 10);
+        buffer.write("Hello world".getBytes());
+
+        assertTrue("small output is not spilled", !buffer.isSpilled());
+        assertEquals("small output is kept whole", "Hello world", buffer.toString());
+    }
+
+    @Test
+    public void testLargeOutputIsSpilledWithHeadAndTailKept() throws IOException {
+        CaptureBuffer buffer = new CaptureBuffer(100, 10);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            String line = "line " + i + "\n";
+            expected.append(line);
+            buffer.write(line.getBytes());
+        }
+
+        assertTrue("large output is spilled", buffer.isSpilled());
+        String excerpt = buffer.toString();
+        assertTrue("the excerpt keeps the head", excerpt.startsWith("line 0\nlin"));
+        assertTrue("the excerpt keeps the tail", excerpt.endsWith("\nline 99\n"));
+        assertTrue("the excerpt says how much is omitted", excerpt.contains((expected.length() - 20) + " bytes omitted"));
+
+        File spillFile = buffer.getSpillFile();
+        InputStream fullContents = buffer.openFullContents();
+        try {
+            assertEquals("the full output is kept", expected.toString(), new String(ByteStreams.toByteArray(fullContents)));
+        } finally {
+            fullContents.close();
+        }
+
+        buffer.discard();
+        assertTrue("the spill file is deleted when discarded", !spillFile.exists());
+    }
+
+    @Test
+    public void testStaleSpillFilesAreDeleted() throws IOException {
+        File staleSpillFile = File.createTempFile("testpackage-output", ".log");
+        staleSpillFile.setLastModified(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(2));
+        File recentSpillFile = File.createTempFile("testpackage-output", ".log");
+        try {
+            CaptureBuffer.deleteStaleSpillFiles();
+
+            assertTrue("a spill file left by an earlier run is deleted", !staleSpillFile.exists());
+            assertTrue("a spill file which may belong to a concurrent run is kept", recentSpillFile.exists());
+        } finally {
+            staleSpillFile.delete();
+            recentSpillFile.delete();
+        }
+    }
+}
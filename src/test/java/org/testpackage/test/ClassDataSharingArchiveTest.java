@@ -0,0 +1,19 @@
+package org.testpackage.test;
+
+import org.junit.Test;
+import org.testpackage.ClassDataSharingArchive;
+
+import static org.testpackage.VisibleAssertions.assertTrue;
+
+public class ClassDataSharingArchiveTest {
+
+    @Test
+    public void testOnlySupportedFromJava11() {
+        assertTrue("Java 6 cannot archive application classes", !ClassDataSharingArchive.isSupported("1.6"));
+        assertTrue("Java 8 cannot archive application classes", !ClassDataSharingArchive.isSupported("1.8"));
+        assertTrue("Java 9 cannot archive application classes", !ClassDataSharingArchive.isSupported("9"));
+        assertTrue("Java 10 needs -XX:+UseAppCDS to archive application classes, so is not supported", !ClassDataSharingArchive.isSupported("10"));
+        assertTrue("Java 11 can archive application classes", ClassDataSharingArchive.isSupported("11"));
+        assertTrue("Java 17 can archive application classes", ClassDataSharingArchive.isSupported("17"));
+    }
+}
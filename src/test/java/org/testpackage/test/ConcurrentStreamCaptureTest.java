@@ -0,0 +1,83 @@
+package org.testpackage.test;
+
+import org.junit.Test;
+import org.testpackage.streams.StreamCapture;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.testpackage.VisibleAssertions.assertEquals;
+
+/**
+ * Checks that captures on different threads each get only their own thread's output.
+ */
+public class ConcurrentStreamCaptureTest {
+
+    @Test
+    public void testCapturesArePerThread() throws Exception {
+        final CountDownLatch bothCapturing = new CountDownLatch(2);
+        final StreamCapture[] captures = new StreamCapture[2];
+
+        Thread[] threads = new Thread[2];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    StreamCapture streamCapture = StreamCapture.grabStreams(false);
+                    captures[index] = streamCapture;
+                    bothCapturing.countDown();
+                    try {
+                        bothCapturing.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    System.out.println("out from thread " + index);
+                    System.err.println("err from thread " + index);
+                    streamCapture.restore();
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (int i = 0; i < threads.length; i++) {
+            assertEquals("each thread's capture only has its own stdout", "out from thread " + i + "\n", captures[i].getStdOut());
+            assertEquals("each thread's capture only has its own stderr", "err from thread " + i + "\n", captures[i].getStdErr());
+        }
+    }
+
+    @Test
+    public void testThreadsStartedDuringCaptureAreCaptured() throws Exception {
+        StreamCapture streamCapture = StreamCapture.grabStreams(false);
+        try {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    System.out.println("out from child thread");
+                }
+            };
+            thread.start();
+            thread.join();
+        } finally {
+            streamCapture.restore();
+        }
+
+        assertEquals("output of a thread started during the capture is captured", "out from child thread\n", streamCapture.getStdOut());
+    }
+
+    @Test
+    public void testRestoreReturnsToPreviousCapture() {
+        StreamCapture outer = StreamCapture.grabStreams(false);
+        StreamCapture inner = StreamCapture.grabStreams(false);
+        System.out.println("inner");
+        inner.restore();
+        System.out.println("outer");
+        outer.restore();
+
+        assertEquals("the inner capture gets output until it is restored", "inner\n", inner.getStdOut());
+        assertEquals("the outer capture gets output once the inner capture is restored", "outer\n", outer.getStdOut());
+    }
+}
@@ -0,0 +1,84 @@
+package org.testpackage.test;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.testpackage.TestPackageClient;
+import org.testpackage.TestPackageDaemon;
+import org.testpackage.TestSequencer;
+import org.testpackage.runnertest.stucktests.aaa_StuckTest;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.testpackage.VisibleAssertions.assertEquals;
+import static org.testpackage.VisibleAssertions.assertTrue;
+
+public class DaemonTest extends StreamCaptureBaseTest {
+
+    private TestPackageDaemon daemon;
+    private ExecutorService executor;
+    private Future<Integer> daemonExitCode;
+
+    @Before
+    public void startDaemon() throws IOException {
+        daemon = new TestPackageDaemon(new TestSequencer(), 0);
+        executor = Executors.newSingleThreadExecutor();
+        daemonExitCode = executor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return daemon.serve();
+            }
+        });
+        aaa_StuckTest.released = false;
+    }
+
+    @Test
+    public void testRunsRequestedTestsWithTheirExitCodes() throws Exception {
+
+        int passingExitCode = TestPackageClient.run(daemon.getPort(), false,
+                Arrays.asList("--plain", "org.testpackage.runnertest.simpletests"));
+        int failingExitCode = TestPackageClient.run(daemon.getPort(), false,
+                Arrays.asList("--plain", "org.testpackage.runnertest.failfasttests"));
+
+        String capturedStdOut = getCapturedStdOut();
+        assertEquals("a passing run's exit code is passed back to the client", 0, passingExitCode);
+        assertEquals("a failing run's exit code is passed back to the client", 1, failingExitCode);
+        assertTrue("the output of each run is streamed to the client", capturedStdOut.contains("SimpleTest.testTrue1")
+                && capturedStdOut.contains("aaa_FailingTest"));
+    }
+
+    @Test
+    public void testStuckTestDoesNotStopTheDaemon() throws Exception {
+
+        int stuckExitCode;
+        try {
+            stuckExitCode = TestPackageClient.run(daemon.getPort(), false,
+                    Arrays.asList("--plain", "--failfast", "--timeout", "1", "org.testpackage.runnertest.stucktests"));
+        } finally {
+            aaa_StuckTest.released = true;
+        }
+        int passingExitCode = TestPackageClient.run(daemon.getPort(), false,
+                Arrays.asList("--plain", "org.testpackage.runnertest.simpletests"));
+
+        String capturedStdOut = getCapturedStdOut();
+        assertEquals("the stuck run fails", 1, stuckExitCode);
+        assertTrue("the stuck test is reported to the client", capturedStdOut.contains("and was abandoned as it did not stop when interrupted"));
+        assertTrue("the daemon did not go away", !capturedStdOut.contains("daemon went away") && !getCapturedStdErr().contains("daemon went away"));
+        assertEquals("the daemon still runs the next request", 0, passingExitCode);
+    }
+
+    @After
+    public void stopDaemon() throws Exception {
+        aaa_StuckTest.released = true;
+        TestPackageClient.run(daemon.getPort(), true, Collections.<String>emptyList());
+        assertEquals("the daemon stops when asked", 0, (int) daemonExitCode.get(10, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,50 @@
+package org.testpackage.test;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.testpackage.TestPackage;
+
+import java.io.IOException;
+
+import static org.testpackage.VisibleAssertions.assertEquals;
+import static org.testpackage.VisibleAssertions.assertTrue;
+
+/**
+ * Runs test classes in forked JVMs started from this JVM's classpath.
+ */
+public class ForkedExecutionTest extends StreamCaptureBaseTest {
+
+    @Before
+    public void setupStreamCapturing() throws IOException {
+        super.setupStreamCapturing();
+    }
+
+    @Test
+    public void testResultsAreReportedFromForks() throws IOException {
+        System.setProperty("package", "org.testpackage.runnertest.failureprioritisationtests");
+
+        TestPackage testPackage = new TestPackage();
+        testPackage.forks = 2;
+        int exitCode = testPackage.run();
+
+        String capturedStdOut = getCapturedStdOut();
+        assertTrue("stdout should contain the test names", capturedStdOut.contains("aaa_NoRecentFailuresTest.testTrue") && capturedStdOut.contains("zzz_JustFailedTest.testThatHasNotFailed"));
+        assertTrue("stdout should contain '3 passed'", capturedStdOut.contains("3 passed"));
+        assertEquals("exit code should be zero for a successful run", 0, exitCode);
+    }
+
+    @Test
+    public void testFailFastStopsForks() throws IOException {
+        System.setProperty("package", "org.testpackage.runnertest.failfasttests");
+
+        TestPackage testPackage = new TestPackage();
+        testPackage.forks = 1;
+        testPackage.failFast = true;
+        int exitCode = testPackage.run();
+
+        String capturedStdOut = getCapturedStdOut();
+        assertTrue("no test should have passed", !capturedStdOut.contains("1 passed") && !capturedStdOut.contains("zzz_PassingTest"));
+        assertTrue("stdout should contain 'TESTS ABORTED'", capturedStdOut.contains("TESTS ABORTED"));
+        assertEquals("the exit code should be 1", 1, exitCode);
+    }
+}
@@ -0,0 +1,45 @@
+package org.testpackage.test;
+
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runner.JUnitCore;
+import org.testpackage.reporting.JsonLinesRunListener;
+import org.testpackage.runnertest.simpletests.SimpleTest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.testpackage.VisibleAssertions.assertEquals;
+import static org.testpackage.VisibleAssertions.assertTrue;
+
+public class JsonLinesRunListenerTest {
+
+    @Test
+    public void testOneLinePerEvent() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JUnitCore core = new JUnitCore();
+        core.addListener(new JsonLinesRunListener(out));
+        core.run(SimpleTest.class);
+
+        String[] lines = out.toString("UTF-8").split("\n");
+        assertEquals("there is a line for the run starting and finishing, and each test starting and finishing", 6, lines.length);
+        assertTrue("the first line is the run starting", lines[0].startsWith("{\"event\":\"runStarted\",\"timeNanos\":"));
+        assertTrue("the run starting line has the test count", lines[0].endsWith(",\"testCount\":2}"));
+        assertTrue("test lines have the class name", lines[1].contains(",\"class\":\"org.testpackage.runnertest.simpletests.SimpleTest\""));
+        assertTrue("test finished lines have a duration", lines[2].startsWith("{\"event\":\"testFinished\"") && lines[2].contains(",\"durationNanos\":"));
+        assertTrue("the last line is the run finishing", lines[5].startsWith("{\"event\":\"runFinished\"") && lines[5].contains(",\"runCount\":2,"));
+    }
+
+    @Test
+    public void testStoppedRunEndsWithRunAborted() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonLinesRunListener listener = new JsonLinesRunListener(out);
+        listener.testRunStarted(Description.createSuiteDescription(SimpleTest.class));
+        listener.close();
+        listener.close();
+
+        String[] lines = out.toString("UTF-8").split("\n");
+        assertEquals("there is a line for the run starting and being aborted", 2, lines.length);
+        assertTrue("the last line is the run being aborted", lines[1].startsWith("{\"event\":\"runAborted\",\"timeNanos\":"));
+    }
+}
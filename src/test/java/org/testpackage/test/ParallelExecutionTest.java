@@ -0,0 +1,35 @@
+package org.testpackage.test;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.testpackage.TestPackage;
+
+import java.io.IOException;
+
+import static org.testpackage.VisibleAssertions.assertEquals;
+import static org.testpackage.VisibleAssertions.assertTrue;
+
+/**
+ * @see org.testpackage.runnertest.paralleltests
+ */
+public class ParallelExecutionTest extends StreamCaptureBaseTest {
+
+    @Before
+    public void setupStreamCapturing() throws IOException {
+        super.setupStreamCapturing();
+        System.setProperty("package", "org.testpackage.runnertest.paralleltests");
+    }
+
+    @Test
+    public void testClassesRunConcurrently() throws IOException {
+
+        TestPackage testPackage = new TestPackage();
+        testPackage.threads = 2;
+        int exitCode = testPackage.run();
+
+        String capturedStdOut = getCapturedStdOut();
+        assertTrue("both test classes are reported", capturedStdOut.contains("aaa_ConcurrentTest") && capturedStdOut.contains("zzz_ConcurrentTest"));
+        assertTrue("stdout should contain '2 passed'", capturedStdOut.contains("2 passed"));
+        assertEquals("results from all threads are merged into one exit code", 0, exitCode);
+    }
+}
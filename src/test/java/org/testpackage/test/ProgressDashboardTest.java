@@ -0,0 +1,38 @@
+package org.testpackage.test;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.testpackage.ProgressDashboard;
+import org.testpackage.runnertest.simpletests.SimpleTest;
+
+import static org.testpackage.VisibleAssertions.assertEquals;
+import static org.testpackage.VisibleAssertions.assertTrue;
+
+public class ProgressDashboardTest {
+
+    private static final Description TEST_1 = Description.createTestDescription(SimpleTest.class, "testTrue1");
+    private static final Description TEST_2 = Description.createTestDescription(SimpleTest.class, "testTrue2");
+
+    @Test
+    public void testRunningTestsAndSummary() {
+        Description run = Description.createSuiteDescription(SimpleTest.class);
+        run.addChild(TEST_1);
+        run.addChild(TEST_2);
+
+        ProgressDashboard dashboard = new ProgressDashboard(2, ImmutableMap.of(TEST_2.getDisplayName(), 90000L));
+        dashboard.runStarted(run);
+        dashboard.testStarted(TEST_1);
+        dashboard.testStarted(TEST_2);
+        dashboard.testFinished(TEST_1, false);
+
+        StringBuilder output = new StringBuilder();
+        dashboard.appendTo(output);
+        String[] lines = output.toString().split("\n");
+
+        assertEquals("there is a line for the running test and a summary line", 2, lines.length);
+        assertTrue("the running test is shown", lines[0].startsWith(" >> SimpleTest.testTrue2 ("));
+        assertTrue("the summary shows the progress so far", lines[1].startsWith("*** 1/2 complete, 0 passed, 1 failed, "));
+        assertTrue("the ETA is based on the remaining test's expected duration, shared between the workers", lines[1].endsWith("ETA 45.0s"));
+    }
+}
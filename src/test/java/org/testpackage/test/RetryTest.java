@@ -0,0 +1,84 @@
+package org.testpackage.test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.testpackage.TestPackage;
+import org.testpackage.TestSequencer;
+import org.testpackage.runnertest.flakytests.FlakyTest;
+import org.testpackage.sequencing.TestHistoryRepository;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.testpackage.VisibleAssertions.assertEquals;
+import static org.testpackage.VisibleAssertions.assertTrue;
+
+public class RetryTest extends StreamCaptureBaseTest {
+
+    private static final String FLAKY_METHOD = "failsFirstTime(org.testpackage.runnertest.flakytests.FlakyTest)";
+
+    @Before
+    public void setupStreamCapturing() throws IOException {
+        super.setupStreamCapturing();
+        System.setProperty("package", "org.testpackage.runnertest.flakytests");
+        FlakyTest.attempts = 0;
+    }
+
+    @Test
+    public void testFailingTestFailsWithoutRetries() throws IOException {
+
+        int exitCode = new TestPackage().run();
+
+        assertEquals("the exit code should be 1", 1, exitCode);
+        assertTrue("the test is only run once", FlakyTest.attempts == 1);
+    }
+
+    @Test
+    public void testFlakyTestPassesWhenRetried() throws IOException {
+
+        TestPackage testPackage = new TestPackage();
+        testPackage.retries = 2;
+        int exitCode = testPackage.run();
+
+        String capturedStdOut = getCapturedStdOut();
+        assertEquals("the exit code should be 0", 0, exitCode);
+        assertTrue("the test is retried once, until it passes", FlakyTest.attempts == 2);
+        assertTrue("the test is shown as flaky", capturedStdOut.contains("FlakyTest.failsFirstTime") && capturedStdOut.contains("(flaky: passed on attempt 2)"));
+        assertTrue("the summary counts the flaky test", capturedStdOut.contains("1 flaky"));
+        assertTrue("the first attempt's failure is listed", capturedStdOut.contains("AssertionError: first attempt fails"));
+
+        String report = Files.toString(new File("target/TEST-org.testpackage.runnertest.flakytests.FlakyTest.xml"), Charsets.UTF_8);
+        assertTrue("the test is marked as flaky in the XML report", report.contains("flaky=\"true\" failedAttempts=\"1\""));
+
+        TestHistoryRepository repository = new TestHistoryRepository(".testpackage/history.txt");
+        assertTrue("the test is recorded as flaky", repository.getRecentlyFlaky().contains(FLAKY_METHOD));
+        assertTrue("the test is not recorded as failed", !repository.getRunsSinceLastFailures().containsKey(FLAKY_METHOD));
+    }
+
+    @Test
+    public void testQuarantinedFailuresDoNotFailTheRun() throws IOException {
+
+        TestPackage testPackage = new TestPackage();
+        testPackage.retries = 1;
+        testPackage.run();
+
+        // fails for good this time, as the first attempt fails again
+        FlakyTest.attempts = 0;
+        testPackage = new TestPackage();
+        testPackage.flaky = TestSequencer.FlakyTestHandling.QUARANTINE;
+        int exitCode = testPackage.run();
+
+        assertTrue("the recently flaky test fails", getCapturedStdOut().contains("1 failed"));
+        assertTrue("the quarantined failure is reported", getCapturedStdOut().contains("1 failures of quarantined flaky tests were ignored"));
+        assertEquals("the exit code should be 0", 0, exitCode);
+    }
+
+    @Before
+    @After
+    public void cleanup() {
+        new File(".testpackage/history.txt").delete();
+    }
+}
@@ -0,0 +1,48 @@
+package org.testpackage.test;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runner.Result;
+import org.testpackage.reporting.SlowTestRunListener;
+import org.testpackage.runnertest.simpletests.SimpleTest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Map;
+
+import static org.testpackage.VisibleAssertions.assertEquals;
+import static org.testpackage.VisibleAssertions.assertTrue;
+
+public class SlowTestRunListenerTest {
+
+    private static final Description REGRESSED = Description.createTestDescription(SimpleTest.class, "testTrue1");
+    private static final Description USUAL = Description.createTestDescription(SimpleTest.class, "testTrue2");
+
+    @Test
+    public void testTestsSlowerThanTheirPercentileAreFlagged() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SlowTestRunListener listener = new SlowTestRunListener(
+                ImmutableMap.of(REGRESSED.getDisplayName(), 20L, USUAL.getDisplayName(), 1000L), 5, new PrintStream(out));
+
+        listener.testStarted(REGRESSED);
+        listener.testStarted(USUAL);
+        Thread.sleep(150);
+        listener.testFinished(REGRESSED);
+        listener.testFinished(USUAL);
+        listener.testRunFinished(new Result());
+
+        assertEquals("only the test which took more than 5x its percentile is flagged", 1, listener.getSlowTests().size());
+        assertEquals("the regressed test is flagged", REGRESSED, listener.getSlowTests().get(0).getDescription());
+
+        Map<String, String> attributes = listener.attributesFor(REGRESSED);
+        assertEquals("the flagged test is marked as slow in the XML report", "true", attributes.get("slow"));
+        assertEquals("the flagged test's percentile is reported in seconds", "0.020000", attributes.get("p95Time"));
+        assertTrue("a test which was not flagged has no attributes", listener.attributesFor(USUAL).isEmpty());
+
+        String summary = out.toString("UTF-8");
+        assertTrue("the summary has a heading", summary.contains("*** Slow tests (more than 5.0x their p95 duration):"));
+        assertTrue("the summary lists the flagged test", summary.contains("    SimpleTest.testTrue1: "));
+        assertTrue("the summary does not list tests which were not flagged", !summary.contains("testTrue2"));
+    }
+}
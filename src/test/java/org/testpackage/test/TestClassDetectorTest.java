@@ -0,0 +1,42 @@
+package org.testpackage.test;
+
+import org.junit.Test;
+import org.junit.runner.Request;
+import org.testpackage.TestSequencer;
+import org.testpackage.runnertest.detectiontests.StaticInitialiserHelper;
+import org.testpackage.sequencing.TestClassDetector;
+
+import java.io.IOException;
+
+import static org.testpackage.VisibleAssertions.assertEquals;
+import static org.testpackage.VisibleAssertions.assertTrue;
+
+/**
+ * @see org.testpackage.runnertest.detectiontests
+ */
+public class TestClassDetectorTest {
+
+    private static final String PACKAGE = "org.testpackage.runnertest.detectiontests.";
+
+    @Test
+    public void testDetection() {
+        TestClassDetector detector = new TestClassDetector(TestClassDetectorTest.class.getClassLoader());
+
+        assertTrue("a class with @Test methods is a test", detector.isTestClass("org.testpackage.runnertest.simpletests.SimpleTest"));
+        assertTrue("a class inheriting @Test methods is a test", detector.isTestClass(PACKAGE + "InheritedTest"));
+        assertTrue("a JUnit 3 TestCase is a test", detector.isTestClass(PACKAGE + "JUnit3Test"));
+        assertTrue("a class annotated with @RunWith is a test", detector.isTestClass(PACKAGE + "RunWithTest"));
+        assertTrue("an abstract class is not a test", !detector.isTestClass(PACKAGE + "AbstractBaseTest"));
+        assertTrue("a helper class is not a test", !detector.isTestClass(PACKAGE + "StaticInitialiserHelper"));
+    }
+
+    @Test
+    public void testNonTestClassesAreNotLoaded() throws IOException {
+        System.clearProperty(StaticInitialiserHelper.INITIALISED_PROPERTY);
+
+        Request request = new TestSequencer().sequenceTests("org.testpackage.runnertest.detectiontests");
+
+        assertEquals("the request contains only the real test classes", 3, request.getRunner().getDescription().getChildren().size());
+        assertTrue("the helper class was never initialised", System.getProperty(StaticInitialiserHelper.INITIALISED_PROPERTY) == null);
+    }
+}
@@ -2,7 +2,9 @@ package org.testpackage.test;
 
 import org.testpackage.sequencing.TestHistoryRepository;
 import com.google.common.io.Files;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
 import java.io.IOException;
@@ -16,6 +18,10 @@ import static org.testpackage.VisibleAssertions.assertTrue;
  */
 public class TestHistoryRepositoryTest {
 
+    // also removes the lock files written beside each history file
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Test
     public void simpleStorageTest() throws IOException {
         TestHistoryRepository repository = new TestHistoryRepository("src/test/resources/historysample1.txt");
@@ -28,7 +34,7 @@ public class TestHistoryRepositoryTest {
     @Test
     public void testIncrementOnSave() throws IOException {
 
-        File tempFile = File.createTempFile("testhistory", ".txt");
+        File tempFile = temporaryFolder.newFile();
         Files.copy(new File("src/test/resources/historysample2.txt"), tempFile);
 
         TestHistoryRepository repository = new TestHistoryRepository(tempFile.getAbsolutePath());
@@ -51,7 +57,7 @@ public class TestHistoryRepositoryTest {
 
     @Test
     public void testFileCreation() throws IOException {
-        File tempFile = File.createTempFile("testhistory", ".txt");
+        File tempFile = temporaryFolder.newFile();
         tempFile.delete();
 
         TestHistoryRepository repository = new TestHistoryRepository(tempFile.getAbsolutePath());
@@ -67,4 +73,111 @@ public class TestHistoryRepositoryTest {
 
 
     }
+
+    @Test
+    public void testDurationSmoothing() throws IOException {
+        File tempFile = temporaryFolder.newFile();
+        Files.copy(new File("src/test/resources/historysample2.txt"), tempFile);
+
+        TestHistoryRepository repository = new TestHistoryRepository(tempFile.getAbsolutePath());
+        repository.recordDuration("methodName(ClassName)", 100);
+        repository.recordDuration("otherMethod(ClassName)", 50);
+        repository.save();
+
+        repository = new TestHistoryRepository(tempFile.getAbsolutePath());
+        assertEquals("a first duration is stored as-is", 100L, repository.getExpectedDurations().get("methodName(ClassName)"));
+        assertEquals("a test which has never failed has no failure count", null, repository.getRunsSinceLastFailures().get("otherMethod(ClassName)"));
+        assertEquals("failure counts are kept alongside durations", 1, repository.getRunsSinceLastFailures().get("methodName(ClassName)"));
+
+        repository.recordDuration("methodName(ClassName)", 200);
+        assertEquals("later durations are smoothed", 130L, repository.getExpectedDurations().get("methodName(ClassName)"));
+    }
+
+    @Test
+    public void testDurationPercentiles() throws IOException {
+        File tempFile = temporaryFolder.newFile();
+        tempFile.delete();
+
+        for (int run = 0; run < 20; run++) {
+            TestHistoryRepository repository = new TestHistoryRepository(tempFile.getAbsolutePath());
+            repository.recordDuration("steady(ClassName)", 100 + run % 3);
+            if (run < 4) {
+                repository.recordDuration("new(ClassName)", 100);
+            }
+            repository.save();
+        }
+
+        TestHistoryRepository repository = new TestHistoryRepository(tempFile.getAbsolutePath());
+        Long percentile = repository.getDurationPercentiles(95).get("steady(ClassName)");
+        assertTrue("the 95th percentile is at least the slowest recent duration", percentile >= 102);
+        assertTrue("the 95th percentile overestimates the slowest recent duration by at most a tenth", percentile <= 113);
+        assertEquals("a test with only a few durations has no percentiles", null, repository.getDurationPercentiles(95).get("new(ClassName)"));
+    }
+
+    @Test
+    public void testFailuresSurviveWithoutSave() throws IOException {
+        File tempFile = temporaryFolder.newFile();
+        tempFile.delete();
+
+        TestHistoryRepository repository = new TestHistoryRepository(tempFile.getAbsolutePath());
+        repository.markFailure("Foo", "bar(Foo)");
+        repository.save();
+        repository = new TestHistoryRepository(tempFile.getAbsolutePath());
+        repository.recordDuration("baz(Foo)", 100);
+        repository.markFailure("Foo", "baz(Foo)");
+        // no save, as if the JVM had been killed
+
+        repository = new TestHistoryRepository(tempFile.getAbsolutePath());
+        Map<String, Integer> runsSinceLastFailures = repository.getRunsSinceLastFailures();
+        assertEquals("a failure from the last completed run is kept", 0, runsSinceLastFailures.get("bar(Foo)"));
+        assertTrue("a failure from an interrupted run is kept", runsSinceLastFailures.get("baz(Foo)") <= 0);
+        assertEquals("a duration written before the failure is kept", 100L, repository.getExpectedDurations().get("baz(Foo)"));
+    }
+
+    @Test
+    public void testConcurrentRunsKeepEachOthersResults() throws IOException {
+        File tempFile = temporaryFolder.newFile();
+        tempFile.delete();
+
+        TestHistoryRepository first = new TestHistoryRepository(tempFile.getAbsolutePath());
+        TestHistoryRepository second = new TestHistoryRepository(tempFile.getAbsolutePath());
+        first.markFailure("First", "first(First)");
+        second.markFailure("Second", "second(Second)");
+        second.recordDuration("second(Second)", 100);
+        first.save();
+        second.save();
+
+        TestHistoryRepository repository = new TestHistoryRepository(tempFile.getAbsolutePath());
+        Map<String, Integer> runsSinceLastFailures = repository.getRunsSinceLastFailures();
+        assertEquals("the first run's failure is kept, and counts both completed runs", 1, runsSinceLastFailures.get("first(First)"));
+        assertEquals("the second run's failure is kept, and counts both completed runs", 1, runsSinceLastFailures.get("second(Second)"));
+        assertEquals("the second run's duration is kept", 100L, repository.getExpectedDurations().get("second(Second)"));
+    }
+
+    @Test
+    public void testMerge() throws IOException {
+        File firstShard = temporaryFolder.newFile();
+        File secondShard = temporaryFolder.newFile();
+        File merged = temporaryFolder.newFile();
+        Files.copy(new File("src/test/resources/historysample2.txt"), firstShard);
+        secondShard.delete();
+        merged.delete();
+
+        TestHistoryRepository repository = new TestHistoryRepository(firstShard.getAbsolutePath());
+        repository.recordDuration("methodName(ClassName)", 200);
+        repository.save();
+
+        repository = new TestHistoryRepository(secondShard.getAbsolutePath());
+        repository.markFailure("Other", "other(Other)");
+        repository.recordDuration("methodName(ClassName)", 500);
+        repository.save();
+
+        TestHistoryRepository.merge(merged.getAbsolutePath(), firstShard.getAbsolutePath(), secondShard.getAbsolutePath());
+
+        repository = new TestHistoryRepository(merged.getAbsolutePath());
+        Map<String, Integer> runsSinceLastFailures = repository.getRunsSinceLastFailures();
+        assertEquals("tests from the first shard are merged", 1, runsSinceLastFailures.get("methodName(ClassName)"));
+        assertEquals("tests from the second shard are merged", 0, runsSinceLastFailures.get("other(Other)"));
+        assertEquals("the longest duration is kept", 500L, repository.getExpectedDurations().get("methodName(ClassName)"));
+    }
 }
@@ -0,0 +1,73 @@
+package org.testpackage.test;
+
+import com.google.common.collect.Lists;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.testpackage.sequencing.TestIndex;
+import org.testpackage.sequencing.TestIndexGenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.List;
+
+import static org.testpackage.VisibleAssertions.assertEquals;
+import static org.testpackage.VisibleAssertions.assertNull;
+import static org.testpackage.VisibleAssertions.assertTrue;
+
+/**
+ * @see org.testpackage.runnertest.recursivetests
+ * @see org.testpackage.runnertest.detectiontests
+ */
+public class TestIndexTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testGenerateAndLoad() throws IOException {
+        File outputDirectory = temporaryFolder.newFolder();
+
+        TestIndexGenerator generator = new TestIndexGenerator();
+        generator.setOutputDirectory(outputDirectory);
+        generator.setRecursive(true);
+        generator.setTestPackageNames(Lists.newArrayList("org.testpackage.runnertest.recursivetests"));
+        generator.generate();
+
+        TestIndex testIndex = TestIndex.load(new URLClassLoader(new URL[]{outputDirectory.toURI().toURL()}, null));
+
+        assertTrue("the indexed package is covered", testIndex.covers("org.testpackage.runnertest.recursivetests", true));
+        assertTrue("sub-packages of a recursively indexed package are covered", testIndex.covers("org.testpackage.runnertest.recursivetests.subpackage", false));
+        assertTrue("other packages are not covered", !testIndex.covers("org.testpackage.runnertest.simpletests", false));
+        assertEquals("only the top level package's class is found non-recursively", Lists.newArrayList("org.testpackage.runnertest.recursivetests.TopLevelPackageTest"),
+                testIndex.getTestClassNames("org.testpackage.runnertest.recursivetests", false));
+        assertEquals("both classes are found recursively", 2, testIndex.getTestClassNames("org.testpackage.runnertest.recursivetests", true).size());
+        assertEquals("test methods are indexed", Lists.newArrayList("testTrue"), testIndex.getTestMethodNames("org.testpackage.runnertest.recursivetests.TopLevelPackageTest"));
+    }
+
+    @Test
+    public void testIndexedClassesAreThoseTheRunnerDetects() throws IOException {
+        File outputDirectory = temporaryFolder.newFolder();
+
+        TestIndexGenerator generator = new TestIndexGenerator();
+        generator.setOutputDirectory(outputDirectory);
+        generator.setTestPackageNames(Lists.newArrayList("org.testpackage.runnertest.detectiontests"));
+        generator.generate();
+
+        TestIndex testIndex = TestIndex.load(new URLClassLoader(new URL[]{outputDirectory.toURI().toURL()}, null));
+
+        List<String> testClassNames = testIndex.getTestClassNames("org.testpackage.runnertest.detectiontests", false);
+        assertEquals("only the concrete test classes are indexed", 3, testClassNames.size());
+        assertTrue("a class annotated with @RunWith is indexed", testClassNames.contains("org.testpackage.runnertest.detectiontests.RunWithTest"));
+        assertTrue("a helper class is not indexed", !testClassNames.contains("org.testpackage.runnertest.detectiontests.StaticInitialiserHelper"));
+        assertEquals("inherited test methods are indexed", Lists.newArrayList("inheritedTest"),
+                testIndex.getTestMethodNames("org.testpackage.runnertest.detectiontests.InheritedTest"));
+    }
+
+    @Test
+    public void testNoIndex() throws IOException {
+        assertNull("there is no index if none was generated", TestIndex.load(new URLClassLoader(new URL[0], null)));
+    }
+}
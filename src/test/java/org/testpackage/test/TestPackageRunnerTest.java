@@ -1,6 +1,7 @@
 package org.testpackage.test;
 
 import org.testpackage.TestPackage;
+import com.google.common.base.Charsets;
 import com.google.common.io.Files;
 import org.junit.After;
 import org.junit.Before;
@@ -40,6 +41,38 @@ public class TestPackageRunnerTest extends StreamCaptureBaseTest {
         assertTrue("stdout should contain 'OK'", capturedStdOut.contains("OK"));
     }
 
+    @Test
+    public void testPlainOutput() throws IOException {
+
+        System.setProperty("package", "org.testpackage.runnertest.simpletests");
+
+        TestPackage testPackage = new TestPackage();
+        testPackage.plain = true;
+        testPackage.run();
+
+        String capturedStdOut = getCapturedStdOut();
+
+        assertTrue("stdout should contain the test result", capturedStdOut.contains("SimpleTest.testTrue"));
+        assertTrue("stdout should not contain the in-progress placeholder", !capturedStdOut.contains(">>  SimpleTest.testTrue"));
+        assertTrue("stdout should not contain cursor movements", !capturedStdOut.contains("\u001B[s") && !capturedStdOut.contains("\u001B[u"));
+        assertTrue("stdout should contain '2 passed'", capturedStdOut.contains("2 passed"));
+    }
+
+    @Test
+    public void testPhaseTimings() throws IOException {
+
+        System.setProperty("package", "org.testpackage.runnertest.simpletests");
+
+        new TestPackage().run();
+
+        String capturedStdOut = getCapturedStdOut();
+        String timings = Files.toString(new File("target/testpackage-phases.json"), Charsets.UTF_8);
+
+        assertTrue("stdout should contain the time taken by each phase", capturedStdOut.contains("history load") && capturedStdOut.contains("test execution"));
+        assertTrue("the timings file should contain each phase", timings.contains("{\"name\":\"class scanning\",\"nested\":false,\"nanos\":"));
+        assertTrue("the timings file should contain report writing", timings.contains("{\"name\":\"report writing\",\"nested\":true,"));
+    }
+
     @Test
     public void testFailingTestPrioritisation() throws IOException {
 
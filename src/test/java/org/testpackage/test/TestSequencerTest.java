@@ -6,6 +6,7 @@ import org.junit.Test;
 import org.junit.runner.Request;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.Map;
 
 import static org.testpackage.VisibleAssertions.assertEquals;
@@ -40,4 +41,37 @@ public class TestSequencerTest {
         assertEquals("the last test method is one which has never failed and belongs to class with no historical failures", "testTrue(org.testpackage.runnertest.failureprioritisationtests.aaa_NoRecentFailuresTest)", request.getRunner().getDescription().getChildren().get(1).getChildren().get(0).getDisplayName());
 
     }
+
+    @Test
+    public void testRecursivePackageSearch() throws IOException {
+        Map<String, Integer> noHistory = Collections.emptyMap();
+
+        Request request = new TestSequencer().sequenceTests(noHistory, false, "org.testpackage.runnertest.recursivetests");
+        assertEquals("only the top level package is searched by default", 1, request.getRunner().testCount());
+
+        request = new TestSequencer().sequenceTests(noHistory, true, "org.testpackage.runnertest.recursivetests");
+        assertEquals("sub-packages are searched when recursive", 2, request.getRunner().testCount());
+    }
+
+    @Test
+    public void testMultiplePackages() throws IOException {
+        Request request = new TestSequencer().sequenceTests("org.testpackage.runnertest.simpletests", "org.testpackage.runnertest.failureprioritisationtests");
+
+        assertEquals("the request contains test methods from all packages", 5, request.getRunner().testCount());
+    }
+
+    @Test
+    public void testLongestFirstSequencing() throws IOException {
+        Map<String, Long> expectedDurations = Maps.newHashMap();
+        expectedDurations.put("org.testpackage.runnertest.failureprioritisationtests.aaa_NoRecentFailuresTest", 100L);
+        expectedDurations.put("org.testpackage.runnertest.failureprioritisationtests.zzz_JustFailedTest", 10L);
+        Map<String, Integer> runsSinceLastFailures = Maps.newHashMap();
+
+        Request request = new TestSequencer().sequenceTests(TestSequencer.longestFirst(runsSinceLastFailures, expectedDurations), false, "org.testpackage.runnertest.failureprioritisationtests");
+        assertEquals("the longest running class is first", "org.testpackage.runnertest.failureprioritisationtests.aaa_NoRecentFailuresTest", request.getRunner().getDescription().getChildren().get(0).getDisplayName());
+
+        runsSinceLastFailures.put("org.testpackage.runnertest.failureprioritisationtests.zzz_JustFailedTest", 0);
+        request = new TestSequencer().sequenceTests(TestSequencer.longestFirst(runsSinceLastFailures, expectedDurations), false, "org.testpackage.runnertest.failureprioritisationtests");
+        assertEquals("a class which failed last time is still first", "org.testpackage.runnertest.failureprioritisationtests.zzz_JustFailedTest", request.getRunner().getDescription().getChildren().get(0).getDisplayName());
+    }
 }
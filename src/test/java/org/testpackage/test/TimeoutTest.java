@@ -0,0 +1,84 @@
+package org.testpackage.test;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.testpackage.TestPackage;
+import org.testpackage.runnertest.stucktests.aaa_StuckTest;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+
+import static org.testpackage.VisibleAssertions.assertEquals;
+import static org.testpackage.VisibleAssertions.assertTrue;
+
+public class TimeoutTest extends StreamCaptureBaseTest {
+
+    @Before
+    public void setupStreamCapturing() throws IOException {
+        super.setupStreamCapturing();
+        System.setProperty("package", "org.testpackage.runnertest.timeouttests");
+        deleteThreadDumps();
+        aaa_StuckTest.released = false;
+    }
+
+    @Test
+    public void testHangingTestIsStopped() throws IOException {
+
+        TestPackage testPackage = new TestPackage();
+        testPackage.testTimeout = 1;
+        int exitCode = testPackage.run();
+
+        String capturedStdOut = getCapturedStdOut();
+        assertEquals("the exit code should be 1", 1, exitCode);
+        assertTrue("the hanging test is reported as failed", capturedStdOut.contains("1 failed"));
+        assertTrue("the hanging test's failure says it timed out", capturedStdOut.contains("hangingTest(org.testpackage.runnertest.timeouttests.aaa_HangingTest) timed out after"));
+        assertTrue("the tests after the hanging test still run", capturedStdOut.contains("1 passed"));
+
+        assertEquals("a thread dump is written", 1, threadDumps("threaddump-timeout-hangingTest").length);
+    }
+
+    @Test
+    public void testStuckTestIsAbandoned() throws IOException {
+
+        System.setProperty("package", "org.testpackage.runnertest.stucktests");
+        TestPackage testPackage = new TestPackage();
+        testPackage.testTimeout = 1;
+        int exitCode;
+        try {
+            exitCode = testPackage.run();
+        } finally {
+            aaa_StuckTest.released = true;
+        }
+
+        String capturedStdOut = getCapturedStdOut();
+        assertEquals("the exit code should be 1", 1, exitCode);
+        assertTrue("the stuck test is reported as abandoned", capturedStdOut.contains("and was abandoned as it did not stop when interrupted"));
+        assertTrue("the tests after the stuck test still run", capturedStdOut.contains("1 passed"));
+        assertEquals("a thread dump is written when the test gets stuck", 1, threadDumps("threaddump-stuck-stuckTest").length);
+    }
+
+    @After
+    public void cleanup() {
+        System.clearProperty("package");
+        aaa_StuckTest.released = true;
+        deleteThreadDumps();
+    }
+
+    private static File[] threadDumps(final String prefix) {
+        File[] threadDumps = new File("target").listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(prefix);
+            }
+        });
+        return threadDumps == null ? new File[0] : threadDumps;
+    }
+
+    private static void deleteThreadDumps() {
+        for (File threadDump : threadDumps("threaddump-")) {
+            threadDump.delete();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.testpackage.test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.twitter.common.testing.runner.AntJunitXmlReportListener;
+import org.junit.Before;
+import org.junit.Test;
+import org.testpackage.TestPackage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import static org.testpackage.VisibleAssertions.assertEquals;
+import static org.testpackage.VisibleAssertions.assertTrue;
+
+/**
+ * @see org.testpackage.runnertest.outputtests
+ */
+public class XmlReportTest extends StreamCaptureBaseTest {
+
+    private static final File REPORT = new File("target/TEST-org.testpackage.runnertest.outputtests.OutputTest.xml");
+
+    @Before
+    public void setupStreamCapturing() throws IOException {
+        super.setupStreamCapturing();
+        System.setProperty("package", "org.testpackage.runnertest.outputtests");
+        REPORT.delete();
+    }
+
+    @Test
+    public void testCapturedOutputIsReported() throws IOException {
+        new TestPackage().run();
+
+        String report = Files.toString(REPORT, Charsets.UTF_8);
+        assertTrue("the report contains the test class's stdout", report.contains("<system-out>Written to stdout"));
+        assertTrue("the report contains the test class's stderr", report.contains("<system-err>Written to stderr"));
+        assertTrue("the report contains system properties", report.contains("<property name=\"package\" value=\"org.testpackage.runnertest.outputtests\""));
+    }
+
+    @Test
+    public void testReportIsWrittenByAsynchronousListener() throws IOException {
+        TestPackage testPackage = new TestPackage();
+        testPackage.asyncListeners = true;
+        testPackage.run();
+
+        String report = Files.toString(REPORT, Charsets.UTF_8);
+        assertTrue("the report is complete when the run returns", report.contains("<system-out>Written to stdout") && report.trim().endsWith("</testsuite>"));
+    }
+
+    @Test
+    public void testMetricsAreReported() throws IOException {
+        TestPackage testPackage = new TestPackage();
+        testPackage.metrics = true;
+        testPackage.run();
+
+        String report = Files.toString(REPORT, Charsets.UTF_8);
+        assertTrue("the report has each test's CPU time", report.contains(" cpuTime=\""));
+        assertTrue("the report has each test's allocation", report.contains(" allocatedBytes=\""));
+        assertTrue("the report has the garbage collections during each test", report.contains(" gcCount=\"") && report.contains(" gcTime=\""));
+        assertTrue("the summary lists the tests using the most CPU time", getCapturedStdOut().contains("*** Top tests by CPU time:"));
+    }
+
+    @Test
+    public void testCharacterSplitAcrossWritesIsKept() throws IOException {
+        StringWriter report = new StringWriter();
+        Writer writer = replacingInvalidCharacters(report);
+        String emoji = new String(Character.toChars(0x1F600));
+
+        writer.write("before" + emoji.charAt(0));
+        writer.write(emoji.charAt(1) + "after");
+        writer.close();
+
+        assertEquals("the supplementary character is written whole", "before" + emoji + "after", report.toString());
+    }
+
+    @Test
+    public void testUnpairedHighSurrogateIsReplacedWhenClosed() throws IOException {
+        StringWriter report = new StringWriter();
+        Writer writer = replacingInvalidCharacters(report);
+
+        writer.write("before\uD83D");
+        assertEquals("a trailing high surrogate is held back", "before", report.toString());
+        writer.close();
+
+        assertEquals("the unpaired high surrogate is replaced", "before?", report.toString());
+    }
+
+    private static Writer replacingInvalidCharacters(Writer report) {
+        return new AntJunitXmlReportListener.XmlWriter(report) {
+            @Override
+            protected void handleInvalid(int c) throws IOException {
+                out.write('?');
+            }
+        };
+    }
+}